@@ -18,13 +18,15 @@ package org.jetbrains.kotlin.incremental
 
 import org.jetbrains.annotations.TestOnly
 import org.jetbrains.kotlin.config.IncrementalCompilation
+import org.jetbrains.kotlin.incremental.storage.MappedStorage
+import org.jetbrains.kotlin.incremental.storage.StorageKind
 import org.jetbrains.kotlin.load.java.JvmBytecodeBinaryVersion
 import org.jetbrains.kotlin.load.kotlin.JvmMetadataVersion
 import java.io.File
 
 private val NORMAL_VERSION = 8
 private val EXPERIMENTAL_VERSION = 2
-private val DATA_CONTAINER_VERSION = 1
+private val DATA_CONTAINER_VERSION = 2
 
 private val NORMAL_VERSION_FILE_NAME = "format-version.txt"
 private val EXPERIMENTAL_VERSION_FILE_NAME = "experimental-format-version.txt"
@@ -47,7 +49,9 @@ class CacheVersion(
         get() {
             val metadata = JvmMetadataVersion.INSTANCE
             val bytecode = JvmBytecodeBinaryVersion.INSTANCE
-            return ownVersion * 1000000 +
+            // caches are rebuilt when memory-mapped storage is turned on or off or its format is changed
+            val storage = if (StorageKind.isMappedStorageEnabled) MappedStorage.VERSION * 100000000 else 0
+            return storage + ownVersion * 1000000 +
                    bytecode.major * 10000 + bytecode.minor * 100 +
                    metadata.major * 1000 + metadata.minor
         }
@@ -37,6 +37,8 @@ import org.jetbrains.kotlin.serialization.deserialization.TypeTable
 import org.jetbrains.kotlin.serialization.deserialization.supertypes
 import org.jetbrains.kotlin.serialization.jvm.BitEncoding
 import org.jetbrains.kotlin.serialization.jvm.JvmProtoBufUtil
+import org.jetbrains.kotlin.utils.NamedDaemonThreadFactory
+import org.jetbrains.kotlin.utils.rethrow
 import org.jetbrains.org.objectweb.asm.ClassReader
 import org.jetbrains.org.objectweb.asm.ClassVisitor
 import org.jetbrains.org.objectweb.asm.FieldVisitor
@@ -44,6 +46,9 @@ import org.jetbrains.org.objectweb.asm.Opcodes
 import java.io.File
 import java.security.MessageDigest
 import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
 
 val KOTLIN_CACHE_DIRECTORY_NAME = "kotlin"
 
@@ -64,6 +69,8 @@ open class IncrementalCacheImpl<Target>(
         private val SUPERTYPES = "supertypes"
 
         private val MODULE_MAPPING_FILE_NAME = "." + ModuleMapping.MAPPING_FILE_EXT
+
+        private val MIN_CLASSES_TO_UPDATE_IN_PARALLEL = 16
     }
 
     private val baseDir = File(targetDataRoot, KOTLIN_CACHE_DIRECTORY_NAME)
@@ -133,67 +140,115 @@ open class IncrementalCacheImpl<Target>(
     }
 
     fun saveFileToCache(generatedClass: GeneratedJvmClass<Target>): CompilationResult {
+        val changesInfo = prepareUpdate(generatedClass).apply()
+        changesInfo.logIfSomethingChanged(generatedClass.outputClass.className)
+        return changesInfo
+    }
+
+    // Changes of classes are computed concurrently, because they depend only on cached data of the same class.
+    // Caches are updated sequentially in the order of classes, so results are the same as of saveFileToCache called for each class
+    fun saveFilesToCache(generatedClasses: List<GeneratedJvmClass<Target>>): List<CompilationResult> {
+        val classNames = generatedClasses.map { it.outputClass.className }
+        if (generatedClasses.size < MIN_CLASSES_TO_UPDATE_IN_PARALLEL || classNames.toSet().size != classNames.size) {
+            return generatedClasses.map { saveFileToCache(it) }
+        }
+
+        val threadCount = Math.min(Runtime.getRuntime().availableProcessors(), generatedClasses.size)
+        val executor = Executors.newFixedThreadPool(threadCount, NamedDaemonThreadFactory("Kotlin incremental cache worker"))
+        try {
+            val updates = generatedClasses.map { generatedClass ->
+                executor.submit(Callable { prepareUpdate(generatedClass) })
+            }
+
+            val results = ArrayList<CompilationResult>(generatedClasses.size)
+            for (i in generatedClasses.indices) {
+                val update = try {
+                    updates[i].get()
+                }
+                catch (e: ExecutionException) {
+                    throw rethrow(e.cause ?: e)
+                }
+
+                val changesInfo = update.apply()
+                changesInfo.logIfSomethingChanged(classNames[i])
+                results.add(changesInfo)
+            }
+            return results
+        }
+        finally {
+            executor.shutdownNow()
+        }
+    }
+
+    // Doesn't modify caches, so it can be called concurrently for different classes
+    private fun prepareUpdate(generatedClass: GeneratedJvmClass<Target>): CacheUpdate {
         val sourceFiles: Collection<File> = generatedClass.sourceFiles
         val kotlinClass: LocalFileKotlinClass = generatedClass.outputClass
         val className = kotlinClass.className
 
-        dirtyOutputClassesMap.notDirty(className.internalName)
-        sourceFiles.forEach {
-            sourceToClassesMap.add(it, className)
+        val outputsUpdate = CacheUpdate(CompilationResult.NO_CHANGES) {
+            dirtyOutputClassesMap.notDirty(className.internalName)
+            sourceFiles.forEach {
+                sourceToClassesMap.add(it, className)
+            }
         }
 
         if (kotlinClass.classId.isLocal) {
-            return CompilationResult.NO_CHANGES
+            return outputsUpdate
         }
 
         val header = kotlinClass.classHeader
-        val changesInfo = when (header.kind) {
+        val classUpdate = when (header.kind) {
             KotlinClassHeader.Kind.FILE_FACADE -> {
                 assert(sourceFiles.size == 1) { "Package part from several source files: $sourceFiles" }
-                packagePartMap.addPackagePart(className)
 
-                protoMap.process(kotlinClass, isPackage = true) +
-                constantsMap.process(kotlinClass) +
-                additionalProcessChangedClass(kotlinClass, isPackage = true)
+                CacheUpdate(CompilationResult.NO_CHANGES) { packagePartMap.addPackagePart(className) } +
+                protoMap.prepare(kotlinClass, isPackage = true) +
+                constantsMap.prepare(kotlinClass, isPackage = true) +
+                additionalPrepareChangedClass(kotlinClass, isPackage = true)
             }
             KotlinClassHeader.Kind.MULTIFILE_CLASS -> {
                 val partNames = kotlinClass.classHeader.data?.toList()
                                 ?: throw AssertionError("Multifile class has no parts: ${kotlinClass.className}")
-                multifileFacadeToParts[className] = partNames
-                // When a class is replaced with a facade with the same name,
-                // the class' proto wouldn't ever be deleted,
-                // because we don't write proto for multifile facades.
-                // As a workaround we can remove proto values for multifile facades.
-                protoMap.remove(className)
+                val facadeUpdate = CacheUpdate(CompilationResult.NO_CHANGES) {
+                    multifileFacadeToParts[className] = partNames
+                    // When a class is replaced with a facade with the same name,
+                    // the class' proto wouldn't ever be deleted,
+                    // because we don't write proto for multifile facades.
+                    // As a workaround we can remove proto values for multifile facades.
+                    protoMap.remove(className)
+                }
 
                 // TODO NO_CHANGES? (delegates only)
-                constantsMap.process(kotlinClass) +
-                additionalProcessChangedClass(kotlinClass, isPackage = true)
+                facadeUpdate +
+                constantsMap.prepare(kotlinClass, isPackage = true) +
+                additionalPrepareChangedClass(kotlinClass, isPackage = true)
             }
             KotlinClassHeader.Kind.MULTIFILE_CLASS_PART -> {
                 assert(sourceFiles.size == 1) { "Multifile class part from several source files: $sourceFiles" }
-                packagePartMap.addPackagePart(className)
-                partToMultifileFacade.set(className.internalName, header.multifileClassName!!)
+                val partUpdate = CacheUpdate(CompilationResult.NO_CHANGES) {
+                    packagePartMap.addPackagePart(className)
+                    partToMultifileFacade.set(className.internalName, header.multifileClassName!!)
+                }
 
-                protoMap.process(kotlinClass, isPackage = true) +
-                constantsMap.process(kotlinClass) +
-                additionalProcessChangedClass(kotlinClass, isPackage = true)
+                partUpdate +
+                protoMap.prepare(kotlinClass, isPackage = true) +
+                constantsMap.prepare(kotlinClass, isPackage = true) +
+                additionalPrepareChangedClass(kotlinClass, isPackage = true)
             }
             KotlinClassHeader.Kind.CLASS -> {
-                addToClassStorage(kotlinClass)
-
-                protoMap.process(kotlinClass, isPackage = false) +
-                constantsMap.process(kotlinClass) +
-                additionalProcessChangedClass(kotlinClass, isPackage = false)
+                CacheUpdate(CompilationResult.NO_CHANGES) { addToClassStorage(kotlinClass) } +
+                protoMap.prepare(kotlinClass, isPackage = false) +
+                constantsMap.prepare(kotlinClass, isPackage = false) +
+                additionalPrepareChangedClass(kotlinClass, isPackage = false)
             }
-            else -> CompilationResult.NO_CHANGES
+            else -> CacheUpdate.NO_CHANGES
         }
 
-        changesInfo.logIfSomethingChanged(className)
-        return changesInfo
+        return outputsUpdate + classUpdate
     }
 
-    protected open fun additionalProcessChangedClass(kotlinClass: LocalFileKotlinClass, isPackage: Boolean) = CompilationResult.NO_CHANGES
+    protected open fun additionalPrepareChangedClass(kotlinClass: LocalFileKotlinClass, isPackage: Boolean) = CacheUpdate.NO_CHANGES
 
     private fun CompilationResult.logIfSomethingChanged(className: JvmClassName) {
         if (this == CompilationResult.NO_CHANGES) return
@@ -346,31 +401,38 @@ open class IncrementalCacheImpl<Target>(
 
     private inner class ProtoMap(storageFile: File) : BasicStringMap<ProtoMapValue>(storageFile, ProtoMapValueExternalizer) {
 
-        fun process(kotlinClass: LocalFileKotlinClass, isPackage: Boolean): CompilationResult {
+        fun prepare(kotlinClass: LocalFileKotlinClass, isPackage: Boolean): CacheUpdate {
             val header = kotlinClass.classHeader
             val bytes = BitEncoding.decodeBytes(header.data!!)
-            return put(kotlinClass.className, bytes, header.strings!!, isPackage, checkChangesIsOpenPart = true)
+            return preparePut(kotlinClass.className, bytes, header.strings!!, isPackage, checkChangesIsOpenPart = true)
         }
 
         fun process(className: JvmClassName, data: ByteArray, strings: Array<String>, isPackage: Boolean, checkChangesIsOpenPart: Boolean): CompilationResult {
-            return put(className, data, strings, isPackage, checkChangesIsOpenPart)
+            return preparePut(className, data, strings, isPackage, checkChangesIsOpenPart).apply()
         }
 
-        private fun put(
+        private fun preparePut(
                 className: JvmClassName, bytes: ByteArray, strings: Array<String>, isPackage: Boolean, checkChangesIsOpenPart: Boolean
-        ): CompilationResult {
+        ): CacheUpdate {
             val key = className.internalName
             val oldData = storage[key]
             val data = ProtoMapValue(isPackage, bytes, strings)
 
-            if (oldData == null ||
-                !Arrays.equals(bytes, oldData.bytes) ||
-                !Arrays.equals(strings, oldData.strings) ||
-                isPackage != oldData.isPackageFacade
-            ) {
-                storage[key] = data
+            val isDataChanged = oldData == null ||
+                                !Arrays.equals(bytes, oldData.bytes) ||
+                                !Arrays.equals(strings, oldData.strings) ||
+                                isPackage != oldData.isPackageFacade
+
+            return CacheUpdate(computeChanges(className, oldData, data, isPackage, checkChangesIsOpenPart)) {
+                if (isDataChanged) {
+                    storage[key] = data
+                }
             }
+        }
 
+        private fun computeChanges(
+                className: JvmClassName, oldData: ProtoMapValue?, data: ProtoMapValue, isPackage: Boolean, checkChangesIsOpenPart: Boolean
+        ): CompilationResult {
             if (oldData == null || !checkChangesIsOpenPart) return CompilationResult(protoChanged = true)
 
             val difference = difference(oldData, data)
@@ -423,28 +485,53 @@ open class IncrementalCacheImpl<Target>(
         operator fun contains(className: JvmClassName): Boolean =
                 className.internalName in storage
 
-        fun process(kotlinClass: LocalFileKotlinClass): CompilationResult {
-            return put(kotlinClass.className, getConstantsMap(kotlinClass.fileContents))
+        fun prepare(kotlinClass: LocalFileKotlinClass, isPackage: Boolean): CacheUpdate {
+            val key = kotlinClass.className.internalName
+            val constantsMap = getConstantsMap(kotlinClass.fileContents)
+
+            val oldMap = storage[key]
+            if (oldMap == constantsMap) return CacheUpdate.NO_CHANGES
+
+            val changes =
+                    if (IncrementalCompilation.isExperimental()) {
+                        val oldConstants = oldMap.orEmpty()
+                        val newConstants = constantsMap.orEmpty()
+                        val changedNames = (oldConstants.keys + newConstants.keys).filter { oldConstants[it] != newConstants[it] }
+
+                        kotlinClass.scopesOfConstants(isPackage).map { ChangeInfo.MembersChanged(it, changedNames) }.asSequence()
+                    }
+                    else {
+                        emptySequence<ChangeInfo>()
+                    }
+
+            return CacheUpdate(CompilationResult(constantsChanged = true, changes = changes)) {
+                put(key, constantsMap)
+            }
         }
 
-        private fun put(className: JvmClassName, constantsMap: Map<String, Any>?): CompilationResult {
-            val key = className.internalName
+        // Constants of a companion object are stored in static fields of its containing class,
+        // so usages of the constants are looked up both in the class and in the companion object
+        private fun LocalFileKotlinClass.scopesOfConstants(isPackage: Boolean): List<FqName> {
+            if (isPackage) return listOf(className.packageFqName)
 
-            val oldMap = storage[key]
-            if (oldMap == constantsMap) return CompilationResult.NO_CHANGES
+            val fqName = className.fqNameForClassNameWithoutDollars
+            val classData = JvmProtoBufUtil.readClassDataFrom(classHeader.data!!, classHeader.strings!!)
+            if (!classData.classProto.hasCompanionObjectName()) return listOf(fqName)
 
+            return listOf(fqName, fqName.child(classData.nameResolver.getName(classData.classProto.companionObjectName)))
+        }
+
+        private fun put(key: String, constantsMap: Map<String, Any>?) {
             if (constantsMap != null) {
                 storage[key] = constantsMap
             }
             else {
                 storage.remove(key)
             }
-
-            return CompilationResult(constantsChanged = true)
         }
 
         fun remove(className: JvmClassName) {
-            put(className, null)
+            put(className.internalName, null)
         }
 
         override fun dumpValue(value: Map<String, Any>): String =
@@ -615,6 +702,26 @@ data class CompilationResult(
                               changes + other.changes)
 }
 
+/**
+ * Changes of a class computed from cached data, caches are modified only when the update is applied
+ */
+class CacheUpdate(val result: CompilationResult, private val write: () -> Unit) {
+    companion object {
+        val NO_CHANGES: CacheUpdate = CacheUpdate(CompilationResult.NO_CHANGES) {}
+    }
+
+    operator fun plus(other: CacheUpdate): CacheUpdate =
+            CacheUpdate(result + other.result) {
+                write()
+                other.write()
+            }
+
+    fun apply(): CompilationResult {
+        write()
+        return result
+    }
+}
+
 fun ByteArray.md5(): Long {
     val d = MessageDigest.getInstance("MD5").digest(this)!!
     return ((d[0].toLong() and 0xFFL)
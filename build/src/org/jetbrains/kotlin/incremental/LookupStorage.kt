@@ -69,8 +69,18 @@ open class LookupStorage(private val targetDataDir: File) : BasicMapsOwner() {
         for ((lookupSymbol, paths) in lookups) {
             val key = LookupSymbolKey(lookupSymbol.name, lookupSymbol.scope)
             val fileIds = paths.mapTo(HashSet<Int>()) { pathToId[it]!! }
-            fileIds.addAll(lookupMap[key] ?: emptySet())
-            lookupMap[key] = fileIds
+            val existingIds = lookupMap[key]
+
+            if (existingIds == null) {
+                lookupMap[key] = fileIds
+            }
+            else {
+                // only new ids are appended as a separate chunk, so the whole set is not rewritten
+                fileIds.removeAll(existingIds)
+                if (fileIds.isNotEmpty()) {
+                    lookupMap.append(key, fileIds)
+                }
+            }
         }
     }
 
@@ -26,9 +26,10 @@ import java.io.File
 abstract class BasicMap<K : Comparable<K>, V>(
         storageFile: File,
         keyDescriptor: KeyDescriptor<K>,
-        valueExternalizer: DataExternalizer<V>
+        valueExternalizer: DataExternalizer<V>,
+        storageKind: StorageKind = StorageKind.forStorageFile(storageFile)
 ) {
-    protected val storage = LazyStorage(storageFile, keyDescriptor, valueExternalizer)
+    protected val storage = createStorage(storageKind, storageFile, keyDescriptor, valueExternalizer)
 
     fun clean() {
         storage.clean()
@@ -70,8 +71,9 @@ abstract class BasicMap<K : Comparable<K>, V>(
 abstract class BasicStringMap<V>(
         storageFile: File,
         keyDescriptor: KeyDescriptor<String>,
-        valueExternalizer: DataExternalizer<V>
-) : BasicMap<String, V>(storageFile, keyDescriptor, valueExternalizer) {
+        valueExternalizer: DataExternalizer<V>,
+        storageKind: StorageKind = StorageKind.forStorageFile(storageFile)
+) : BasicMap<String, V>(storageFile, keyDescriptor, valueExternalizer, storageKind) {
     constructor(
             storageFile: File,
             valueExternalizer: DataExternalizer<V>
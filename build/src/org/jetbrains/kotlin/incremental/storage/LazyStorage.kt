@@ -17,7 +17,6 @@
 package org.jetbrains.kotlin.incremental.storage
 
 import com.intellij.util.io.DataExternalizer
-import com.intellij.util.io.IOUtil
 import com.intellij.util.io.KeyDescriptor
 import com.intellij.util.io.PersistentHashMap
 import java.io.DataOutput
@@ -32,7 +31,7 @@ class LazyStorage<K, V>(
         private val storageFile: File,
         private val keyDescriptor: KeyDescriptor<K>,
         private val valueExternalizer: DataExternalizer<V>
-) {
+) : PersistentStorage<K, V> {
     @Volatile
     private var storage: PersistentHashMap<K, V>? = null
 
@@ -57,33 +56,33 @@ class LazyStorage<K, V>(
         return storage!!
     }
 
-    val keys: Collection<K>
+    override val keys: Collection<K>
         get() = getStorageIfExists()?.allKeysWithExistingMapping ?: listOf()
 
-    operator fun contains(key: K): Boolean =
+    override fun contains(key: K): Boolean =
             getStorageIfExists()?.containsMapping(key) ?: false
 
-    operator fun get(key: K): V? =
+    override fun get(key: K): V? =
             getStorageIfExists()?.get(key)
 
-    operator fun set(key: K, value: V) {
+    override fun set(key: K, value: V) {
         getStorageOrCreateNew().put(key, value)
     }
 
-    fun remove(key: K) {
+    override fun remove(key: K) {
         getStorageIfExists()?.remove(key)
     }
 
-    fun append(key: K, value: String) {
-        append(key) { out -> IOUtil.writeUTF(out, value) }
+    override fun appendData(key: K, append: (DataOutput) -> Unit) {
+        getStorageOrCreateNew().appendData(key, append)
     }
 
-    fun append(key: K, value: Int) {
-        append(key) { out -> out.writeInt(value) }
+    override fun appendValue(key: K, value: V) {
+        appendData(key) { out -> valueExternalizer.save(out, value) }
     }
 
     @Synchronized
-    fun clean() {
+    override fun clean() {
         try {
             storage?.close()
         }
@@ -95,7 +94,7 @@ class LazyStorage<K, V>(
     }
 
     @Synchronized
-    fun flush(memoryCachesOnly: Boolean) {
+    override fun flush(memoryCachesOnly: Boolean) {
         val existingStorage = storage ?: return
 
         if (memoryCachesOnly) {
@@ -109,14 +108,10 @@ class LazyStorage<K, V>(
     }
 
     @Synchronized
-    fun close() {
+    override fun close() {
         storage?.close()
     }
 
     private fun createMap(): PersistentHashMap<K, V> =
             PersistentHashMap(storageFile, keyDescriptor, valueExternalizer)
-
-    private fun append(key: K, append: (DataOutput)->Unit) {
-        getStorageOrCreateNew().appendData(key, append)
-    }
 }
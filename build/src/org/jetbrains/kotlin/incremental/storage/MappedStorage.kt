@@ -0,0 +1,526 @@
+/*
+ * Copyright 2010-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.incremental.storage
+
+import com.intellij.util.io.DataExternalizer
+import com.intellij.util.io.KeyDescriptor
+import java.io.*
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.util.*
+
+/**
+ * Storage backed by an append-only log of records in a memory-mapped file and an off-heap hash index of the log.
+ *
+ * The file header holds the format version, the length of the committed part of the log and a dirty flag.
+ * The flag is set before the first change after a commit and is cleared by flush(false) and close(),
+ * so a storage which was not closed properly fails to open, like a corrupted PersistentHashMap.
+ * The index is rebuilt from the log on open. On commit the log is compacted if most of its records are superseded.
+ *
+ * Like LazyStorage, the file is created only on write
+ */
+class MappedStorage<K, V>(
+        private val file: File,
+        private val keyDescriptor: KeyDescriptor<K>,
+        private val valueExternalizer: DataExternalizer<V>
+) : PersistentStorage<K, V> {
+    companion object {
+        val VERSION = 1
+
+        private val MAGIC = 0x4B4D4150
+        private val VERSION_OFFSET = 4
+        private val DIRTY_OFFSET = 8
+        private val LENGTH_OFFSET = 16
+        private val HEADER_SIZE = 24
+
+        private val PUT: Byte = 1
+        private val APPEND: Byte = 2
+        private val REMOVE: Byte = 3
+
+        // record is its kind, offset of the previous appended record of the same key, key length, value length, key and value
+        private val PREVIOUS_OFFSET = 1
+        private val KEY_LENGTH_OFFSET = 5
+        private val VALUE_LENGTH_OFFSET = 9
+        private val RECORD_HEADER_SIZE = 13
+
+        // index slot is a hash of the key and offset of the last record of the key
+        private val SLOT_SIZE = 8
+        private val NO_RECORD = 0
+        private val REMOVED = -1
+
+        private val MIN_INDEX_CAPACITY = 64
+        private val MIN_FILE_CAPACITY = 64 * 1024
+        private val MIN_RECORDS_TO_COMPACT = 1000
+
+        private val EMPTY_BYTES = ByteArray(0)
+
+        fun mappedStorageFile(storageFile: File): File =
+                File(storageFile.parentFile, storageFile.nameWithoutExtension + ".mmap")
+    }
+
+    private var randomAccessFile: RandomAccessFile? = null
+    private var buffer: MappedByteBuffer? = null
+    private var length = HEADER_SIZE
+    private var recordCount = 0
+    private var isDirty = false
+
+    private var index = ByteBuffer.allocateDirect(0)
+    private var indexCapacity = 0
+    private var size = 0
+    private var usedSlots = 0
+
+    override val keys: Collection<K>
+        @Synchronized get() {
+            if (!openIfExists()) return listOf()
+
+            val result = ArrayList<K>(size)
+            for (slot in 0..indexCapacity - 1) {
+                val offset = recordOffset(slot)
+                if (offset > 0) {
+                    result.add(keyDescriptor.read(DataInputStream(ByteArrayInputStream(readKey(offset)))))
+                }
+            }
+            return result
+        }
+
+    @Synchronized
+    override fun contains(key: K): Boolean {
+        if (!openIfExists()) return false
+
+        val keyBytes = keyBytes(key)
+        return findSlot(keyBytes, hash(keyBytes)) >= 0
+    }
+
+    @Synchronized
+    override fun get(key: K): V? {
+        if (!openIfExists()) return null
+
+        val keyBytes = keyBytes(key)
+        val slot = findSlot(keyBytes, hash(keyBytes))
+        if (slot < 0) return null
+
+        return valueExternalizer.read(DataInputStream(ByteArrayInputStream(readValue(recordOffset(slot)))))
+    }
+
+    @Synchronized
+    override fun set(key: K, value: V) {
+        openOrCreate()
+
+        val keyBytes = keyBytes(key)
+        val offset = writeRecord(PUT, NO_RECORD, keyBytes, toBytes { valueExternalizer.save(it, value) })
+        setRecordOffset(keyBytes, hash(keyBytes), offset)
+    }
+
+    @Synchronized
+    override fun remove(key: K) {
+        if (!openIfExists()) return
+
+        val keyBytes = keyBytes(key)
+        val slot = findSlot(keyBytes, hash(keyBytes))
+        if (slot < 0) return
+
+        writeRecord(REMOVE, NO_RECORD, keyBytes, EMPTY_BYTES)
+        index.putInt(slot * SLOT_SIZE + 4, REMOVED)
+        size--
+    }
+
+    @Synchronized
+    override fun appendData(key: K, append: (DataOutput) -> Unit) {
+        openOrCreate()
+
+        val keyBytes = keyBytes(key)
+        val hash = hash(keyBytes)
+        val slot = findSlot(keyBytes, hash)
+        val previous = if (slot >= 0) recordOffset(slot) else NO_RECORD
+        val offset = writeRecord(APPEND, previous, keyBytes, toBytes(append))
+        setRecordOffset(keyBytes, hash, offset)
+    }
+
+    override fun appendValue(key: K, value: V) {
+        appendData(key) { out -> valueExternalizer.save(out, value) }
+    }
+
+    @Synchronized
+    override fun clean() {
+        try {
+            closeFile()
+        }
+        catch (ignored: IOException) {
+        }
+
+        if (!file.exists() || file.delete()) return
+
+        // the file can't be deleted while it's mapped, and JDK 6 unmaps it only when the buffer is garbage collected,
+        // so the log is emptied instead
+        try {
+            RandomAccessFile(file, "rw").use { raf ->
+                raf.seek(0)
+                raf.writeInt(MAGIC)
+                raf.seek(VERSION_OFFSET.toLong())
+                raf.writeInt(VERSION)
+                raf.seek(DIRTY_OFFSET.toLong())
+                raf.writeInt(0)
+                raf.seek(LENGTH_OFFSET.toLong())
+                raf.writeLong(HEADER_SIZE.toLong())
+            }
+        }
+        catch (e: IOException) {
+            throw IOException("Could not delete or empty $file", e)
+        }
+    }
+
+    @Synchronized
+    override fun flush(memoryCachesOnly: Boolean) {
+        // there are no in-memory caches, mapped pages are written out by the OS
+        if (memoryCachesOnly) return
+
+        commit()
+    }
+
+    @Synchronized
+    override fun close() {
+        try {
+            commit()
+        }
+        finally {
+            closeFile()
+        }
+    }
+
+    private fun openIfExists(): Boolean {
+        if (buffer != null) return true
+        if (!file.exists()) return false
+
+        open()
+        return true
+    }
+
+    private fun openOrCreate() {
+        if (buffer == null) {
+            open()
+        }
+    }
+
+    private fun open() {
+        file.parentFile?.mkdirs()
+        val raf = RandomAccessFile(file, "rw")
+        randomAccessFile = raf
+
+        try {
+            if (raf.length() == 0L) {
+                map(MIN_FILE_CAPACITY.toLong())
+                val buffer = buffer!!
+                buffer.putInt(0, MAGIC)
+                buffer.putInt(VERSION_OFFSET, VERSION)
+                buffer.putInt(DIRTY_OFFSET, 0)
+                buffer.putLong(LENGTH_OFFSET, HEADER_SIZE.toLong())
+                length = HEADER_SIZE
+                recordCount = 0
+                resetIndex(MIN_INDEX_CAPACITY)
+            }
+            else {
+                map(raf.length())
+                val buffer = buffer!!
+                if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(VERSION_OFFSET) != VERSION) {
+                    throw IOException("Unknown format of $file")
+                }
+                if (buffer.getInt(DIRTY_OFFSET) != 0) {
+                    throw IOException("$file was not closed properly")
+                }
+
+                val committedLength = buffer.getLong(LENGTH_OFFSET)
+                if (committedLength < HEADER_SIZE || committedLength > buffer.capacity()) {
+                    throw IOException("Corrupted header of $file")
+                }
+                length = committedLength.toInt()
+                rebuildIndex()
+            }
+            isDirty = false
+        }
+        catch (e: IOException) {
+            closeFile()
+            throw e
+        }
+    }
+
+    private fun map(capacity: Long) {
+        if (capacity > Int.MAX_VALUE) throw IOException("$file is too large to be mapped")
+
+        val raf = randomAccessFile!!
+        if (raf.length() < capacity) {
+            raf.setLength(capacity)
+        }
+        buffer = raf.channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity)
+    }
+
+    private fun closeFile() {
+        // mapped buffer is unmapped when it's garbage collected
+        buffer = null
+        try {
+            randomAccessFile?.close()
+        }
+        finally {
+            randomAccessFile = null
+            isDirty = false
+            resetIndex(0)
+        }
+    }
+
+    private fun commit() {
+        if (buffer == null || !isDirty) return
+
+        if (recordCount > MIN_RECORDS_TO_COMPACT && recordCount > 2 * size) {
+            compact()
+        }
+
+        val buffer = buffer!!
+        buffer.putLong(LENGTH_OFFSET, length.toLong())
+        buffer.force()
+        buffer.putInt(DIRTY_OFFSET, 0)
+        buffer.force()
+        isDirty = false
+    }
+
+    private fun markDirty() {
+        if (isDirty) return
+
+        val buffer = buffer!!
+        buffer.putInt(DIRTY_OFFSET, 1)
+        buffer.force()
+        isDirty = true
+    }
+
+    // Rewrites the log keeping a single record per key, the storage is dirty until the next commit
+    private fun compact() {
+        val entries = ArrayList<Pair<ByteArray, ByteArray>>(size)
+        for (slot in 0..indexCapacity - 1) {
+            val offset = recordOffset(slot)
+            if (offset > 0) {
+                entries.add(Pair(readKey(offset), readValue(offset)))
+            }
+        }
+
+        length = HEADER_SIZE
+        recordCount = 0
+        resetIndex(indexCapacityFor(entries.size))
+
+        for ((key, value) in entries) {
+            val offset = writeRecord(PUT, NO_RECORD, key, value)
+            setRecordOffset(key, hash(key), offset)
+        }
+    }
+
+    private fun rebuildIndex() {
+        val buffer = buffer!!
+        resetIndex(MIN_INDEX_CAPACITY)
+        recordCount = 0
+
+        var offset = HEADER_SIZE
+        while (offset < length) {
+            if (offset + RECORD_HEADER_SIZE > length) throw IOException("Corrupted record at $offset in $file")
+
+            val key = readKey(offset)
+            val hash = hash(key)
+            when (buffer.get(offset)) {
+                PUT, APPEND -> setRecordOffset(key, hash, offset)
+                REMOVE -> {
+                    val slot = findSlot(key, hash)
+                    if (slot >= 0) {
+                        index.putInt(slot * SLOT_SIZE + 4, REMOVED)
+                        size--
+                    }
+                }
+                else -> throw IOException("Corrupted record at $offset in $file")
+            }
+
+            recordCount++
+            offset += RECORD_HEADER_SIZE + key.size + buffer.getInt(offset + VALUE_LENGTH_OFFSET)
+        }
+
+        if (offset != length) throw IOException("Corrupted record at $offset in $file")
+    }
+
+    private fun writeRecord(kind: Byte, previous: Int, key: ByteArray, value: ByteArray): Int {
+        markDirty()
+
+        val newLength = length.toLong() + RECORD_HEADER_SIZE + key.size + value.size
+        ensureCapacity(newLength)
+
+        val buffer = buffer!!
+        val offset = length
+        buffer.put(offset, kind)
+        buffer.putInt(offset + PREVIOUS_OFFSET, previous)
+        buffer.putInt(offset + KEY_LENGTH_OFFSET, key.size)
+        buffer.putInt(offset + VALUE_LENGTH_OFFSET, value.size)
+        buffer.position(offset + RECORD_HEADER_SIZE)
+        buffer.put(key)
+        buffer.put(value)
+
+        length = newLength.toInt()
+        recordCount++
+        return offset
+    }
+
+    private fun ensureCapacity(required: Long) {
+        val capacity = buffer!!.capacity()
+        if (required <= capacity) return
+
+        map(Math.max(required, Math.min(capacity * 2L, Int.MAX_VALUE.toLong())))
+    }
+
+    private fun readKey(offset: Int): ByteArray {
+        val buffer = buffer!!
+        val key = ByteArray(buffer.getInt(offset + KEY_LENGTH_OFFSET))
+        buffer.position(offset + RECORD_HEADER_SIZE)
+        buffer.get(key)
+        return key
+    }
+
+    // Concatenates values of the last put record of the key and all records appended after it
+    private fun readValue(lastOffset: Int): ByteArray {
+        val buffer = buffer!!
+        val offsets = ArrayList<Int>()
+        var totalLength = 0
+
+        var offset = lastOffset
+        while (offset != NO_RECORD) {
+            offsets.add(offset)
+            totalLength += buffer.getInt(offset + VALUE_LENGTH_OFFSET)
+            if (buffer.get(offset) == PUT) break
+
+            offset = buffer.getInt(offset + PREVIOUS_OFFSET)
+        }
+
+        val value = ByteArray(totalLength)
+        var position = 0
+        for (i in offsets.indices.reversed()) {
+            val recordOffset = offsets[i]
+            val valueLength = buffer.getInt(recordOffset + VALUE_LENGTH_OFFSET)
+            buffer.position(recordOffset + RECORD_HEADER_SIZE + buffer.getInt(recordOffset + KEY_LENGTH_OFFSET))
+            buffer.get(value, position, valueLength)
+            position += valueLength
+        }
+        return value
+    }
+
+    private fun keyEquals(offset: Int, key: ByteArray): Boolean {
+        val buffer = buffer!!
+        if (buffer.getInt(offset + KEY_LENGTH_OFFSET) != key.size) return false
+
+        val keyOffset = offset + RECORD_HEADER_SIZE
+        for (i in key.indices) {
+            if (buffer.get(keyOffset + i) != key[i]) return false
+        }
+        return true
+    }
+
+    private fun resetIndex(capacity: Int) {
+        index = ByteBuffer.allocateDirect(capacity * SLOT_SIZE)
+        indexCapacity = capacity
+        size = 0
+        usedSlots = 0
+    }
+
+    private fun indexCapacityFor(entries: Int): Int {
+        var capacity = MIN_INDEX_CAPACITY
+        while (capacity < entries * 4) {
+            capacity = capacity shl 1
+        }
+        return capacity
+    }
+
+    private fun recordOffset(slot: Int): Int = index.getInt(slot * SLOT_SIZE + 4)
+
+    // Returns the slot of the key or (-insertionSlot - 1) if the key is absent
+    private fun findSlot(key: ByteArray, hash: Int): Int {
+        val mask = indexCapacity - 1
+        var slot = hash and mask
+        var firstRemoved = -1
+
+        while (true) {
+            val offset = recordOffset(slot)
+            when {
+                offset == NO_RECORD -> return -(if (firstRemoved >= 0) firstRemoved else slot) - 1
+                offset == REMOVED -> if (firstRemoved < 0) firstRemoved = slot
+                index.getInt(slot * SLOT_SIZE) == hash && keyEquals(offset, key) -> return slot
+            }
+            slot = (slot + 1) and mask
+        }
+    }
+
+    private fun setRecordOffset(key: ByteArray, hash: Int, recordOffset: Int) {
+        val slot = findSlot(key, hash)
+        if (slot >= 0) {
+            index.putInt(slot * SLOT_SIZE + 4, recordOffset)
+            return
+        }
+
+        val insertionSlot = -slot - 1
+        if (recordOffset(insertionSlot) == NO_RECORD) {
+            usedSlots++
+        }
+        index.putInt(insertionSlot * SLOT_SIZE, hash)
+        index.putInt(insertionSlot * SLOT_SIZE + 4, recordOffset)
+        size++
+
+        if (usedSlots * 2 > indexCapacity) {
+            rehashIndex(indexCapacityFor(size))
+        }
+    }
+
+    private fun rehashIndex(capacity: Int) {
+        val oldIndex = index
+        val oldCapacity = indexCapacity
+        val oldSize = size
+        resetIndex(capacity)
+
+        val mask = capacity - 1
+        for (oldSlot in 0..oldCapacity - 1) {
+            val offset = oldIndex.getInt(oldSlot * SLOT_SIZE + 4)
+            if (offset <= 0) continue
+
+            val hash = oldIndex.getInt(oldSlot * SLOT_SIZE)
+            var slot = hash and mask
+            while (recordOffset(slot) != NO_RECORD) {
+                slot = (slot + 1) and mask
+            }
+            index.putInt(slot * SLOT_SIZE, hash)
+            index.putInt(slot * SLOT_SIZE + 4, offset)
+        }
+
+        size = oldSize
+        usedSlots = oldSize
+    }
+
+    private fun hash(key: ByteArray): Int {
+        var hash = Arrays.hashCode(key)
+        hash = hash xor (hash ushr 16)
+        hash *= 0x85ebca6b.toInt()
+        return hash xor (hash ushr 13)
+    }
+
+    private fun keyBytes(key: K): ByteArray = toBytes { keyDescriptor.save(it, key) }
+
+    private fun toBytes(write: (DataOutput) -> Unit): ByteArray {
+        val bytes = ByteArrayOutputStream()
+        val output = DataOutputStream(bytes)
+        write(output)
+        output.flush()
+        return bytes.toByteArray()
+    }
+}
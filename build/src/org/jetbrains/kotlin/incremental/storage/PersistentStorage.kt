@@ -0,0 +1,113 @@
+/*
+ * Copyright 2010-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.incremental.storage
+
+import com.intellij.util.io.DataExternalizer
+import com.intellij.util.io.IOUtil
+import com.intellij.util.io.KeyDescriptor
+import java.io.DataOutput
+import java.io.File
+
+/**
+ * Key-value storage behind BasicMap
+ */
+interface PersistentStorage<K, V> {
+    val keys: Collection<K>
+
+    operator fun contains(key: K): Boolean
+
+    operator fun get(key: K): V?
+
+    operator fun set(key: K, value: V)
+
+    fun remove(key: K)
+
+    /**
+     * Appends data to the existing value, the value externalizer must be able to read concatenated data
+     */
+    fun appendData(key: K, append: (DataOutput) -> Unit)
+
+    fun appendValue(key: K, value: V)
+
+    fun append(key: K, value: String) {
+        appendData(key) { out -> IOUtil.writeUTF(out, value) }
+    }
+
+    fun append(key: K, value: Int) {
+        appendData(key) { out -> out.writeInt(value) }
+    }
+
+    fun clean()
+
+    fun flush(memoryCachesOnly: Boolean)
+
+    fun close()
+}
+
+enum class StorageKind {
+    PERSISTENT_HASH_MAP,
+    MEMORY_MAPPED;
+
+    companion object {
+        // "true" selects memory-mapped storage for all caches,
+        // otherwise the value is a comma-separated list of cache names, e.g. "proto,lookups"
+        private val MAPPED_STORAGE_PROPERTY = "kotlin.incremental.storage.mapped"
+
+        private val mappedStorageSelection: Set<String>
+            get() = System.getProperty(MAPPED_STORAGE_PROPERTY)?.split(',')?.map { it.trim() }?.filter { it.isNotEmpty() }?.toSet()
+                    ?: emptySet()
+
+        val isMappedStorageEnabled: Boolean
+            get() = mappedStorageSelection.let { it.isNotEmpty() && it != setOf("false") }
+
+        fun forStorageFile(storageFile: File): StorageKind {
+            val selection = mappedStorageSelection
+            val useMappedStorage = "true" in selection || storageFile.nameWithoutExtension in selection
+            return if (useMappedStorage) MEMORY_MAPPED else PERSISTENT_HASH_MAP
+        }
+    }
+}
+
+fun <K, V> createStorage(
+        kind: StorageKind,
+        storageFile: File,
+        keyDescriptor: KeyDescriptor<K>,
+        valueExternalizer: DataExternalizer<V>
+): PersistentStorage<K, V> {
+    val mappedStorage = MappedStorage(MappedStorage.mappedStorageFile(storageFile), keyDescriptor, valueExternalizer)
+    val lazyStorage = LazyStorage(storageFile, keyDescriptor, valueExternalizer)
+
+    val (storage, stale) = when (kind) {
+        StorageKind.PERSISTENT_HASH_MAP -> Pair(lazyStorage, mappedStorage)
+        StorageKind.MEMORY_MAPPED -> Pair(mappedStorage, lazyStorage)
+    }
+
+    // the set of caches using memory-mapped storage has changed since the last build
+    val staleKeys = stale.keys
+    if (staleKeys.isNotEmpty()) {
+        for (key in staleKeys) {
+            storage[key] = stale[key]!!
+        }
+        storage.flush(memoryCachesOnly = false)
+        stale.clean()
+    }
+    else {
+        stale.close()
+    }
+
+    return storage
+}
@@ -18,6 +18,7 @@ package org.jetbrains.kotlin.incremental.storage
 
 import com.intellij.openapi.util.io.FileUtil
 import com.intellij.util.io.DataExternalizer
+import com.intellij.util.io.DataInputOutputUtil
 import com.intellij.util.io.EnumeratorStringDescriptor
 import com.intellij.util.io.IOUtil
 import com.intellij.util.io.KeyDescriptor
@@ -214,3 +215,43 @@ open class CollectionExternalizer<T>(
 object StringCollectionExternalizer : CollectionExternalizer<String>(EnumeratorStringDescriptor(), { HashSet() })
 
 object IntCollectionExternalizer : CollectionExternalizer<Int>(IntExternalizer, { HashSet() })
+
+/**
+ * Stores a set of ints as chunks of sorted values, each chunk is its size followed by variable-length deltas between consecutive values.
+ * A value written by PersistentHashMap.appendData is just another chunk, so a set can be extended without rewriting it;
+ * chunks are merged on read
+ */
+object IntSetExternalizer : DataExternalizer<Collection<Int>> {
+    override fun save(output: DataOutput, value: Collection<Int>) {
+        val sorted = value.toIntArray()
+        Arrays.sort(sorted)
+
+        DataInputOutputUtil.writeINT(output, sorted.size)
+        var previous = 0
+        for (element in sorted) {
+            DataInputOutputUtil.writeINT(output, element - previous)
+            previous = element
+        }
+    }
+
+    override fun read(input: DataInput): Collection<Int> {
+        val stream = input as DataInputStream
+        var values = IntArray(16)
+        var size = 0
+
+        while (stream.available() > 0) {
+            val count = DataInputOutputUtil.readINT(stream)
+            if (size + count > values.size) {
+                values = Arrays.copyOf(values, Math.max(values.size * 2, size + count))
+            }
+
+            var previous = 0
+            for (i in 0..count - 1) {
+                previous += DataInputOutputUtil.readINT(stream)
+                values[size++] = previous
+            }
+        }
+
+        return IntArraySet.create(values, size)
+    }
+}
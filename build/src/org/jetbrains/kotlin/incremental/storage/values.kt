@@ -16,6 +16,8 @@
 
 package org.jetbrains.kotlin.incremental.storage
 
+import java.util.*
+
 data class LookupSymbolKey(val nameHash: Int, val scopeHash: Int) : Comparable<LookupSymbolKey> {
     constructor(name: String, scope: String) : this(name.hashCode(), scope.hashCode())
 
@@ -29,3 +31,44 @@ data class LookupSymbolKey(val nameHash: Int, val scopeHash: Int) : Comparable<L
 }
 
 data class ProtoMapValue(val isPackageFacade: Boolean, val bytes: ByteArray, val strings: Array<String>)
+
+/**
+ * Read-only set of ints backed by a sorted array without duplicates
+ */
+class IntArraySet private constructor(private val values: IntArray, override val size: Int) : AbstractSet<Int>() {
+    override fun contains(element: Int): Boolean = Arrays.binarySearch(values, 0, size, element) >= 0
+
+    override fun iterator(): MutableIterator<Int> =
+            object : MutableIterator<Int> {
+                private var index = 0
+
+                override fun hasNext(): Boolean = index < size
+
+                override fun next(): Int {
+                    if (index >= size) throw NoSuchElementException()
+                    return values[index++]
+                }
+
+                override fun remove() {
+                    throw UnsupportedOperationException()
+                }
+            }
+
+    companion object {
+        /**
+         * Sorts first size elements of values in place and removes duplicates, values must not be modified afterwards
+         */
+        fun create(values: IntArray, size: Int): IntArraySet {
+            Arrays.sort(values, 0, size)
+
+            var distinct = 0
+            for (i in 0..size - 1) {
+                if (distinct == 0 || values[distinct - 1] != values[i]) {
+                    values[distinct++] = values[i]
+                }
+            }
+
+            return IntArraySet(values, distinct)
+        }
+    }
+}
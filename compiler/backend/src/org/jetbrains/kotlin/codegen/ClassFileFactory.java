@@ -69,7 +69,7 @@ public class ClassFileFactory implements OutputFileCollection {
     }
 
     @NotNull
-    public ClassBuilder newVisitor(
+    public synchronized ClassBuilder newVisitor(
             @NotNull JvmDeclarationOrigin origin,
             @NotNull Type asmType,
             @NotNull Collection<? extends PsiFile> sourceFiles) {
@@ -81,7 +81,7 @@ public class ClassFileFactory implements OutputFileCollection {
         return answer;
     }
 
-    void done() {
+    synchronized void done() {
         if (!isDone) {
             isDone = true;
             Collection<PackageCodegen> packageCodegens = package2codegen.values();
@@ -185,7 +185,11 @@ public class ClassFileFactory implements OutputFileCollection {
     @Override
     public List<OutputFile> asList() {
         done();
-        return ContainerUtil.map(generators.keySet(), new Function<String, OutputFile>() {
+        // With parallel codegen classes are registered in the order worker threads happen to reach them,
+        // so paths are sorted to make the order of outputs stable between compilations
+        Collection<String> outputFilePaths =
+                state.isParallelCodegenEnabled() ? CollectionsKt.sorted(generators.keySet()) : generators.keySet();
+        return ContainerUtil.map(outputFilePaths, new Function<String, OutputFile>() {
             @Override
             public OutputFile fun(String relativeClassFilePath) {
                 return new OutputClassFile(relativeClassFilePath);
@@ -223,7 +227,7 @@ public class ClassFileFactory implements OutputFileCollection {
     }
 
     @NotNull
-    public PackageCodegen forPackage(@NotNull FqName fqName, @NotNull Collection<KtFile> files) {
+    public synchronized PackageCodegen forPackage(@NotNull FqName fqName, @NotNull Collection<KtFile> files) {
         assert !isDone : "Already done!";
         PackageCodegen codegen = package2codegen.get(fqName);
         if (codegen == null) {
@@ -235,7 +239,7 @@ public class ClassFileFactory implements OutputFileCollection {
     }
 
     @NotNull
-    public MultifileClassCodegen forMultifileClass(@NotNull FqName facadeFqName, @NotNull Collection<KtFile> files) {
+    public synchronized MultifileClassCodegen forMultifileClass(@NotNull FqName facadeFqName, @NotNull Collection<KtFile> files) {
         assert !isDone : "Already done!";
         MultifileClassCodegen codegen = multifileClass2codegen.get(facadeFqName);
         if (codegen == null) {
@@ -334,7 +338,7 @@ public class ClassFileFactory implements OutputFileCollection {
         public abstract String asText(ClassBuilderFactory factory);
     }
 
-    public void removeClasses(Set<String> classNamesToRemove) {
+    public synchronized void removeClasses(Set<String> classNamesToRemove) {
         for (String classInternalName : classNamesToRemove) {
             generators.remove(classInternalName + ".class");
         }
@@ -17,6 +17,7 @@
 package org.jetbrains.kotlin.codegen;
 
 import com.google.common.collect.Sets;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.util.containers.MultiMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.kotlin.codegen.state.GenerationState;
@@ -24,10 +25,11 @@ import org.jetbrains.kotlin.fileClasses.JvmFileClassInfo;
 import org.jetbrains.kotlin.name.FqName;
 import org.jetbrains.kotlin.progress.ProgressIndicatorAndCompilationCanceledStatus;
 import org.jetbrains.kotlin.psi.KtFile;
+import org.jetbrains.kotlin.utils.ExceptionUtilsKt;
+import org.jetbrains.kotlin.utils.NamedDaemonThreadFactory;
 
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.*;
 
 public class KotlinCodegenFacade {
 
@@ -72,9 +74,15 @@ public class KotlinCodegenFacade {
         }
 
         Set<FqName> packagesWithObsoleteParts = new HashSet<FqName>(state.getPackagesWithObsoleteParts());
-        for (FqName packageFqName : Sets.union(packagesWithObsoleteParts, filesInPackages.keySet())) {
-            doCheckCancelled(state);
-            generatePackage(state, packageFqName, filesInPackages.get(packageFqName), errorHandler);
+        Set<FqName> packagesToGenerate = Sets.union(packagesWithObsoleteParts, filesInPackages.keySet());
+        if (state.isParallelCodegenEnabled() && packagesToGenerate.size() > 1) {
+            generatePackagesInParallel(state, packagesToGenerate, filesInPackages, errorHandler);
+        }
+        else {
+            for (FqName packageFqName : packagesToGenerate) {
+                doCheckCancelled(state);
+                generatePackage(state, packageFqName, filesInPackages.get(packageFqName), errorHandler);
+            }
         }
 
         doCheckCancelled(state);
@@ -99,6 +107,49 @@ public class KotlinCodegenFacade {
         codegen.generate(errorHandler);
     }
 
+    // Package parts of different packages don't depend on each other, so each package is handed to its own worker.
+    // Multifile classes are still generated sequentially before that, because their facades are shared between files.
+    private static void generatePackagesInParallel(
+            @NotNull GenerationState state,
+            @NotNull Collection<FqName> packageFqNames,
+            @NotNull MultiMap<FqName, KtFile> filesInPackages,
+            @NotNull final CompilationErrorHandler errorHandler
+    ) {
+        int threadCount = Math.min(Runtime.getRuntime().availableProcessors(), packageFqNames.size());
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount, new NamedDaemonThreadFactory("Kotlin codegen worker"));
+
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>(packageFqNames.size());
+            for (FqName packageFqName : packageFqNames) {
+                doCheckCancelled(state);
+                // Codegens are created on the calling thread, so package registration order doesn't depend on scheduling
+                final PackageCodegen codegen = state.getFactory().forPackage(packageFqName, filesInPackages.get(packageFqName));
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        codegen.generate(errorHandler);
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                }
+                catch (ExecutionException e) {
+                    throw ExceptionUtilsKt.rethrow(e.getCause());
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ProcessCanceledException();
+                }
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
     private static void generateMultifileClass(
             @NotNull GenerationState state,
             @NotNull FqName multifileClassFqName,
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2010-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.codegen.inline
+
+import org.jetbrains.kotlin.name.ClassId
+import org.jetbrains.kotlin.util.PerformanceCounter
+import org.jetbrains.org.objectweb.asm.tree.MethodNode
+import java.util.concurrent.ConcurrentHashMap
+
+// Bodies of compiled inline functions read during code generation, so that the owner class is parsed once per method.
+// Inlining modifies the method node, so each call site gets its own copy of the cached body
+class InlineCache {
+    companion object {
+        private val hitCounter = PerformanceCounter.create("Inline function body taken from cache")
+        private val missCounter = PerformanceCounter.create("Inline function body read from class file")
+    }
+
+    private data class MethodId(val ownerId: ClassId, val name: String, val descriptor: String)
+
+    private val methodNodes = ConcurrentHashMap<MethodId, SMAPAndMethodNode>()
+
+    fun get(ownerId: ClassId, name: String, descriptor: String): SMAPAndMethodNode? {
+        val cached = methodNodes[MethodId(ownerId, name, descriptor)] ?: return null
+
+        hitCounter.increment()
+        return copy(cached)
+    }
+
+    // Returns a copy of the node, the node itself is kept intact
+    fun put(ownerId: ClassId, name: String, descriptor: String, nodeAndSMAP: SMAPAndMethodNode): SMAPAndMethodNode {
+        missCounter.increment()
+        val cached = methodNodes.putIfAbsent(MethodId(ownerId, name, descriptor), nodeAndSMAP) ?: nodeAndSMAP
+        return copy(cached)
+    }
+
+    private fun copy(nodeAndSMAP: SMAPAndMethodNode): SMAPAndMethodNode {
+        val node = nodeAndSMAP.node
+        val copy = MethodNode(InlineCodegenUtil.API, node.access, node.name, node.desc, node.signature, node.exceptions.toTypedArray())
+        // accept() resets labels of the node, so it can't be copied concurrently
+        synchronized(node) {
+            node.accept(copy)
+        }
+        // parsed SMAP is never modified, so it's shared between copies
+        return SMAPAndMethodNode(copy, nodeAndSMAP.classSMAP)
+    }
+}
@@ -193,17 +193,23 @@ public class InlineCodegen extends CallGenerator {
                     (DeserializedSimpleFunctionDescriptor) functionDescriptor);
 
             ClassId containerId = containingClasses.getImplClassId();
-            VirtualFile file = InlineCodegenUtil.findVirtualFile(state, containerId);
-            if (file == null) {
-                throw new IllegalStateException("Couldn't find declaration file for " + containerId);
-            }
+            InlineCache inlineCache = state.getInlineCache();
+            nodeAndSMAP = inlineCache.get(containerId, asmMethod.getName(), asmMethod.getDescriptor());
+            if (nodeAndSMAP == null) {
+                VirtualFile file = InlineCodegenUtil.findVirtualFile(state, containerId);
+                if (file == null) {
+                    throw new IllegalStateException("Couldn't find declaration file for " + containerId);
+                }
 
-            nodeAndSMAP = InlineCodegenUtil.getMethodNode(
-                    file.contentsToByteArray(), asmMethod.getName(), asmMethod.getDescriptor(), containingClasses.getFacadeClassId()
-            );
+                SMAPAndMethodNode loaded = InlineCodegenUtil.getMethodNode(
+                        file.contentsToByteArray(), asmMethod.getName(), asmMethod.getDescriptor(), containingClasses.getFacadeClassId()
+                );
 
-            if (nodeAndSMAP == null) {
-                throw new RuntimeException("Couldn't obtain compiled function body for " + descriptorName(functionDescriptor));
+                if (loaded == null) {
+                    throw new RuntimeException("Couldn't obtain compiled function body for " + descriptorName(functionDescriptor));
+                }
+
+                nodeAndSMAP = inlineCache.put(containerId, asmMethod.getName(), asmMethod.getDescriptor(), loaded);
             }
         }
         else {
@@ -21,6 +21,7 @@ import org.jetbrains.annotations.Nullable;
 import org.jetbrains.kotlin.codegen.inline.InlineCodegenUtil;
 import org.jetbrains.kotlin.codegen.optimization.boxing.RedundantBoxingMethodTransformer;
 import org.jetbrains.kotlin.codegen.optimization.boxing.RedundantNullCheckMethodTransformer;
+import org.jetbrains.kotlin.codegen.optimization.common.ControlFlowGraph;
 import org.jetbrains.kotlin.codegen.optimization.common.UtilKt;
 import org.jetbrains.kotlin.codegen.optimization.transformer.MethodTransformer;
 import org.jetbrains.org.objectweb.asm.MethodVisitor;
@@ -38,9 +39,13 @@ public class OptimizationMethodVisitor extends MethodVisitor {
 
     private static final MethodTransformer MANDATORY_METHOD_TRANSFORMER = new MandatoryMethodTransformer();
 
-    private static final MethodTransformer[] OPTIMIZATION_TRANSFORMERS = new MethodTransformer[] {
+    // These transformers need frames for the whole method, which can take too much memory for large methods
+    private static final MethodTransformer[] FRAME_BASED_OPTIMIZATION_TRANSFORMERS = new MethodTransformer[] {
             new RedundantNullCheckMethodTransformer(),
-            new RedundantBoxingMethodTransformer(),
+            new RedundantBoxingMethodTransformer()
+    };
+
+    private static final MethodTransformer[] OPTIMIZATION_TRANSFORMERS = new MethodTransformer[] {
             new DeadCodeEliminationMethodTransformer(),
             new RedundantGotoMethodTransformer()
     };
@@ -77,7 +82,12 @@ public class OptimizationMethodVisitor extends MethodVisitor {
 
         if (shouldBeTransformed(methodNode)) {
             MANDATORY_METHOD_TRANSFORMER.transform("fake", methodNode);
-            if (canBeOptimized(methodNode) && !disableOptimization) {
+            if (!disableOptimization) {
+                if (canBeOptimized(methodNode)) {
+                    for (MethodTransformer transformer : FRAME_BASED_OPTIMIZATION_TRANSFORMERS) {
+                        transformer.transform("fake", methodNode);
+                    }
+                }
                 for (MethodTransformer transformer : OPTIMIZATION_TRANSFORMERS) {
                     transformer.transform("fake", methodNode);
                 }
@@ -134,7 +144,8 @@ public class OptimizationMethodVisitor extends MethodVisitor {
     }
 
     private static boolean canBeOptimized(@NotNull MethodNode node) {
-        int totalFramesSizeMb = node.instructions.size() * (node.maxLocals + node.maxStack) / (1024 * 1024);
+        // frames are stored only at the starts of basic blocks, see SparseMethodAnalyzer
+        int totalFramesSizeMb = new ControlFlowGraph(node).getBlockCount() * (node.maxLocals + node.maxStack) / (1024 * 1024);
         return totalFramesSizeMb < MEMORY_LIMIT_BY_METHOD_MB;
     }
 }
@@ -20,6 +20,7 @@ import com.google.common.base.Predicate;
 import com.google.common.collect.Collections2;
 import com.intellij.openapi.util.Pair;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.kotlin.codegen.optimization.common.SparseMethodAnalyzer;
 import org.jetbrains.kotlin.codegen.optimization.transformer.MethodTransformer;
 import org.jetbrains.org.objectweb.asm.Opcodes;
 import org.jetbrains.org.objectweb.asm.Type;
@@ -35,7 +36,7 @@ public class RedundantBoxingMethodTransformer extends MethodTransformer {
     @Override
     public void transform(@NotNull String internalClassName, @NotNull MethodNode node) {
         RedundantBoxingInterpreter interpreter = new RedundantBoxingInterpreter(node.instructions);
-        Frame<BasicValue>[] frames = analyze(
+        SparseMethodAnalyzer<BasicValue> frames = analyzeSparse(
                 internalClassName, node, interpreter
         );
         interpretPopInstructionsForBoxedValues(interpreter, node, frames);
@@ -57,19 +58,20 @@ public class RedundantBoxingMethodTransformer extends MethodTransformer {
     private static void interpretPopInstructionsForBoxedValues(
             @NotNull RedundantBoxingInterpreter interpreter,
             @NotNull MethodNode node,
-            @NotNull Frame<BasicValue>[] frames
+            @NotNull SparseMethodAnalyzer<BasicValue> frames
     ) {
         for (int i = 0; i < node.instructions.size(); i++) {
             AbstractInsnNode insn = node.instructions.get(i);
-            if ((insn.getOpcode() != Opcodes.POP && insn.getOpcode() != Opcodes.POP2) || frames[i] == null) {
-                continue;
-            }
+            if (insn.getOpcode() != Opcodes.POP && insn.getOpcode() != Opcodes.POP2) continue;
+
+            Frame<BasicValue> frame = frames.getFrame(i);
+            if (frame == null) continue;
 
-            BasicValue top = frames[i].getStack(frames[i].getStackSize() - 1);
+            BasicValue top = frame.getStack(frame.getStackSize() - 1);
             interpreter.processPopInstruction(insn, top);
 
             if (top.getSize() == 1 && insn.getOpcode() == Opcodes.POP2) {
-                interpreter.processPopInstruction(insn, frames[i].getStack(frames[i].getStackSize() - 2));
+                interpreter.processPopInstruction(insn, frame.getStack(frame.getStackSize() - 2));
             }
         }
     }
@@ -77,7 +79,7 @@ public class RedundantBoxingMethodTransformer extends MethodTransformer {
     private static void removeValuesClashingWithVariables(
             @NotNull RedundantBoxedValuesCollection values,
             @NotNull MethodNode node,
-            @NotNull Frame<BasicValue>[] frames
+            @NotNull SparseMethodAnalyzer<BasicValue> frames
     ) {
         while (removeValuesClashingWithVariablesPass(values, node, frames)) {
             // do nothing
@@ -87,7 +89,7 @@ public class RedundantBoxingMethodTransformer extends MethodTransformer {
     private static boolean removeValuesClashingWithVariablesPass(
             @NotNull RedundantBoxedValuesCollection values,
             @NotNull MethodNode node,
-            @NotNull Frame<BasicValue>[] frames
+            @NotNull SparseMethodAnalyzer<BasicValue> frames
     ) {
         boolean needToRepeat = false;
 
@@ -130,7 +132,10 @@ public class RedundantBoxingMethodTransformer extends MethodTransformer {
         return needToRepeat;
     }
 
-    private static void adaptLocalVariableTableForBoxedValues(@NotNull MethodNode node, @NotNull Frame<BasicValue>[] frames) {
+    private static void adaptLocalVariableTableForBoxedValues(
+            @NotNull MethodNode node,
+            @NotNull SparseMethodAnalyzer<BasicValue> frames
+    ) {
         for (LocalVariableNode localVariableNode : node.localVariables) {
             if (Type.getType(localVariableNode.desc).getSort() != Type.OBJECT) {
                 continue;
@@ -147,14 +152,14 @@ public class RedundantBoxingMethodTransformer extends MethodTransformer {
     private static List<BasicValue> getValuesStoredOrLoadedToVariable(
             @NotNull LocalVariableNode localVariableNode,
             @NotNull MethodNode node,
-            @NotNull Frame<BasicValue>[] frames
+            @NotNull SparseMethodAnalyzer<BasicValue> frames
     ) {
         List<BasicValue> values = new ArrayList<BasicValue>();
         InsnList insnList = node.instructions;
         int from = insnList.indexOf(localVariableNode.start) + 1;
         int to = insnList.indexOf(localVariableNode.end) - 1;
 
-        Frame<BasicValue> frameForFromInstr = frames[from];
+        Frame<BasicValue> frameForFromInstr = frames.getFrame(from);
         if (frameForFromInstr != null) {
             BasicValue localVarValue = frameForFromInstr.getLocal(localVariableNode.index);
             if (localVarValue != null) {
@@ -169,16 +174,17 @@ public class RedundantBoxingMethodTransformer extends MethodTransformer {
             if ((insn.getOpcode() == Opcodes.ASTORE || insn.getOpcode() == Opcodes.ALOAD) &&
                 ((VarInsnNode) insn).var == localVariableNode.index) {
 
-                if (frames[i] == null) {
+                Frame<BasicValue> frame = frames.getFrame(i);
+                if (frame == null) {
                     //unreachable code
                     continue;
                 }
 
                 if (insn.getOpcode() == Opcodes.ASTORE) {
-                    values.add(frames[i].getStack(frames[i].getStackSize() - 1));
+                    values.add(frame.getStack(frame.getStackSize() - 1));
                 }
                 else {
-                    values.add(frames[i].getLocal(((VarInsnNode) insn).var));
+                    values.add(frame.getLocal(((VarInsnNode) insn).var));
                 }
             }
         }
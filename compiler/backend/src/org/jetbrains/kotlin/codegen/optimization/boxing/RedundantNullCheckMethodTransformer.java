@@ -17,6 +17,7 @@
 package org.jetbrains.kotlin.codegen.optimization.boxing;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.kotlin.codegen.optimization.common.SparseMethodAnalyzer;
 import org.jetbrains.kotlin.codegen.optimization.transformer.MethodTransformer;
 import org.jetbrains.org.objectweb.asm.Opcodes;
 import org.jetbrains.org.objectweb.asm.tree.*;
@@ -37,7 +38,7 @@ public class RedundantNullCheckMethodTransformer extends MethodTransformer {
 
     private static boolean removeRedundantNullCheckPass(@NotNull String internalClassName, @NotNull MethodNode methodNode) {
         InsnList insnList = methodNode.instructions;
-        Frame<BasicValue>[] frames = analyze(
+        SparseMethodAnalyzer<BasicValue> frames = analyzeSparse(
                 internalClassName, methodNode,
                 new NullabilityInterpreter(insnList)
         );
@@ -45,11 +46,11 @@ public class RedundantNullCheckMethodTransformer extends MethodTransformer {
         List<AbstractInsnNode> insnsToOptimize = new ArrayList<AbstractInsnNode>();
 
         for (int i = 0; i < insnList.size(); i++) {
-            Frame<BasicValue> frame = frames[i];
             AbstractInsnNode insn = insnList.get(i);
+            if (insn.getOpcode() != Opcodes.IFNULL && insn.getOpcode() != Opcodes.IFNONNULL) continue;
 
-            if ((insn.getOpcode() == Opcodes.IFNULL || insn.getOpcode() == Opcodes.IFNONNULL) &&
-                frame != null && frame.getStack(frame.getStackSize() - 1) instanceof NotNullBasicValue) {
+            Frame<BasicValue> frame = frames.getFrame(i);
+            if (frame != null && frame.getStack(frame.getStackSize() - 1) instanceof NotNullBasicValue) {
                 insnsToOptimize.add(insn);
             }
         }
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2010-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.codegen.optimization.common
+
+import org.jetbrains.org.objectweb.asm.Opcodes
+import org.jetbrains.org.objectweb.asm.tree.*
+import java.util.*
+
+// Basic blocks of a method: control can enter a block only through its first instruction
+// and leave it through its last instruction or through an exception handler.
+// Instructions are referred to by their indexes in the instruction list at the moment the graph is built
+class ControlFlowGraph(val method: MethodNode) {
+    val insns: Array<AbstractInsnNode> = method.instructions.toArray()
+
+    private val insnIndexes = IdentityHashMap<AbstractInsnNode, Int>(insns.size)
+
+    // exception handlers covering each instruction, null if there are none
+    private val handlers: Array<MutableList<TryCatchBlockNode>?> = arrayOfNulls(insns.size)
+
+    private val blockOfInsn = IntArray(insns.size)
+
+    // start index of each block and, additionally, index after the last instruction
+    private val blockBounds: IntArray
+
+    val blockCount: Int
+        get() = blockBounds.size - 1
+
+    init {
+        for (i in insns.indices) {
+            insnIndexes[insns[i]] = i
+        }
+
+        val isBlockStart = BitSet(insns.size + 1)
+        isBlockStart.set(0)
+
+        for (tcb in method.tryCatchBlocks) {
+            isBlockStart.set(indexOf(tcb.handler))
+            for (i in indexOf(tcb.start)..indexOf(tcb.end) - 1) {
+                var insnHandlers = handlers[i]
+                if (insnHandlers == null) {
+                    insnHandlers = ArrayList<TryCatchBlockNode>(1)
+                    handlers[i] = insnHandlers
+                }
+                insnHandlers.add(tcb)
+            }
+        }
+
+        for (i in insns.indices) {
+            val insn = insns[i]
+            when (insn) {
+                is JumpInsnNode -> isBlockStart.set(indexOf(insn.label))
+                is TableSwitchInsnNode -> {
+                    isBlockStart.set(indexOf(insn.dflt))
+                    insn.labels.forEach { isBlockStart.set(indexOf(it)) }
+                }
+                is LookupSwitchInsnNode -> {
+                    isBlockStart.set(indexOf(insn.dflt))
+                    insn.labels.forEach { isBlockStart.set(indexOf(it)) }
+                }
+            }
+            if (!insn.isFallingThrough() || insn is JumpInsnNode) {
+                isBlockStart.set(i + 1)
+            }
+        }
+
+        isBlockStart.clear(insns.size)
+
+        blockBounds = IntArray(isBlockStart.cardinality() + 1)
+        var block = -1
+        for (i in insns.indices) {
+            if (isBlockStart.get(i)) {
+                blockBounds[++block] = i
+            }
+            blockOfInsn[i] = block
+        }
+        blockBounds[blockBounds.size - 1] = insns.size
+    }
+
+    fun indexOf(insn: AbstractInsnNode): Int =
+            insnIndexes[insn] ?: throw IllegalArgumentException("Instruction doesn't belong to the method: $insn")
+
+    fun blockOf(insnIndex: Int): Int = blockOfInsn[insnIndex]
+
+    fun blockStart(block: Int): Int = blockBounds[block]
+
+    fun blockEnd(block: Int): Int = blockBounds[block + 1]
+
+    fun handlersOf(insnIndex: Int): List<TryCatchBlockNode>? = handlers[insnIndex]
+
+    // Blocks to which the last instruction of the block passes control, not including exception handlers
+    fun successors(block: Int): List<Int> {
+        val last = insns[blockEnd(block) - 1]
+        val result = ArrayList<Int>(2)
+
+        when (last) {
+            is JumpInsnNode -> result.add(blockOf(indexOf(last.label)))
+            is TableSwitchInsnNode -> {
+                result.add(blockOf(indexOf(last.dflt)))
+                last.labels.mapTo(result) { blockOf(indexOf(it)) }
+            }
+            is LookupSwitchInsnNode -> {
+                result.add(blockOf(indexOf(last.dflt)))
+                last.labels.mapTo(result) { blockOf(indexOf(it)) }
+            }
+        }
+
+        if (last.isFallingThrough()) {
+            if (block + 1 == blockCount) {
+                throw IllegalStateException("Execution can fall off end of the code: ${method.name}${method.desc}")
+            }
+            result.add(block + 1)
+        }
+
+        return result
+    }
+
+    fun computeReachableBlocks(): BitSet {
+        val reachable = BitSet(blockCount)
+        if (insns.isEmpty()) return reachable
+
+        val stack = IntArray(blockCount)
+        var top = 0
+        reachable.set(0)
+        stack[top++] = 0
+
+        fun visit(block: Int) {
+            if (!reachable.get(block)) {
+                reachable.set(block)
+                stack[top++] = block
+            }
+        }
+
+        while (top > 0) {
+            val block = stack[--top]
+            for (i in blockStart(block)..blockEnd(block) - 1) {
+                handlers[i]?.forEach { visit(blockOf(indexOf(it.handler))) }
+            }
+            successors(block).forEach { visit(it) }
+        }
+
+        return reachable
+    }
+
+    private fun AbstractInsnNode.isFallingThrough(): Boolean =
+            when (opcode) {
+                Opcodes.GOTO, Opcodes.TABLESWITCH, Opcodes.LOOKUPSWITCH, Opcodes.ATHROW -> false
+                in Opcodes.IRETURN..Opcodes.RETURN -> false
+                else -> true
+            }
+}
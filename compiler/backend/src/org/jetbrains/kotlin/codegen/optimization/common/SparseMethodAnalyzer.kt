@@ -0,0 +1,149 @@
+/*
+ * Copyright 2010-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.codegen.optimization.common
+
+import org.jetbrains.org.objectweb.asm.Opcodes
+import org.jetbrains.org.objectweb.asm.Type
+import org.jetbrains.org.objectweb.asm.tree.MethodNode
+import org.jetbrains.org.objectweb.asm.tree.analysis.AnalyzerException
+import org.jetbrains.org.objectweb.asm.tree.analysis.Frame
+import org.jetbrains.org.objectweb.asm.tree.analysis.Interpreter
+import org.jetbrains.org.objectweb.asm.tree.analysis.Value
+
+// Computes the same frames as ASM Analyzer, but stores them only at the starts of basic blocks,
+// so the memory needed doesn't grow with the length of straight-line code.
+// Frame of any other instruction is recomputed on demand from the frame at the start of its block,
+// which is cheap when instructions are queried in order.
+// Recomputation executes instructions with the same interpreter once again, so it must tolerate repeated execution,
+// as it anyway does for loops in the original analysis
+class SparseMethodAnalyzer<V : Value>(
+        val owner: String,
+        val method: MethodNode,
+        private val interpreter: Interpreter<V>
+) {
+    val graph = ControlFlowGraph(method)
+
+    private val blockFrames = arrayOfNulls<Frame<V>>(graph.blockCount)
+
+    private val current = Frame<V>(method.maxLocals, method.maxStack)
+    private var currentBlock = -1
+    private var currentInsn = -1
+
+    @Throws(AnalyzerException::class)
+    fun analyze() {
+        if (graph.insns.isEmpty()) return
+
+        val queued = BooleanArray(graph.blockCount)
+        val queue = IntArray(graph.blockCount)
+        var top = 0
+
+        fun mergeControlFlowEdge(block: Int, frame: Frame<V>) {
+            val oldFrame = blockFrames[block]
+            val changes = if (oldFrame == null) {
+                blockFrames[block] = Frame(frame)
+                true
+            }
+            else {
+                oldFrame.merge(frame, interpreter)
+            }
+            if (changes && !queued[block]) {
+                queued[block] = true
+                queue[top++] = block
+            }
+        }
+
+        mergeControlFlowEdge(0, createInitialFrame())
+
+        val handler = Frame<V>(method.maxLocals, method.maxStack)
+        while (top > 0) {
+            val block = queue[--top]
+            queued[block] = false
+
+            current.init(blockFrames[block])
+            for (insn in graph.blockStart(block)..graph.blockEnd(block) - 1) {
+                graph.handlersOf(insn)?.forEach { tcb ->
+                    handler.init(current)
+                    handler.clearStack()
+                    handler.push(interpreter.newValue(Type.getObjectType(tcb.type ?: "java/lang/Throwable")))
+                    mergeControlFlowEdge(graph.blockOf(graph.indexOf(tcb.handler)), handler)
+                }
+                execute(insn)
+            }
+
+            for (successor in graph.successors(block)) {
+                mergeControlFlowEdge(successor, current)
+            }
+        }
+
+        currentBlock = -1
+    }
+
+    // Returns null for unreachable instructions.
+    // The returned frame is valid only until the next call, it must be copied to be kept
+    fun getFrame(insnIndex: Int): Frame<V>? {
+        val block = graph.blockOf(insnIndex)
+        val blockFrame = blockFrames[block] ?: return null
+
+        if (block != currentBlock || insnIndex < currentInsn) {
+            current.init(blockFrame)
+            currentBlock = block
+            currentInsn = graph.blockStart(block)
+        }
+
+        while (currentInsn < insnIndex) {
+            execute(currentInsn++)
+        }
+
+        return current
+    }
+
+    private fun execute(insnIndex: Int) {
+        val insn = graph.insns[insnIndex]
+        if (!insn.isMeaningful) return
+
+        try {
+            current.execute(insn, interpreter)
+        }
+        catch (e: AnalyzerException) {
+            throw AnalyzerException(e.node, "Error at instruction $insnIndex: ${e.message}", e)
+        }
+        catch (e: Exception) {
+            throw AnalyzerException(insn, "Error at instruction $insnIndex: ${e.message}", e)
+        }
+    }
+
+    private fun createInitialFrame(): Frame<V> {
+        val frame = Frame<V>(method.maxLocals, method.maxStack)
+        frame.setReturn(interpreter.newValue(Type.getReturnType(method.desc)))
+
+        var local = 0
+        if ((method.access and Opcodes.ACC_STATIC) == 0) {
+            frame.setLocal(local++, interpreter.newValue(Type.getObjectType(owner)))
+        }
+        for (arg in Type.getArgumentTypes(method.desc)) {
+            frame.setLocal(local++, interpreter.newValue(arg))
+            if (arg.size == 2) {
+                frame.setLocal(local++, interpreter.newValue(null))
+            }
+        }
+        while (local < method.maxLocals) {
+            frame.setLocal(local++, interpreter.newValue(null))
+        }
+
+        return frame
+    }
+}
@@ -17,6 +17,7 @@
 package org.jetbrains.kotlin.codegen.optimization.transformer;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.kotlin.codegen.optimization.common.SparseMethodAnalyzer;
 import org.jetbrains.org.objectweb.asm.tree.MethodNode;
 import org.jetbrains.org.objectweb.asm.tree.analysis.*;
 
@@ -44,5 +45,24 @@ public abstract class MethodTransformer {
         return runAnalyzer(new Analyzer<V>(interpreter), internalClassName, node);
     }
 
+    /**
+     * Unlike {@link #analyze}, keeps frames only at the starts of basic blocks, other frames are recomputed on request
+     */
+    @NotNull
+    protected static <V extends Value> SparseMethodAnalyzer<V> analyzeSparse(
+            @NotNull String internalClassName,
+            @NotNull MethodNode node,
+            @NotNull Interpreter<V> interpreter
+    ) {
+        SparseMethodAnalyzer<V> analyzer = new SparseMethodAnalyzer<V>(internalClassName, node, interpreter);
+        try {
+            analyzer.analyze();
+        }
+        catch (AnalyzerException e) {
+            throw new RuntimeException(e);
+        }
+        return analyzer;
+    }
+
     public abstract void transform(@NotNull String internalClassName, @NotNull MethodNode methodNode);
 }
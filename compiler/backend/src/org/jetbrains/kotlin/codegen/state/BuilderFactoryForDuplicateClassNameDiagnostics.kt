@@ -31,6 +31,7 @@ class BuilderFactoryForDuplicateClassNameDiagnostics(
 
     private val className = hashMapOf<String, JvmDeclarationOrigin> ()
 
+    @Synchronized
     override fun handleClashingNames(internalName: String, origin: JvmDeclarationOrigin) {
         val another = className.getOrPut(internalName, { origin })
         //workaround for inlined anonymous objects
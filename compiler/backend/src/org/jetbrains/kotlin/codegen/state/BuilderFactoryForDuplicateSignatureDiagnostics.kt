@@ -55,11 +55,13 @@ class BuilderFactoryForDuplicateSignatureDiagnostics(
                                            IncompatibleClassTracker.DoNothing, moduleName)
     private val reportDiagnosticsTasks = ArrayList<() -> Unit>()
 
+    @Synchronized
     fun reportDiagnostics() {
         reportDiagnosticsTasks.forEach { it() }
         reportDiagnosticsTasks.clear()
     }
 
+    @Synchronized
     override fun handleClashingSignatures(data: ConflictingJvmDeclarationsData) {
         reportDiagnosticsTasks.add { reportConflictingJvmSignatures(data) }
     }
@@ -88,6 +90,7 @@ class BuilderFactoryForDuplicateSignatureDiagnostics(
         }
     }
 
+    @Synchronized
     override fun onClassDone(
             classOrigin: JvmDeclarationOrigin,
             classInternalName: String?,
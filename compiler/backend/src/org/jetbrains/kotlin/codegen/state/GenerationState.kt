@@ -26,6 +26,7 @@ import org.jetbrains.kotlin.codegen.binding.CodegenBinding
 import org.jetbrains.kotlin.codegen.context.CodegenContext
 import org.jetbrains.kotlin.codegen.context.RootContext
 import org.jetbrains.kotlin.codegen.extensions.ClassBuilderInterceptorExtension
+import org.jetbrains.kotlin.codegen.inline.InlineCache
 import org.jetbrains.kotlin.codegen.intrinsics.IntrinsicMethods
 import org.jetbrains.kotlin.codegen.optimization.OptimizationClassBuilderFactory
 import org.jetbrains.kotlin.descriptors.ModuleDescriptor
@@ -42,6 +43,8 @@ import org.jetbrains.kotlin.resolve.BindingContext
 import org.jetbrains.kotlin.resolve.BindingTrace
 import org.jetbrains.kotlin.resolve.DelegatingBindingTrace
 import org.jetbrains.kotlin.resolve.diagnostics.Diagnostics
+import org.jetbrains.kotlin.storage.LockBasedLazyResolveStorageManager
+import org.jetbrains.kotlin.storage.LockBasedStorageManager
 import java.io.File
 
 class GenerationState @JvmOverloads constructor(
@@ -67,7 +70,8 @@ class GenerationState @JvmOverloads constructor(
         val outDirectory: File? = null,
         val incrementalCompilationComponents: IncrementalCompilationComponents? = null,
         val generateOpenMultifileClasses: Boolean = false,
-        val progress: Progress = Progress.DEAF
+        val progress: Progress = Progress.DEAF,
+        parallelCodegen: Boolean = false
 ) {
     abstract class GenerateClassFilter {
         abstract fun shouldAnnotateClass(processingClassOrObject: KtClassOrObject): Boolean
@@ -95,7 +99,15 @@ class GenerationState @JvmOverloads constructor(
                 incrementalCompilationComponents.getIncrementalCache(targetId)
             else null
 
-    val extraJvmDiagnosticsTrace: BindingTrace = DelegatingBindingTrace(bindingContext, false, "For extra diagnostics in ${this.javaClass}")
+    val isParallelCodegenEnabled: Boolean = parallelCodegen
+        @JvmName("isParallelCodegenEnabled") get
+
+    private val tracesStorageManager: LockBasedLazyResolveStorageManager? =
+            if (parallelCodegen) LockBasedLazyResolveStorageManager(LockBasedStorageManager()) else null
+
+    private fun safeTrace(trace: BindingTrace): BindingTrace = tracesStorageManager?.createSafeTrace(trace) ?: trace
+
+    val extraJvmDiagnosticsTrace: BindingTrace = safeTrace(DelegatingBindingTrace(bindingContext, false, "For extra diagnostics in ${this.javaClass}"))
     private val interceptedBuilderFactory: ClassBuilderFactory
     private var used = false
 
@@ -107,7 +119,7 @@ class GenerationState @JvmOverloads constructor(
 
     val moduleName: String = moduleName ?: JvmCodegenUtil.getModuleName(module)
     val classBuilderMode: ClassBuilderMode = builderFactory.classBuilderMode
-    val bindingTrace: BindingTrace = DelegatingBindingTrace(bindingContext, "trace in GenerationState")
+    val bindingTrace: BindingTrace = safeTrace(DelegatingBindingTrace(bindingContext, "trace in GenerationState"))
     val bindingContext: BindingContext = bindingTrace.bindingContext
     val typeMapper: JetTypeMapper = JetTypeMapper(
             this.bindingContext, classBuilderMode, fileClassesProvider, getIncrementalCacheForThisTarget(),
@@ -116,6 +128,7 @@ class GenerationState @JvmOverloads constructor(
     val intrinsics: IntrinsicMethods = IntrinsicMethods()
     val samWrapperClasses: SamWrapperClasses = SamWrapperClasses(this)
     val inlineCycleReporter: InlineCycleReporter = InlineCycleReporter(diagnostics)
+    val inlineCache: InlineCache = InlineCache()
     val mappingsClassesForWhenByEnum: MappingsClassesForWhenByEnum = MappingsClassesForWhenByEnum(this)
     val reflectionTypes: ReflectionTypes = ReflectionTypes(module)
     val jvmRuntimeTypes: JvmRuntimeTypes = JvmRuntimeTypes()
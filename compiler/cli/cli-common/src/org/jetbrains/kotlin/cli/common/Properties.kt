@@ -18,6 +18,8 @@ package org.jetbrains.kotlin.cli.common
 
 val KOTLIN_COMPILER_ENVIRONMENT_KEEPALIVE_PROPERTY = "kotlin.environment.keepalive"
 
+val KOTLIN_COMPILER_JAR_PACKAGES_INDEX_PROPERTY = "kotlin.jar.packages.index"
+
 
 fun String?.toBooleanLenient(): Boolean? = when (this?.toLowerCase()) {
     null -> false
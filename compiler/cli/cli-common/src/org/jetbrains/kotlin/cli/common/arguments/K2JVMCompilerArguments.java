@@ -67,6 +67,12 @@ public class K2JVMCompilerArguments extends CommonCompilerArguments {
     @Argument(value = "Xmultifile-facades-open", description = "Compile multifile facade classes as open")
     public boolean multifileFacadesOpen;
 
+    @Argument(value = "Xparallel-codegen", description = "Generate bytecode for different modules and packages in parallel")
+    public boolean parallelCodegen;
+
+    @Argument(value = "Xper-value-locks", description = "Compute lazy values of the analysis under a lock per value instead of a global lock")
+    public boolean perValueLocks;
+
     @Argument(value = "Xallow-kotlin-package", description = "Allow compiling code in package 'kotlin'")
     public boolean allowKotlinPackage;
 
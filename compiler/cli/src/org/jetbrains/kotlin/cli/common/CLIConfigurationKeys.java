@@ -28,6 +28,8 @@ public class CLIConfigurationKeys {
             CompilerConfigurationKey.create("compiler plugins");
     public static final CompilerConfigurationKey<Boolean> ALLOW_KOTLIN_PACKAGE =
             CompilerConfigurationKey.create("allow kotlin package");
+    public static final CompilerConfigurationKey<Boolean> REPORT_PERF =
+            CompilerConfigurationKey.create("report performance information");
 
     private CLIConfigurationKeys() {
     }
@@ -21,8 +21,13 @@ import org.jetbrains.kotlin.cli.common.messages.CompilerMessageLocation
 import org.jetbrains.kotlin.cli.common.messages.OutputMessageUtil
 import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity
 import org.jetbrains.kotlin.cli.common.messages.MessageCollector
+import org.jetbrains.kotlin.utils.NamedDaemonThreadFactory
+import org.jetbrains.kotlin.utils.rethrow
 import java.io.File
 import com.intellij.openapi.util.io.FileUtil
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
 
 fun OutputFileCollection.writeAll(outputDir: File, report: (sources: List<File>, output: File) -> Unit) {
     for (file in asList()) {
@@ -41,6 +46,45 @@ fun OutputFileCollection.writeAllTo(outputDir: File) {
 
 fun OutputFileCollection.writeAll(outputDir: File, messageCollector: MessageCollector) {
     writeAll(outputDir) { sources, output ->
-        messageCollector.report(CompilerMessageSeverity.OUTPUT, OutputMessageUtil.formatOutputMessage(sources, output), CompilerMessageLocation.NO_LOCATION)
+        reportOutput(messageCollector, sources, output)
     }
 }
+
+// Outputs are reported in the usual order, then their bytes are produced and written to disk by a pool of worker threads.
+// Files are independent of each other, so this only requires asByteArray to be callable from different threads
+fun OutputFileCollection.writeAllInParallel(outputDir: File, messageCollector: MessageCollector) {
+    val files = asList()
+    for (file in files) {
+        reportOutput(messageCollector, file.sourceFiles, File(outputDir, file.relativePath))
+    }
+
+    val threadCount = Math.min(Runtime.getRuntime().availableProcessors(), files.size)
+    if (threadCount <= 1) {
+        writeAll(outputDir, REPORT_NOTHING)
+        return
+    }
+
+    val executor = Executors.newFixedThreadPool(threadCount, NamedDaemonThreadFactory("Kotlin output writer"))
+    try {
+        val futures = files.map { file ->
+            executor.submit(Callable {
+                FileUtil.writeToFile(File(outputDir, file.relativePath), file.asByteArray())
+            })
+        }
+        for (future in futures) {
+            try {
+                future.get()
+            }
+            catch (e: ExecutionException) {
+                throw rethrow(e.cause ?: e)
+            }
+        }
+    }
+    finally {
+        executor.shutdownNow()
+    }
+}
+
+private fun reportOutput(messageCollector: MessageCollector, sources: List<File>, output: File) {
+    messageCollector.report(CompilerMessageSeverity.OUTPUT, OutputMessageUtil.formatOutputMessage(sources, output), CompilerMessageLocation.NO_LOCATION)
+}
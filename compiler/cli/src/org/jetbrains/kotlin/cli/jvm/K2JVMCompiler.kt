@@ -44,6 +44,7 @@ import org.jetbrains.kotlin.utils.KotlinPathsFromHomeDir
 import org.jetbrains.kotlin.utils.PathUtil
 import java.io.File
 import java.lang.management.ManagementFactory
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.TimeUnit
 
 open class K2JVMCompiler : CLICompiler<K2JVMCompilerArguments>() {
@@ -69,6 +70,9 @@ open class K2JVMCompiler : CLICompiler<K2JVMCompilerArguments>() {
         val locator = services.get(CompilerJarLocator::class.java)
         configuration.put(JVMConfigurationKeys.COMPILER_JAR_LOCATOR, locator)
 
+        val jarPackagesIndex = services.get(JarPackagesIndex::class.java)
+        configuration.put(JVMConfigurationKeys.JAR_PACKAGES_INDEX, jarPackagesIndex)
+
         try {
             if (!arguments.noJdk) {
                 configuration.addJvmClasspathRoots(PathUtil.getJdkClassesRoots())
@@ -126,12 +130,11 @@ open class K2JVMCompiler : CLICompiler<K2JVMCompilerArguments>() {
 
         if (arguments.script) {
             configuration.add(CommonConfigurationKeys.SCRIPT_DEFINITIONS_KEY, StandardScriptDefinition)
-            shouldReportPerf = false
+            configuration.put(CLIConfigurationKeys.REPORT_PERF, false)
         }
 
-        if (arguments.skipMetadataVersionCheck) {
-            JvmMetadataVersion.skipCheck = true
-        }
+        // the flag stays with the thread, which may run another compilation later, so it's set every time
+        JvmMetadataVersion.skipCheck = arguments.skipMetadataVersionCheck
 
         putAdvancedOptions(configuration, arguments)
 
@@ -236,9 +239,9 @@ open class K2JVMCompiler : CLICompiler<K2JVMCompilerArguments>() {
     companion object {
         private var initStartNanos = System.nanoTime()
         // allows to track GC time for each run when repeated compilation is used
-        private val elapsedGCTime = hashMapOf<String, Long>()
+        // concurrent, since compilations in the daemon may report at the same time
+        private val elapsedGCTime = ConcurrentHashMap<String, Long>()
         private var elapsedJITTime = 0L
-        private var shouldReportPerf = true
 
         fun resetInitStartTime() {
             if (initStartNanos == 0L) {
@@ -250,10 +253,13 @@ open class K2JVMCompiler : CLICompiler<K2JVMCompilerArguments>() {
             CLICompiler.doMain(K2JVMCompiler(), args)
         }
 
-        fun reportPerf(configuration: CompilerConfiguration, message: String) {
-            if (!shouldReportPerf) return
+        fun reportPerf(
+                configuration: CompilerConfiguration,
+                message: String,
+                collector: MessageCollector = configuration[CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY]!!
+        ) {
+            if (!configuration.get(CLIConfigurationKeys.REPORT_PERF, true)) return
 
-            val collector = configuration[CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY]!!
             collector.report(CompilerMessageSeverity.INFO, "PERF: " + message, CompilerMessageLocation.NO_LOCATION)
         }
 
@@ -280,6 +286,8 @@ open class K2JVMCompiler : CLICompiler<K2JVMCompilerArguments>() {
             configuration.put(JVMConfigurationKeys.DISABLE_INLINE, arguments.noInline)
             configuration.put(JVMConfigurationKeys.DISABLE_OPTIMIZATION, arguments.noOptimize)
             configuration.put(JVMConfigurationKeys.MULTIFILE_FACADES_OPEN, arguments.multifileFacadesOpen);
+            configuration.put(JVMConfigurationKeys.PARALLEL_CODEGEN, arguments.parallelCodegen)
+            configuration.put(JVMConfigurationKeys.PER_VALUE_LOCKS, arguments.perValueLocks)
             configuration.put(CLIConfigurationKeys.ALLOW_KOTLIN_PACKAGE, arguments.allowKotlinPackage);
         }
 
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.cli.jvm.compiler
+
+import com.intellij.openapi.util.io.FileUtil
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.util.io.URLUtil
+import org.jetbrains.kotlin.cli.common.KOTLIN_COMPILER_JAR_PACKAGES_INDEX_PROPERTY
+import java.io.*
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+
+// remembers which packages (as "/"-separated paths) each jar on the classpath contains
+// entries are keyed by the jar path and validated by its size and modification time, so a changed jar invalidates only its own entry
+// the index is kept in memory for the lifetime of the process (e.g. compile daemon) and persisted to storageFile between processes
+class JarPackagesIndex private constructor(private val storageFile: File) {
+
+    private data class JarStamp(val length: Long, val lastModified: Long)
+
+    private class Entry(val stamp: JarStamp, val packages: Set<String>)
+
+    private val entries: ConcurrentHashMap<String, Entry> by lazy { ConcurrentHashMap(load()) }
+
+    // returns a set of packages for every root in the same order, or null for roots that are not jars
+    fun packagesInRoots(roots: List<JavaRoot>): List<Set<String>?> {
+        var updated = false
+        val result = roots.map { root ->
+            val jarPath = jarPath(root) ?: return@map null
+            val jarFile = File(jarPath)
+            val stamp = jarStamp(jarFile)
+
+            val cached = entries[jarPath]
+            if (cached != null && cached.stamp == stamp) {
+                cached.packages
+            }
+            else {
+                val packages = collectPackages(root.file)
+                entries[jarPath] = Entry(stamp, packages)
+                updated = true
+                packages
+            }
+        }
+
+        if (updated) {
+            save()
+        }
+        return result
+    }
+
+    private fun jarStamp(jarFile: File) = JarStamp(jarFile.length(), jarFile.lastModified())
+
+    private fun jarPath(root: JavaRoot): String? {
+        if (root.type != JavaRoot.RootType.BINARY || root.prefixFqName != null) return null
+        val path = root.file.path
+        if (!path.endsWith(URLUtil.JAR_SEPARATOR)) return null
+        return FileUtil.toSystemIndependentName(File(path.removeSuffix(URLUtil.JAR_SEPARATOR)).absolutePath)
+    }
+
+    private fun collectPackages(jarRoot: VirtualFile): Set<String> {
+        val packages = HashSet<String>()
+        fun collect(dir: VirtualFile, path: String) {
+            for (child in dir.children) {
+                if (child.isDirectory) {
+                    val childPath = if (path.isEmpty()) child.name else "$path/${child.name}"
+                    packages.add(childPath)
+                    collect(child, childPath)
+                }
+            }
+        }
+        collect(jarRoot, "")
+        return packages
+    }
+
+    private fun load(): Map<String, Entry> {
+        if (!storageFile.isFile) return emptyMap()
+
+        try {
+            // read into memory rather than mapping the file, a mapped file cannot be replaced on Windows until the mapping is collected
+            return DataInputStream(BufferedInputStream(FileInputStream(storageFile))).use { input ->
+                if (input.readInt() != VERSION) return emptyMap()
+
+                val result = HashMap<String, Entry>()
+                repeat(input.readInt()) {
+                    val jarPath = input.readString()
+                    val stamp = JarStamp(input.readLong(), input.readLong())
+                    val packages = HashSet<String>()
+                    repeat(input.readInt()) {
+                        packages.add(input.readString())
+                    }
+                    result[jarPath] = Entry(stamp, packages)
+                }
+                result
+            }
+        }
+        catch (e: Exception) {
+            // corrupted or written by an incompatible version, will be rewritten on the next update
+            return emptyMap()
+        }
+    }
+
+    @Synchronized
+    private fun save() {
+        var tempFile: File? = null
+        try {
+            storageFile.parentFile?.mkdirs()
+            // write to a temporary file first, so that concurrently running compilers never read a partially written index
+            tempFile = File.createTempFile(storageFile.name, ".tmp", storageFile.parentFile)
+            DataOutputStream(BufferedOutputStream(FileOutputStream(tempFile))).use { output ->
+                val snapshot = HashMap(entries)
+                // jars that were removed or changed since they were indexed would only bloat the index
+                for ((jarPath, entry) in snapshot.entries.toList()) {
+                    val jarFile = File(jarPath)
+                    if (!jarFile.isFile || jarStamp(jarFile) != entry.stamp) {
+                        snapshot.remove(jarPath)
+                        entries.remove(jarPath, entry)
+                    }
+                }
+                output.writeInt(VERSION)
+                output.writeInt(snapshot.size)
+                for ((jarPath, entry) in snapshot) {
+                    output.writeString(jarPath)
+                    output.writeLong(entry.stamp.length)
+                    output.writeLong(entry.stamp.lastModified)
+                    output.writeInt(entry.packages.size)
+                    for (packagePath in entry.packages) {
+                        output.writeString(packagePath)
+                    }
+                }
+            }
+            FileUtil.rename(tempFile, storageFile)
+        }
+        catch (e: IOException) {
+            // the index is only an optimization, failing to persist it should not fail the compilation
+        }
+        finally {
+            // still there if writing or renaming failed
+            tempFile?.delete()
+        }
+    }
+
+    companion object {
+        private val VERSION = 1
+
+        private val instances = ConcurrentHashMap<File, JarPackagesIndex>()
+
+        @JvmStatic
+        fun getInstance(storageFile: File): JarPackagesIndex {
+            val canonicalFile = storageFile.canonicalFile
+            instances[canonicalFile]?.let { return it }
+            val index = JarPackagesIndex(canonicalFile)
+            return instances.putIfAbsent(canonicalFile, index) ?: index
+        }
+
+        // the index configured for this process with the KOTLIN_COMPILER_JAR_PACKAGES_INDEX_PROPERTY system property, if any
+        @JvmStatic
+        fun getConfiguredInstance(): JarPackagesIndex? =
+                System.getProperty(KOTLIN_COMPILER_JAR_PACKAGES_INDEX_PROPERTY)?.let { getInstance(File(it)) }
+    }
+}
+
+private fun DataInputStream.readString(): String {
+    val bytes = ByteArray(readInt())
+    readFully(bytes)
+    return String(bytes, Charsets.UTF_8)
+}
+
+private fun DataOutputStream.writeString(value: String) {
+    val bytes = value.toByteArray(Charsets.UTF_8)
+    writeInt(bytes.size)
+    write(bytes)
+}
@@ -17,12 +17,12 @@
 package org.jetbrains.kotlin.cli.jvm.compiler
 
 import com.intellij.openapi.vfs.VirtualFile
-import com.intellij.util.containers.IntArrayList
 import org.jetbrains.kotlin.name.ClassId
 import org.jetbrains.kotlin.name.FqName
 import java.util.ArrayList
+import java.util.Arrays
 import java.util.EnumSet
-import java.util.HashMap
+import java.util.concurrent.ConcurrentHashMap
 
 data class JavaRoot(val file: VirtualFile, val type: JavaRoot.RootType, val prefixFqName: FqName? = null) {
     enum class RootType {
@@ -37,44 +37,72 @@ data class JavaRoot(val file: VirtualFile, val type: JavaRoot.RootType, val pref
 }
 
 // speeds up finding files/classes in classpath/java source roots
-// NOT THREADSAFE, needs to be adapted/removed if we want compiler to be multithreaded
+// may be shared between threads: package caches are updated copy-on-write, so lookups never block each other
 // the main idea of this class is for each package to store roots which contains it to avoid excessive file system traversal
-class JvmDependenciesIndex(_roots: List<JavaRoot>) {
+class JvmDependenciesIndex(_roots: List<JavaRoot>, private val jarPackagesIndex: JarPackagesIndex? = null) {
 
     //these fields are computed based on _roots passed to constructor which are filled in later
     private val roots: List<JavaRoot> by lazy { _roots.toList() }
 
+    // for each root, packages known to exist in it (null if unknown), lets us skip jars without traversing their directories
+    private val packagesInRoots: List<Set<String>?> by lazy {
+        jarPackagesIndex?.packagesInRoots(roots) ?: roots.map { null }
+    }
+
     private val maxIndex: Int
         get() = roots.size
 
     // each "Cache" object corresponds to a package
-    private class Cache {
-        private val innerPackageCaches = HashMap<String, Cache>()
+    private class Cache(initialRootIndices: IntArray = EMPTY_ROOT_INDICES) {
+        private val innerPackageCaches = ConcurrentHashMap<String, Cache>()
 
-        operator fun get(name: String) = innerPackageCaches.getOrPut(name) { Cache() }
+        operator fun get(name: String): Cache {
+            innerPackageCaches[name]?.let { return it }
+            val newCache = Cache()
+            return innerPackageCaches.putIfAbsent(name, newCache) ?: newCache
+        }
 
         // indices of roots that are known to contain this package
         // if this list contains [1, 3, 5] then roots with indices 1, 3 and 5 are known to contain this package, 2 and 4 are known not to (no information about roots 6 or higher)
         // if this list contains maxIndex that means that all roots containing this package are known
-        val rootIndices = IntArrayList()
+        // the array is kept sorted and is never modified in place, readers should take it once and work with that snapshot
+        @Volatile var rootIndices: IntArray = initialRootIndices
+            private set
+
+        fun addRootIndex(rootIndex: Int) {
+            synchronized(this) {
+                val current = rootIndices
+                val position = Arrays.binarySearch(current, rootIndex)
+                // several threads may discover the same root concurrently
+                if (position >= 0) return
+
+                val insertionPoint = -position - 1
+                val updated = IntArray(current.size + 1)
+                System.arraycopy(current, 0, updated, 0, insertionPoint)
+                updated[insertionPoint] = rootIndex
+                System.arraycopy(current, insertionPoint, updated, insertionPoint + 1, current.size - insertionPoint)
+                rootIndices = updated
+            }
+        }
     }
 
     // root "Cache" object corresponds to DefaultPackage which exists in every root. Roots with non-default fqname are also listed here but
     // they will be ignored on requests with invalid fqname prefix.
     private val rootCache: Cache by lazy {
-        with(Cache()) {
-            roots.indices.forEach {
-                rootIndices.add(it)
-            }
-            rootIndices.add(maxIndex)
-            rootIndices.trimToSize()
-            this
+        val allRootIndices = IntArray(maxIndex + 1)
+        for (i in allRootIndices.indices) {
+            allRootIndices[i] = i
         }
+        Cache(allRootIndices)
     }
 
-    // holds the request and the result last time we searched for class
+    // holds the request and the result last time we searched for class on the current thread
     // helps improve several scenarios, LazyJavaResolverContext.findClassInJava being the most important
-    private var lastClassSearch: Pair<FindClassRequest, SearchResult>? = null
+    private val lastClassSearchForThread = ThreadLocal<Pair<FindClassRequest, SearchResult>>()
+
+    private var lastClassSearch: Pair<FindClassRequest, SearchResult>?
+        get() = lastClassSearchForThread.get()
+        set(value) = lastClassSearchForThread.set(value)
 
 
     // findClassGivenDirectory MUST check whether the class with this classId exists in given package
@@ -110,11 +138,12 @@ class JvmDependenciesIndex(_roots: List<JavaRoot>) {
         fun doSearch() = doSearch(request, handler)
 
         // make a decision based on information saved from last class search
-        if (request !is FindClassRequest || lastClassSearch == null) {
+        val lastSearch = lastClassSearch
+        if (request !is FindClassRequest || lastSearch == null) {
             return doSearch()
         }
         
-        val (cachedRequest, cachedResult) = lastClassSearch!!
+        val (cachedRequest, cachedResult) = lastSearch
         if (cachedRequest.classId != request.classId) {
             return doSearch()
         }
@@ -169,6 +198,8 @@ class JvmDependenciesIndex(_roots: List<JavaRoot>) {
 
         // a list of package sub names, ["org", "jb", "kotlin"]
         val packagesPath = request.packageFqName.pathSegments().map { it.identifier }
+        // relative paths of the packages on the way, ["org", "org/jb", "org/jb/kotlin"], matched against JarPackagesIndex data (null without it)
+        val packagesPrefixes = packagePrefixes(packagesPath)
         // a list of caches corresponding to packages, [default, "org", "org.jb", "org.jb.kotlin"]
         val caches = cachesPath(packagesPath)
 
@@ -179,19 +210,19 @@ class JvmDependenciesIndex(_roots: List<JavaRoot>) {
         val cachesLastIndex = caches.lastIndex
         for (cacheIndex in 0..cachesLastIndex) {
             val reverseCacheIndex = cachesLastIndex - cacheIndex
-            val cache = caches[reverseCacheIndex]
-            for (i in 0..cache.rootIndices.size() - 1) {
-                val rootIndex = cache.rootIndices[i]
+            val rootIndices = caches[reverseCacheIndex].rootIndices
+            for (i in 0..rootIndices.size - 1) {
+                val rootIndex = rootIndices[i]
                 if (rootIndex <= processedRootsUpTo) continue // roots with those indices have been processed by now
 
-                val directoryInRoot = travelPath(rootIndex, packagesPath, reverseCacheIndex, caches) ?: continue
+                val directoryInRoot = travelPath(rootIndex, packagesPath, packagesPrefixes, reverseCacheIndex, caches) ?: continue
                 val root = roots[rootIndex]
                 val result = handle(root, directoryInRoot)
                 if (result != null) {
                     return found(directoryInRoot, root, result)
                 }
             }
-            processedRootsUpTo = cache.rootIndices.lastOrNull() ?: processedRootsUpTo
+            processedRootsUpTo = rootIndices.lastOrNull() ?: processedRootsUpTo
         }
         
         return notFound()
@@ -199,12 +230,13 @@ class JvmDependenciesIndex(_roots: List<JavaRoot>) {
 
     // try to find a target directory corresponding to package represented by packagesPath in a given root reprenting by index
     // possibly filling "Cache" objects with new information
-    private fun travelPath(rootIndex: Int, packagesPath: List<String>, fillCachesAfter: Int, cachesPath: List<Cache>): VirtualFile? {
+    private fun travelPath(
+            rootIndex: Int, packagesPath: List<String>, packagesPrefixes: List<String>?, fillCachesAfter: Int, cachesPath: List<Cache>
+    ): VirtualFile? {
         if (rootIndex >= maxIndex) {
             for (i in (fillCachesAfter + 1)..(cachesPath.size - 1)) {
                 // we all know roots that contain this package by now
-                cachesPath[i].rootIndices.add(maxIndex)
-                cachesPath[i].rootIndices.trimToSize()
+                cachesPath[i].addRootIndex(maxIndex)
             }
             return null
         }
@@ -213,9 +245,14 @@ class JvmDependenciesIndex(_roots: List<JavaRoot>) {
         val prefixPathSegments = pathRoot.prefixFqName?.pathSegments()
 
         var currentFile = pathRoot.file
+        val knownPackages = packagesInRoots[rootIndex]
 
         for (pathIndex in packagesPath.indices) {
             val subPackageName = packagesPath[pathIndex]
+            if (knownPackages != null && packagesPrefixes != null && packagesPrefixes[pathIndex] !in knownPackages) {
+                return null
+            }
+
             if (prefixPathSegments != null && pathIndex < prefixPathSegments.size) {
                 // Traverse prefix first instead of traversing real directories
                 if (prefixPathSegments[pathIndex].identifier != subPackageName) {
@@ -229,13 +266,24 @@ class JvmDependenciesIndex(_roots: List<JavaRoot>) {
             val correspondingCacheIndex = pathIndex + 1
             if (correspondingCacheIndex > fillCachesAfter) {
                 // subPackageName exists in this root
-                cachesPath[correspondingCacheIndex].rootIndices.add(rootIndex)
+                cachesPath[correspondingCacheIndex].addRootIndex(rootIndex)
             }
         }
 
         return currentFile
     }
 
+    private fun packagePrefixes(path: List<String>): List<String>? {
+        // prefixes are only consulted for roots with known packages, don't bother computing them otherwise
+        if (jarPackagesIndex == null) return null
+
+        val prefixes = ArrayList<String>(path.size)
+        for (subPackageName in path) {
+            prefixes.add(if (prefixes.isEmpty()) subPackageName else prefixes.last() + "/" + subPackageName)
+        }
+        return prefixes
+    }
+
     private fun cachesPath(path: List<String>): List<Cache> {
         val caches = ArrayList<Cache>()
         caches.add(rootCache)
@@ -269,5 +317,4 @@ class JvmDependenciesIndex(_roots: List<JavaRoot>) {
     }
 }
 
-private fun IntArrayList.lastOrNull() = if (isEmpty) null else get(size() - 1)
-private val IntArrayList.indices: IntRange get() = 0..(size() - 1)
\ No newline at end of file
+private val EMPTY_ROOT_INDICES = IntArray(0)
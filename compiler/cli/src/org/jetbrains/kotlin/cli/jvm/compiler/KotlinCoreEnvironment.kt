@@ -78,6 +78,7 @@ import org.jetbrains.kotlin.extensions.StorageComponentContainerContributor
 import org.jetbrains.kotlin.idea.KotlinFileType
 import org.jetbrains.kotlin.load.kotlin.JvmVirtualFileFinderFactory
 import org.jetbrains.kotlin.load.kotlin.KotlinBinaryClassCache
+import org.jetbrains.kotlin.load.kotlin.LibraryProtoCache
 import org.jetbrains.kotlin.load.kotlin.ModuleVisibilityManager
 import org.jetbrains.kotlin.name.FqName
 import org.jetbrains.kotlin.name.isValidJavaFqName
@@ -127,7 +128,8 @@ class KotlinCoreEnvironment private constructor(
 
         fillClasspath(configuration)
         val fileManager = ServiceManager.getService(project, CoreJavaFileManager::class.java)
-        val index = JvmDependenciesIndex(javaRoots)
+        val jarPackagesIndex = configuration.get(JVMConfigurationKeys.JAR_PACKAGES_INDEX) ?: JarPackagesIndex.getConfiguredInstance()
+        val index = JvmDependenciesIndex(javaRoots, jarPackagesIndex)
         (fileManager as KotlinCliJavaFileManagerImpl).initIndex(index)
 
         sourceFiles.addAll(CompileEnvironmentUtil.getKtFiles(project, getSourceRootsCheckingForDuplicates(), {
@@ -373,6 +375,8 @@ class KotlinCoreEnvironment private constructor(
             // ability to get text from annotations xml files
             applicationEnvironment.registerFileType(PlainTextFileType.INSTANCE, "xml")
             applicationEnvironment.registerParserDefinition(JavaParserDefinition())
+            // survives between compilations in keep-alive mode (e.g. in the compile daemon)
+            applicationEnvironment.application.registerService(LibraryProtoCache::class.java, LibraryProtoCache())
         }
 
         // made public for Upsource
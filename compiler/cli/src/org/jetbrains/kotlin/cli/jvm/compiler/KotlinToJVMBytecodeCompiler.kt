@@ -24,6 +24,7 @@ import org.jetbrains.kotlin.cli.common.CompilerPluginContext
 import org.jetbrains.kotlin.cli.common.ExitCode
 import org.jetbrains.kotlin.cli.common.messages.*
 import org.jetbrains.kotlin.cli.common.output.outputUtils.writeAll
+import org.jetbrains.kotlin.cli.common.output.outputUtils.writeAllInParallel
 import org.jetbrains.kotlin.cli.jvm.K2JVMCompiler
 import org.jetbrains.kotlin.cli.jvm.config.*
 import org.jetbrains.kotlin.codegen.*
@@ -44,12 +45,17 @@ import org.jetbrains.kotlin.resolve.jvm.JvmClassName
 import org.jetbrains.kotlin.resolve.jvm.TopDownAnalyzerFacadeForJVM
 import org.jetbrains.kotlin.util.PerformanceCounter
 import org.jetbrains.kotlin.utils.KotlinPaths
+import org.jetbrains.kotlin.utils.NamedDaemonThreadFactory
 import org.jetbrains.kotlin.utils.PathUtil
+import org.jetbrains.kotlin.utils.rethrow
 import java.io.File
 import java.lang.reflect.Constructor
 import java.lang.reflect.InvocationTargetException
 import java.net.URLClassLoader
 import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
 import java.util.concurrent.TimeUnit
 import java.util.jar.Attributes
 
@@ -77,7 +83,12 @@ object KotlinToJVMBytecodeCompiler {
         }
         else {
             val messageCollector = configuration.get(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY, MessageCollector.NONE)
-            outputFiles.writeAll(outputDir ?: File("."), messageCollector)
+            if (configuration.get(JVMConfigurationKeys.PARALLEL_CODEGEN, false)) {
+                outputFiles.writeAllInParallel(outputDir ?: File("."), messageCollector)
+            }
+            else {
+                outputFiles.writeAll(outputDir ?: File("."), messageCollector)
+            }
         }
     }
 
@@ -112,16 +123,27 @@ object KotlinToJVMBytecodeCompiler {
 
         val generationStates = ArrayList<GenerationState>();
 
+        val filesByModule = LinkedHashMap<Module, List<KtFile>>()
         for (module in chunk) {
             ProgressIndicatorAndCompilationCanceledStatus.checkCanceled()
             val ktFiles = CompileEnvironmentUtil.getKtFiles(
                     environment.project, getAbsolutePaths(directory, module)) { s -> throw IllegalStateException("Should have been checked before: " + s) }
             if (!checkKotlinPackageUsage(environment, ktFiles)) return false
-            val moduleOutputDirectory = File(module.getOutputDirectory())
-            val generationState = generate(environment, result, ktFiles, module, moduleOutputDirectory,
-                                           module.getModuleName())
+            filesByModule.put(module, ktFiles)
+        }
+
+        if (configuration.get(JVMConfigurationKeys.PARALLEL_CODEGEN, false) && chunk.size > 1) {
+            generationStates.addAll(generateModulesInParallel(environment, result, filesByModule))
+        }
+        else {
+            for ((module, ktFiles) in filesByModule) {
+                ProgressIndicatorAndCompilationCanceledStatus.checkCanceled()
+                generationStates.add(generate(environment, result, ktFiles, module, File(module.getOutputDirectory()), module.getModuleName()))
+            }
+        }
+
+        for ((module, generationState) in chunk.zip(generationStates)) {
             outputFiles.put(module, generationState.factory)
-            generationStates.add(generationState);
         }
 
         try {
@@ -138,6 +160,72 @@ object KotlinToJVMBytecodeCompiler {
         }
     }
 
+    // The chunk is analyzed as a whole, so after analysis modules don't depend on each other and can be generated independently.
+    // Each module reports to its own buffer, which is replayed in the chunk order once all modules are done
+    private fun generateModulesInParallel(
+            environment: KotlinCoreEnvironment,
+            result: AnalysisResult,
+            filesByModule: Map<Module, List<KtFile>>
+    ): List<GenerationState> {
+        val threadCount = Math.min(Runtime.getRuntime().availableProcessors(), filesByModule.size)
+        val executor = Executors.newFixedThreadPool(threadCount, NamedDaemonThreadFactory("Kotlin module codegen worker"))
+        try {
+            val tasks = filesByModule.map { entry ->
+                val (module, ktFiles) = entry
+                val messages = BufferingMessageCollector()
+                val future = executor.submit(Callable {
+                    // packages are not split further, modules already keep all workers busy
+                    generate(environment, result, ktFiles, module, File(module.getOutputDirectory()), module.getModuleName(),
+                             messages, parallelCodegen = false)
+                })
+                Pair(future, messages)
+            }
+
+            // if a module fails, the others are still awaited, so that all their states are destroyed and all messages are reported
+            val generationStates = ArrayList<GenerationState>()
+            var failure: Throwable? = null
+            for ((future, messages) in tasks) {
+                try {
+                    generationStates.add(future.get())
+                }
+                catch (e: Throwable) {
+                    if (failure == null) {
+                        failure = if (e is ExecutionException) e.cause ?: e else e
+                    }
+                }
+                finally {
+                    messages.flushTo(environment.messageCollector())
+                }
+            }
+
+            if (failure != null) {
+                generationStates.forEach { it.destroy() }
+                throw rethrow(failure)
+            }
+            return generationStates
+        }
+        finally {
+            executor.shutdownNow()
+        }
+    }
+
+    private class BufferingMessageCollector : MessageCollector {
+        private val messages = ArrayList<Triple<CompilerMessageSeverity, String, CompilerMessageLocation>>()
+
+        @Synchronized
+        override fun report(severity: CompilerMessageSeverity, message: String, location: CompilerMessageLocation) {
+            messages.add(Triple(severity, message, location))
+        }
+
+        @Synchronized
+        fun flushTo(collector: MessageCollector) {
+            for ((severity, message, location) in messages) {
+                collector.report(severity, message, location)
+            }
+            messages.clear()
+        }
+    }
+
     fun createCompilerConfiguration(
             base: CompilerConfiguration,
             chunk: List<Module>,
@@ -284,8 +372,9 @@ object KotlinToJVMBytecodeCompiler {
                 environment.getSourceFiles(), object : AnalyzerWithCompilerReport.Analyzer {
             override fun analyze(): AnalysisResult {
                 val sharedTrace = CliLightClassGenerationSupport.NoScopeRecordCliBindingTrace()
-                val moduleContext = TopDownAnalyzerFacadeForJVM.createContextWithSealedModule(environment.project,
-                                                                                              environment.getModuleName())
+                val moduleContext = TopDownAnalyzerFacadeForJVM.createContextWithSealedModule(
+                        environment.project, environment.getModuleName(),
+                        environment.configuration.get(JVMConfigurationKeys.PER_VALUE_LOCKS, false))
 
                 return TopDownAnalyzerFacadeForJVM.analyzeFilesWithJavaIntegrationWithCustomContext(
                         moduleContext,
@@ -330,7 +419,10 @@ object KotlinToJVMBytecodeCompiler {
             sourceFiles: List<KtFile>,
             module: Module?,
             outputDirectory: File?,
-            moduleName: String?): GenerationState {
+            moduleName: String?,
+            messageCollector: MessageCollector = environment.messageCollector(),
+            parallelCodegen: Boolean = environment.configuration.get(JVMConfigurationKeys.PARALLEL_CODEGEN, false)
+    ): GenerationState {
         val configuration = environment.configuration
         val incrementalCompilationComponents = configuration.get(JVMConfigurationKeys.INCREMENTAL_COMPILATION_COMPONENTS)
 
@@ -368,7 +460,8 @@ object KotlinToJVMBytecodeCompiler {
                 moduleName,
                 outputDirectory,
                 incrementalCompilationComponents,
-                configuration.get(JVMConfigurationKeys.MULTIFILE_FACADES_OPEN, false))
+                configuration.get(JVMConfigurationKeys.MULTIFILE_FACADES_OPEN, false),
+                parallelCodegen = parallelCodegen)
         ProgressIndicatorAndCompilationCanceledStatus.checkCanceled()
 
         val generationStart = PerformanceCounter.currentTime()
@@ -383,7 +476,7 @@ object KotlinToJVMBytecodeCompiler {
         val speed = numberOfLines.toFloat() * 1000 / time
         val message = "GENERATE: $numberOfSourceFiles files ($numberOfLines lines) ${desc}in $time ms - ${"%.3f".format(speed)} loc/s"
 
-        K2JVMCompiler.reportPerf(environment.configuration, message)
+        K2JVMCompiler.reportPerf(environment.configuration, message, messageCollector)
         ProgressIndicatorAndCompilationCanceledStatus.checkCanceled()
 
         AnalyzerWithCompilerReport.reportDiagnostics(
@@ -391,11 +484,11 @@ object KotlinToJVMBytecodeCompiler {
                         generationState.collectedExtraJvmDiagnostics,
                         result.bindingContext.diagnostics
                 ),
-                environment.messageCollector()
+                messageCollector
         )
 
         AnalyzerWithCompilerReport.reportBytecodeVersionErrors(
-                generationState.extraJvmDiagnosticsTrace.bindingContext, environment.messageCollector()
+                generationState.extraJvmDiagnosticsTrace.bindingContext, messageCollector
         );
 
         ProgressIndicatorAndCompilationCanceledStatus.checkCanceled()
@@ -18,6 +18,8 @@ package org.jetbrains.kotlin.daemon.client
 
 import com.intellij.openapi.progress.ProcessCanceledException
 import org.jetbrains.kotlin.daemon.common.CompilerCallbackServicesFacade
+import org.jetbrains.kotlin.daemon.common.IncrementalCacheSessionData
+import org.jetbrains.kotlin.daemon.common.InlineRegistration
 import org.jetbrains.kotlin.daemon.common.LoopbackNetworkInterface
 import org.jetbrains.kotlin.daemon.common.RmiFriendlyCompilationCancelledException
 import org.jetbrains.kotlin.daemon.common.SOCKET_ANY_FREE_PORT
@@ -28,6 +30,7 @@ import org.jetbrains.kotlin.load.kotlin.incremental.components.JvmPackagePartPro
 import org.jetbrains.kotlin.modules.TargetId
 import org.jetbrains.kotlin.progress.CompilationCanceledStatus
 import java.rmi.server.UnicastRemoteObject
+import java.util.*
 
 
 class CompilerCallbackServicesFacadeServer(
@@ -67,6 +70,29 @@ class CompilerCallbackServicesFacadeServer(
         incrementalCompilationComponents!!.getIncrementalCache(target).close()
     }
 
+    override fun incrementalCache_getSessionData(target: TargetId): IncrementalCacheSessionData {
+        val cache = incrementalCompilationComponents!!.getIncrementalCache(target)
+        return IncrementalCacheSessionData(ArrayList(cache.getObsoletePackageParts()),
+                                           ArrayList(cache.getObsoleteMultifileClasses()),
+                                           cache.getModuleMappingData())
+    }
+
+    override fun incrementalCache_getPackagePartsData(target: TargetId, partInternalNames: Collection<String>): Map<String, JvmPackagePartProto?> {
+        val cache = incrementalCompilationComponents!!.getIncrementalCache(target)
+        val result = HashMap<String, JvmPackagePartProto?>()
+        for (internalName in partInternalNames) {
+            result[internalName] = cache.getPackagePartData(internalName)
+        }
+        return result
+    }
+
+    override fun incrementalCache_registerInlines(target: TargetId, inlines: Collection<InlineRegistration>) {
+        val cache = incrementalCompilationComponents!!.getIncrementalCache(target)
+        for (it in inlines) {
+            cache.registerInline(it.fromPath, it.jvmSignature, it.toPath)
+        }
+    }
+
     override fun lookupTracker_requiresPosition() = incrementalCompilationComponents!!.getLookupTracker().requiresPosition
 
     override fun lookupTracker_record(lookups: Collection<LookupInfo>) {
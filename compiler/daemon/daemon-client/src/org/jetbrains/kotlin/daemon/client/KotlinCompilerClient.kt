@@ -25,6 +25,8 @@ import org.jetbrains.kotlin.utils.addToStdlib.check
 import java.io.File
 import java.io.OutputStream
 import java.io.PrintStream
+import java.rmi.ServerException
+import java.rmi.UnmarshalException
 import java.rmi.server.UnicastRemoteObject
 import java.util.concurrent.Semaphore
 import java.util.concurrent.TimeUnit
@@ -110,6 +112,18 @@ object KotlinCompilerClient {
     }
 
 
+    // returns null if the daemon is of an older version, which doesn't report memory metrics
+    // such a daemon fails to unmarshal the call, and the error comes back wrapped in ServerException
+    fun getMemoryMetrics(compilerService: CompileService): DaemonMemoryMetrics? =
+            try {
+                compilerService.getMemoryMetrics().check { it.isGood }?.get()
+            }
+            catch (e: ServerException) {
+                if (e.cause !is UnmarshalException) throw e
+                null
+            }
+
+
     fun compile(compilerService: CompileService,
                 sessionId: Int,
                 targetPlatform: CompileService.TargetPlatform,
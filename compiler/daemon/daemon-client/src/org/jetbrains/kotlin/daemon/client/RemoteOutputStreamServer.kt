@@ -17,26 +17,142 @@
 package org.jetbrains.kotlin.daemon.client
 
 import org.jetbrains.kotlin.daemon.common.LoopbackNetworkInterface
-import org.jetbrains.kotlin.daemon.common.SOCKET_ANY_FREE_PORT
 import org.jetbrains.kotlin.daemon.common.RemoteOutputStream
 import org.jetbrains.kotlin.daemon.common.SOCKET_ANY_FREE_PORT
+import org.jetbrains.kotlin.daemon.common.SocketChannelAddress
+import java.io.DataInputStream
+import java.io.IOException
 import java.io.OutputStream
+import java.net.ServerSocket
+import java.net.Socket
+import java.net.SocketTimeoutException
 import java.rmi.server.UnicastRemoteObject
+import java.security.MessageDigest
+import java.security.SecureRandom
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
 
+val SOCKET_CHANNEL_ACCEPT_TIMEOUT_MS: Int = 10000
+val SOCKET_CHANNEL_TOKEN_LENGTH: Int = 16
 
-class RemoteOutputStreamServer(val out: OutputStream, port: Int = SOCKET_ANY_FREE_PORT)
+private val tokenRandom = SecureRandom()
+
+class RemoteOutputStreamServer(val out: OutputStream, port: Int = SOCKET_ANY_FREE_PORT, val allowSocketChannels: Boolean = true)
 : RemoteOutputStream,
   UnicastRemoteObject(port, LoopbackNetworkInterface.clientLoopbackSocketFactory, LoopbackNetworkInterface.serverLoopbackSocketFactory)
 {
+    private val socketChannels = ConcurrentHashMap<Int, SocketChannelReader>()
+
     override fun close() {
         out.close()
     }
 
     override fun write(data: ByteArray, offset: Int, length: Int) {
-        out.write(data, offset, length)
+        synchronized(out) {
+            out.write(data, offset, length)
+        }
     }
 
     override fun write(dataByte: Int) {
-        out.write(dataByte)
+        synchronized(out) {
+            out.write(dataByte)
+        }
+    }
+
+    override fun openSocketChannel(): SocketChannelAddress? {
+        if (!allowSocketChannels) return null
+
+        val serverSocket = try {
+            LoopbackNetworkInterface.serverLoopbackSocketFactory.createServerSocket(SOCKET_ANY_FREE_PORT)
+        }
+        catch (e: IOException) {
+            return null
+        }
+        val token = ByteArray(SOCKET_CHANNEL_TOKEN_LENGTH)
+        tokenRandom.nextBytes(token)
+        val reader = SocketChannelReader(serverSocket, token)
+        socketChannels[reader.port] = reader
+        reader.start()
+        return SocketChannelAddress(reader.port, token)
+    }
+
+    override fun awaitSocketChannel(port: Int, dataLength: Long) {
+        socketChannels[port]?.await(dataLength)
+    }
+
+    private inner class SocketChannelReader(val serverSocket: ServerSocket, val token: ByteArray) : Thread("Kotlin compile daemon output channel ${serverSocket.localPort}") {
+        val port = serverSocket.localPort
+
+        private val lock = ReentrantLock()
+        private val progress = lock.newCondition()
+        private var received = 0L
+        private var finished = false
+
+        init {
+            isDaemon = true
+        }
+
+        override fun run() {
+            try {
+                acceptWithToken().use { socket ->
+                    val input = socket.inputStream
+                    val buffer = ByteArray(8192)
+                    while (true) {
+                        val length = input.read(buffer)
+                        if (length < 0) break
+                        write(buffer, 0, length)
+                        lock.withLock {
+                            received += length
+                            progress.signalAll()
+                        }
+                    }
+                }
+            }
+            catch (e: IOException) {
+                // the daemon falls back to rmi calls when the channel breaks
+            }
+            finally {
+                serverSocket.close()
+                socketChannels.remove(port)
+                lock.withLock {
+                    finished = true
+                    progress.signalAll()
+                }
+            }
+        }
+
+        // connections of other local processes don't know the token, they are closed and the next connection is awaited
+        private fun acceptWithToken(): Socket {
+            val deadline = System.currentTimeMillis() + SOCKET_CHANNEL_ACCEPT_TIMEOUT_MS
+            while (true) {
+                val timeLeft = deadline - System.currentTimeMillis()
+                if (timeLeft <= 0) throw SocketTimeoutException("No connection with the token on port $port")
+                serverSocket.soTimeout = timeLeft.toInt()
+                val socket = serverSocket.accept()
+                try {
+                    socket.soTimeout = timeLeft.toInt()
+                    val receivedToken = ByteArray(token.size)
+                    DataInputStream(socket.inputStream).readFully(receivedToken)
+                    if (MessageDigest.isEqual(receivedToken, token)) {
+                        socket.soTimeout = 0
+                        return socket
+                    }
+                }
+                catch (e: IOException) {
+                    // dropped as well
+                }
+                socket.close()
+            }
+        }
+
+        fun await(dataLength: Long) {
+            lock.withLock {
+                while (received < dataLength && !finished) {
+                    progress.await()
+                }
+            }
+        }
     }
 }
@@ -71,6 +71,11 @@ interface CompileService : Remote {
     @Throws(RemoteException::class)
     fun getUsedMemory(): CallResult<Long>
 
+    // heap usage and the state of daemon caches, doesn't force garbage collection unlike getUsedMemory
+    // daemons of older versions don't have this method, use KotlinCompilerClient.getMemoryMetrics
+    @Throws(RemoteException::class)
+    fun getMemoryMetrics(): CallResult<DaemonMemoryMetrics>
+
     @Throws(RemoteException::class)
     fun getDaemonOptions(): CallResult<DaemonOptions>
 
@@ -123,3 +128,17 @@ interface CompileService : Remote {
             operationsTracer: RemoteOperationsTracer?
     ): CallResult<Int>
 }
+
+
+data class DaemonMemoryMetrics(
+        val heapUsed: Long,
+        val heapMax: Long,
+        val heapUsedAfterLastGC: Long,
+        val thresholdExceededCount: Int,
+        val cacheSizes: Map<String, Int>,
+        val cacheEvictions: Map<String, Int>
+) : Serializable {
+    companion object {
+        private val serialVersionUID: Long = 5216870349L
+    }
+}
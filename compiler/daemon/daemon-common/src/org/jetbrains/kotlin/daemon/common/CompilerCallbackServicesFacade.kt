@@ -69,6 +69,18 @@ interface CompilerCallbackServicesFacade : Remote {
     @Throws(RemoteException::class)
     fun incrementalCache_getMultifileFacadeParts(target: TargetId, internalName: String): Collection<String>?
 
+    // batched versions of the calls above, used to reduce number of round-trips between daemon and client
+    // facades of older clients don't have them, so the daemon falls back to the calls above on ServerException caused by UnmarshalException
+
+    @Throws(RemoteException::class)
+    fun incrementalCache_getSessionData(target: TargetId): IncrementalCacheSessionData
+
+    @Throws(RemoteException::class)
+    fun incrementalCache_getPackagePartsData(target: TargetId, partInternalNames: Collection<String>): Map<String, JvmPackagePartProto?>
+
+    @Throws(RemoteException::class)
+    fun incrementalCache_registerInlines(target: TargetId, inlines: Collection<InlineRegistration>)
+
     // ----------------------------------------------------
     // LookupTracker
     @Throws(RemoteException::class)
@@ -87,6 +99,24 @@ interface CompilerCallbackServicesFacade : Remote {
 }
 
 
+class IncrementalCacheSessionData(
+        val obsoletePackageParts: Collection<String>,
+        val obsoleteMultifileClasses: Collection<String>,
+        val moduleMappingData: ByteArray?
+) : Serializable {
+    companion object {
+        private val serialVersionUID: Long = 4391728105L
+    }
+}
+
+
+data class InlineRegistration(val fromPath: String, val jvmSignature: String, val toPath: String) : Serializable {
+    companion object {
+        private val serialVersionUID: Long = 6083519244L
+    }
+}
+
+
 class RmiFriendlyCompilationCancelledException: Exception(), Serializable {
     companion object {
         private val serialVersionUID: Long = 8228357578L // just a random number, but should never be changed to avoid deserialization problems
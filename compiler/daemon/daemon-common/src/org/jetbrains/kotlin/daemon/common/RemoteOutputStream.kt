@@ -16,6 +16,7 @@
 
 package org.jetbrains.kotlin.daemon.common
 
+import java.io.Serializable
 import java.rmi.Remote
 import java.rmi.RemoteException
 
@@ -29,4 +30,21 @@ interface RemoteOutputStream : Remote {
 
     @Throws(RemoteException::class)
     fun write(dataByte: Int)
+
+    // opens a loopback socket channel accepting a single connection, data sent through it is written to the stream
+    // returns the port to connect to and the token to send before the data, or null if socket channels are not supported by the stream
+    @Throws(RemoteException::class)
+    fun openSocketChannel(): SocketChannelAddress?
+
+    // waits until the first dataLength bytes sent through the socket channel on the port are written to the stream
+    @Throws(RemoteException::class)
+    fun awaitSocketChannel(port: Int, dataLength: Long)
+}
+
+
+// the port is open to any local process, so only a connection starting with the token is accepted
+class SocketChannelAddress(val port: Int, val token: ByteArray) : Serializable {
+    companion object {
+        private val serialVersionUID: Long = 7361420958L
+    }
 }
@@ -20,9 +20,12 @@ import com.intellij.openapi.vfs.impl.ZipHandler
 import org.jetbrains.kotlin.cli.common.CLICompiler
 import org.jetbrains.kotlin.cli.common.ExitCode
 import org.jetbrains.kotlin.cli.common.KOTLIN_COMPILER_ENVIRONMENT_KEEPALIVE_PROPERTY
+import org.jetbrains.kotlin.cli.jvm.compiler.JarPackagesIndex
 import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
 import org.jetbrains.kotlin.config.Services
 import org.jetbrains.kotlin.daemon.common.*
+import org.jetbrains.kotlin.load.kotlin.KotlinBinaryClassCache
+import org.jetbrains.kotlin.load.kotlin.LibraryProtoCache
 import org.jetbrains.kotlin.load.kotlin.incremental.components.IncrementalCompilationComponents
 import org.jetbrains.kotlin.progress.CompilationCanceledStatus
 import org.jetbrains.kotlin.utils.addToStdlib.check
@@ -41,10 +44,13 @@ import java.util.logging.Level
 import java.util.logging.Logger
 import kotlin.concurrent.read
 import kotlin.concurrent.schedule
+import kotlin.concurrent.thread
 import kotlin.concurrent.write
 
 fun nowSeconds() = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime())
 
+val JAR_PACKAGES_INDEX_FILE_NAME = "jar-packages.index"
+
 interface CompilerSelector {
     operator fun get(targetPlatform: CompileService.TargetPlatform): CLICompiler<*>
 }
@@ -60,8 +66,18 @@ private class EventMangerImpl : EventManger {
         onCompilationFinished.add(f)
     }
 
+    // every listener is called even if some of them fail, the first failure is rethrown then
     fun fireCompilationFinished() {
-        onCompilationFinished.forEach { it() }
+        var failure: Throwable? = null
+        for (listener in onCompilationFinished) {
+            try {
+                listener()
+            }
+            catch (e: Throwable) {
+                if (failure == null) failure = e
+            }
+        }
+        failure?.let { throw it }
     }
 }
 
@@ -80,6 +96,12 @@ class CompileServiceImpl(
         System.setProperty(KOTLIN_COMPILER_ENVIRONMENT_KEEPALIVE_PROPERTY, "true")
     }
 
+    // shared by all daemons with the same run files dir, survives daemon restarts
+    // passed to compilations as a service, so the setting doesn't leak into anything else running in the daemon process
+    private val jarPackagesIndex by lazy {
+        JarPackagesIndex.getConfiguredInstance() ?: JarPackagesIndex.getInstance(File(daemonOptions.runFilesPathOrDefault, JAR_PACKAGES_INDEX_FILE_NAME))
+    }
+
     // wrapped in a class to encapsulate alive check logic
     private class ClientOrSessionProxy(val aliveFlagPath: String?) {
         val registered = nowSeconds()
@@ -116,6 +138,25 @@ class CompileServiceImpl(
 
     private val rwlock = ReentrantReadWriteLock()
 
+    // held for reading by every compilation, compilations of different sessions run concurrently;
+    // shared caches are only cleared when the write lock could be taken, i.e. when no compilation is running
+    private val compilationsLock = ReentrantReadWriteLock()
+
+    // ordered from the cheapest to refill
+    private val memoryGovernor = MemoryGovernor(
+            listOf(EvictableCache("jar file system", size = { null }, evict = { clearJarCacheIfNoCompilations() }),
+                   EvictableCache("binary classes", size = { applicationService(KotlinBinaryClassCache::class.java)?.sharedCacheSize },
+                                  evict = { applicationService(KotlinBinaryClassCache::class.java)?.clearSharedCache() }),
+                   EvictableCache("library protos", size = { applicationService(LibraryProtoCache::class.java)?.size },
+                                  evict = { applicationService(LibraryProtoCache::class.java)?.clear() })),
+            onExhausted = { usedAfterGC ->
+                if (daemonOptions.autoshutdownMemoryThreshold != COMPILE_DAEMON_MEMORY_THRESHOLD_INFINITE &&
+                    usedAfterGC > daemonOptions.autoshutdownMemoryThreshold) {
+                    log.info("Memory used after GC ${usedAfterGC / 1024} kb exceeds the threshold with all caches evicted, shutting down")
+                    scheduleShutdown(true)
+                }
+            })
+
     private var runFile: File
 
     init {
@@ -176,9 +217,8 @@ class CompileServiceImpl(
         synchronized(state.sessions) {
             state.sessions.remove(sessionId)
             log.info("cleaning after session $sessionId")
-            clearJarCache()
-            if (state.sessions.isEmpty()) {
-                // TODO: and some goes here
+            if (!clearJarCacheIfNoCompilations()) {
+                log.info("other compilations are running, jar cache is not cleared")
             }
         }
         timer.schedule(0) {
@@ -193,6 +233,8 @@ class CompileServiceImpl(
 
     override fun getUsedMemory(): CompileService.CallResult<Long> = ifAlive { usedMemory(withGC = true) }
 
+    override fun getMemoryMetrics(): CompileService.CallResult<DaemonMemoryMetrics> = ifAlive { memoryGovernor.getMetrics() }
+
     override fun shutdown(): CompileService.CallResult<Nothing> = ifAliveExclusive_Nothing(minAliveness = Aliveness.LastSession, ignoreCompilerChanged = true) {
         shutdownImpl()
     }
@@ -225,7 +267,7 @@ class CompileServiceImpl(
     ): CompileService.CallResult<Int> =
             doCompile(sessionId, args, compilerOutputStream, serviceOutputStream, operationsTracer) { printStream, eventManager, profiler ->
                 when (outputFormat) {
-                    CompileService.OutputFormat.PLAIN -> compiler[targetPlatform].exec(printStream, *args)
+                    CompileService.OutputFormat.PLAIN -> compiler[targetPlatform].exec(printStream, createPlainCompileServices(), *args)
                     CompileService.OutputFormat.XML -> compiler[targetPlatform].execAndOutputXml(printStream, createCompileServices(servicesFacade, eventManager, profiler), *args)
                 }
             }
@@ -277,6 +319,11 @@ class CompileServiceImpl(
         timer.schedule(0) {
             initiateElections()
         }
+        if (daemonOptions.prewarm) {
+            thread(isDaemon = true, name = "Kotlin compile daemon prewarm") {
+                prewarm()
+            }
+        }
         timer.schedule(delay = DAEMON_PERIODIC_CHECK_INTERVAL_MS, period = DAEMON_PERIODIC_CHECK_INTERVAL_MS) {
             try {
                 periodicAndAfterSessionCheck()
@@ -294,6 +341,8 @@ class CompileServiceImpl(
 
         ifAlive_Nothing(minAliveness = Aliveness.LastSession) {
 
+            memoryGovernor.checkRecovered()
+
             // 1. check if unused for a timeout - shutdown
             if (shutdownCondition({ daemonOptions.autoshutdownUnusedSeconds != COMPILE_DAEMON_TIMEOUT_INFINITE_S && compilationsCounter.get() == 0 && nowSeconds() - lastUsedSeconds > daemonOptions.autoshutdownUnusedSeconds },
                                   "Unused timeout exceeded ${daemonOptions.autoshutdownUnusedSeconds}s, shutting down")) {
@@ -369,9 +418,30 @@ class CompileServiceImpl(
         }
     }
 
+    // compiles a small source using stdlib, so that compiler classes, the application environment and stdlib descriptors
+    // are loaded before the first real compilation comes
+    private fun prewarm() {
+        ifAlive_Nothing {
+            compilationsLock.read {
+                val tempDir = createTempDir("kotlin-daemon-prewarm")
+                try {
+                    val source = File(tempDir, "prewarm.kt")
+                    source.writeText("fun prewarm(args: Array<String>) = args.map { it.length }.filter { it > 0 }.joinToString()\n")
+                    val startTime = System.nanoTime()
+                    val res = compiler[CompileService.TargetPlatform.JVM].exec(PrintStream(LogStream("prewarm")), source.path, "-d", File(tempDir, "out").path)
+                    log.info("Prewarm compilation done with result $res in ${TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)} ms")
+                }
+                finally {
+                    tempDir.deleteRecursively()
+                }
+            }
+        }
+    }
+
     private fun shutdownImpl() {
         log.info("Shutdown started")
         state.alive.set(Aliveness.Dying.ordinal)
+        memoryGovernor.dispose()
         UnicastRemoteObject.unexportObject(this, true)
         log.info("Shutdown complete")
         onShutdown()
@@ -415,22 +485,32 @@ class CompileServiceImpl(
                 val compilerMessagesStream = PrintStream(BufferedOutputStream(RemoteOutputStreamClient(compilerMessagesStreamProxy, rpcProfiler), 4096))
                 val serviceOutputStream = PrintStream(BufferedOutputStream(RemoteOutputStreamClient(serviceOutputStreamProxy, rpcProfiler), 4096))
                 try {
-                    checkedCompile(args, serviceOutputStream, rpcProfiler) {
-                        val res = body(compilerMessagesStream, eventManger, rpcProfiler).code
-                        _lastUsedSeconds = nowSeconds()
-                        res
+                    compilationsLock.read {
+                        checkedCompile(args, serviceOutputStream, rpcProfiler) {
+                            val res = body(compilerMessagesStream, eventManger, rpcProfiler).code
+                            _lastUsedSeconds = nowSeconds()
+                            res
+                        }
                     }
                 }
                 finally {
-                    serviceOutputStream.flush()
-                    compilerMessagesStream.flush()
-                    eventManger.fireCompilationFinished()
-                    operationsTracer?.after("compile")
+                    serviceOutputStream.close()
+                    compilerMessagesStream.close()
+                    try {
+                        eventManger.fireCompilationFinished()
+                    }
+                    finally {
+                        operationsTracer?.after("compile")
+                    }
                 }
             }
 
+    private fun createPlainCompileServices(): Services =
+            Services.Builder().register(JarPackagesIndex::class.java, jarPackagesIndex).build()
+
     private fun createCompileServices(facade: CompilerCallbackServicesFacade, eventManger: EventManger, rpcProfiler: Profiler): Services {
         val builder = Services.Builder()
+        builder.register(JarPackagesIndex::class.java, jarPackagesIndex)
         if (facade.hasIncrementalCaches() || facade.hasLookupTracker()) {
             builder.register(IncrementalCompilationComponents::class.java, RemoteIncrementalCompilationComponentsClient(facade, eventManger, rpcProfiler))
         }
@@ -473,6 +553,14 @@ class CompileServiceImpl(
                         log.info(it)
                     }
                 }
+
+                // totals of all compilations, the cache is shared between them
+                applicationService(KotlinBinaryClassCache::class.java)?.let { cache ->
+                    "PERF: binary class cache: ${cache.hitCount} hits, ${cache.missCount} misses, ${cache.sharedCacheSize} shared classes".let {
+                        serviceOut.println(it)
+                        log.info(it)
+                    }
+                }
             }
             return res
         }
@@ -483,8 +571,24 @@ class CompileServiceImpl(
         }
     }
 
+    private fun clearJarCacheIfNoCompilations(): Boolean {
+        if (!compilationsLock.writeLock().tryLock()) return false
+        try {
+            clearJarCache()
+            return true
+        }
+        finally {
+            compilationsLock.writeLock().unlock()
+        }
+    }
+
+    private fun <T> applicationService(serviceClass: Class<T>): T? =
+            KotlinCoreEnvironment.applicationEnvironment?.application?.getComponent(serviceClass)
+
     private fun clearJarCache() {
         ZipHandler.clearFileAccessorCache()
+        // shared binary classes are keyed by virtual files of the jar handlers cleared below, so they would only hold memory
+        applicationService(KotlinBinaryClassCache::class.java)?.clearSharedCache()
         val classloader = javaClass.classLoader
         // TODO: replace the following code with direct call to CoreJarFileSystem.<clearCache> as soon as it will be available (hopefully in 15.02)
         try {
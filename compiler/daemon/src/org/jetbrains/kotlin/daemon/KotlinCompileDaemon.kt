@@ -123,11 +123,10 @@ object KotlinCompileDaemon {
             val (registry, port) = findPortAndCreateRegistry(COMPILE_DAEMON_FIND_PORT_ATTEMPTS, COMPILE_DAEMON_PORTS_RANGE_START, COMPILE_DAEMON_PORTS_RANGE_END)
 
             val compilerSelector = object : CompilerSelector {
-                private val jvm by lazy { K2JVMCompiler() }
-                private val js by lazy { K2JSCompiler() }
+                // new instance for every compilation, since compilations of different sessions run concurrently and compilers have mutable state (e.g. plugins)
                 override fun get(targetPlatform: CompileService.TargetPlatform): CLICompiler<*> = when (targetPlatform) {
-                    CompileService.TargetPlatform.JVM -> jvm
-                    CompileService.TargetPlatform.JS -> js
+                    CompileService.TargetPlatform.JVM -> K2JVMCompiler()
+                    CompileService.TargetPlatform.JS -> K2JSCompiler()
                 }
             }
             // timer with a daemon thread, meaning it should not prevent JVM to exit normally
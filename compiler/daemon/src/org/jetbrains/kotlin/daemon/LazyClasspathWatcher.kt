@@ -37,14 +37,16 @@ val DEFAULT_CLASSPATH_DIGEST_WATCH_PERIOD_MS = 300000L // 5 min
 
 /**
  * Class for lazy (on demand) check if any relevant file in the classpath is changed
- * poor-man watcher in the absence of NIO
+ * poor-man watcher in the absence of NIO: files are compared by cached (length, last modified) stamps, and only files with changed
+ * stamps are rehashed, so a file touched without changing its contents is not considered changed;
+ * all digests are rechecked once in digestCheckPeriod to catch modifications preserving the stamp
  * TODO: replace with NIO watching when switching to java 7+
  */
 class LazyClasspathWatcher(classpath: Iterable<String>,
                            val checkPeriod: Long = DEFAULT_CLASSPATH_WATCH_PERIOD_MS,
                            val digestCheckPeriod: Long = DEFAULT_CLASSPATH_DIGEST_WATCH_PERIOD_MS) {
 
-    private data class FileId(val file: File, val lastModified: Long, val digest: ByteArray)
+    private class FileId(val file: File, var lastModified: Long, var length: Long, val digest: ByteArray)
 
     private val fileIdsLock = Semaphore(1) // a barrier for ensuring ids are initialized, using semaphore to allow modifications from another thread
     private var fileIds: ArrayList<FileId>? = null
@@ -62,9 +64,9 @@ class LazyClasspathWatcher(classpath: Iterable<String>,
                         .map { File(it) }
                         .asSequence()
                         .flatMap { it.walk().filter(::isClasspathFile) }
-                        .map { FileId(it, it.lastModified(), it.md5Digest()) }
+                        .map { FileId(it, it.lastModified(), it.length(), it.md5Digest()) }
                         .toArrayList()
-                val nowMs = TimeUnit.MILLISECONDS.toMillis(System.nanoTime())
+                val nowMs = nowMillis()
                 lastUpdate.set(nowMs)
                 lastDigestUpdate.set(nowMs)
             }
@@ -80,40 +82,67 @@ class LazyClasspathWatcher(classpath: Iterable<String>,
 
     val isChanged: Boolean get() {
         if (lastChangedStatus.get()) return true
-        val nowMs = TimeUnit.MILLISECONDS.toMillis(System.nanoTime())
+        val nowMs = nowMillis()
         if (nowMs - lastUpdate.get() < checkPeriod) return false
 
-        val checkDigest = nowMs - lastDigestUpdate.get() > digestCheckPeriod
         // making sure that fieldIds are initialized
         fileIdsLock.acquire()
-        fileIdsLock.release()
-        val changed =
-            fileIds?.find {
-                try {
-                    if (!it.file.exists()) {
-                        log.info("cp changed: ${it.file} doesn't exist any more")
-                        true
+        try {
+            // rechecking under the lock, the check could be just done by another thread
+            if (lastChangedStatus.get()) return true
+            if (nowMillis() - lastUpdate.get() < checkPeriod) return false
+
+            val checkDigest = nowMs - lastDigestUpdate.get() > digestCheckPeriod
+            val changed = fileIds?.any { isChanged(it, checkDigest) } ?: false
+            if (changed) {
+                lastChangedStatus.set(true)
+            }
+
+            lastUpdate.set(nowMillis())
+            if (checkDigest) lastDigestUpdate.set(lastUpdate.get())
+
+            return changed
+        }
+        finally {
+            fileIdsLock.release()
+        }
+    }
+
+    private fun isChanged(fileId: FileId, checkDigest: Boolean): Boolean =
+            try {
+                val file = fileId.file
+                if (!file.exists()) {
+                    log.info("cp changed: $file doesn't exist any more")
+                    true
+                }
+                else {
+                    val lastModified = file.lastModified()
+                    val length = file.length()
+                    if (lastModified == fileId.lastModified && length == fileId.length && !checkDigest) {
+                        false
                     }
-                    // if last modified changed or if enforced by param - checking the digest
-                    else if ((it.file.lastModified() != it.lastModified || checkDigest) && !Arrays.equals(it.digest, it.file.md5Digest())) {
-                        log.info("cp changed: ${it.file} digests differ")
+                    else if (!Arrays.equals(fileId.digest, file.md5Digest())) {
+                        log.info("cp changed: $file digests differ")
                         true
                     }
-                    else false
-                }
-                catch (e: IOException) {
-                    log.log(Level.INFO, "cp changed: ${it.file} access throws the exception", e)
-                    true // io error considered as change
+                    else {
+                        // touched, but the contents is the same, remembering the new stamp to avoid rehashing it on every check
+                        fileId.lastModified = lastModified
+                        fileId.length = length
+                        false
+                    }
                 }
-            } != null
-        lastUpdate.set(TimeUnit.MILLISECONDS.toMillis(System.nanoTime()))
-        if (checkDigest) lastDigestUpdate.set(lastUpdate.get())
-
-        return changed
-    }
+            }
+            catch (e: IOException) {
+                log.log(Level.INFO, "cp changed: ${fileId.file} access throws the exception", e)
+                true // io error considered as change
+            }
 }
 
 
+private fun nowMillis() = TimeUnit.NANOSECONDS.toMillis(System.nanoTime())
+
+
 fun isClasspathFile(file: File): Boolean = file.isFile && listOf("class", "jar").contains(file.extension.toLowerCase())
 
 fun File.md5Digest(): ByteArray {
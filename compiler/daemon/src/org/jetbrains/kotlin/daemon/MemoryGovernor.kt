@@ -0,0 +1,120 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import org.jetbrains.kotlin.daemon.common.DaemonMemoryMetrics
+import java.lang.management.ManagementFactory
+import java.lang.management.MemoryNotificationInfo
+import java.lang.management.MemoryPoolMXBean
+import java.lang.management.MemoryType
+import java.util.logging.Logger
+import javax.management.NotificationEmitter
+import javax.management.NotificationListener
+
+val DEFAULT_MEMORY_GOVERNOR_THRESHOLD = 0.75
+
+class EvictableCache(val name: String, val size: () -> Int?, val evict: () -> Unit)
+
+/**
+ * Watches heap usage after garbage collections without forcing them: the JVM notifies when usage of a heap pool after a collection
+ * exceeds the threshold, set to a fraction of the pool capacity. On every such notification the next cache is evicted, caches are
+ * ordered from the cheapest to refill. When all caches are evicted and memory is still short, onExhausted is called.
+ * The order starts over as soon as usage after collections goes below the threshold (checked in checkRecovered)
+ */
+class MemoryGovernor(private val caches: List<EvictableCache>,
+                     thresholdFraction: Double = DEFAULT_MEMORY_GOVERNOR_THRESHOLD,
+                     private val pools: List<MemoryPoolMXBean> = tenuredHeapPools(),
+                     private val onExhausted: (usedAfterGC: Long) -> Unit) {
+
+    private val log by lazy { Logger.getLogger("memory governor") }
+
+    private var nextCacheIndex = 0
+    private var thresholdExceededCount = 0
+    private val evictions = IntArray(caches.size)
+
+    private val listener = NotificationListener { notification, handback ->
+        if (notification.type == MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED) {
+            onThresholdExceeded()
+        }
+    }
+
+    init {
+        for (pool in pools) {
+            pool.collectionUsageThreshold = (pool.usage.max * thresholdFraction).toLong()
+        }
+        (ManagementFactory.getMemoryMXBean() as NotificationEmitter).addNotificationListener(listener, null, null)
+    }
+
+    private val usedAfterGC: Long get() = pools.sumByLong { it.collectionUsage?.used ?: 0L }
+
+    // called on the collection usage threshold notifications
+    @Synchronized
+    fun onThresholdExceeded() {
+        thresholdExceededCount++
+        if (nextCacheIndex < caches.size) {
+            val cache = caches[nextCacheIndex]
+            log.info("Memory is low (${usedAfterGC / 1024} kb used after GC), evicting ${cache.name} cache (${cache.size() ?: "unknown"} entries)")
+            cache.evict()
+            evictions[nextCacheIndex]++
+            nextCacheIndex++
+        }
+        else {
+            onExhausted(usedAfterGC)
+        }
+    }
+
+    @Synchronized
+    fun checkRecovered() {
+        if (nextCacheIndex > 0 && pools.all { (it.collectionUsage?.used ?: 0L) < it.collectionUsageThreshold }) {
+            log.info("Memory usage after GC is below the threshold again")
+            nextCacheIndex = 0
+        }
+    }
+
+    @Synchronized
+    fun getMetrics(): DaemonMemoryMetrics {
+        val heap = ManagementFactory.getMemoryMXBean().heapMemoryUsage
+        return DaemonMemoryMetrics(
+                heapUsed = heap.used,
+                heapMax = heap.max,
+                heapUsedAfterLastGC = usedAfterGC,
+                thresholdExceededCount = thresholdExceededCount,
+                cacheSizes = caches.mapNotNull { cache -> cache.size()?.let { cache.name to it } }.toMap(),
+                cacheEvictions = caches.indices.associate { caches[it].name to evictions[it] })
+    }
+
+    fun dispose() {
+        (ManagementFactory.getMemoryMXBean() as NotificationEmitter).removeNotificationListener(listener)
+        for (pool in pools) {
+            pool.collectionUsageThreshold = 0
+        }
+    }
+}
+
+// Young generation pools support collection usage thresholds too, but they are almost full before every collection,
+// only the pools which also support usage thresholds are long-lived (tenured)
+private fun tenuredHeapPools(): List<MemoryPoolMXBean> = ManagementFactory.getMemoryPoolMXBeans().filter {
+    it.type == MemoryType.HEAP && it.isCollectionUsageThresholdSupported && it.isUsageThresholdSupported && it.usage.max > 0
+}
+
+private inline fun <T> Iterable<T>.sumByLong(selector: (T) -> Long): Long {
+    var sum = 0L
+    for (element in this) {
+        sum += selector(element)
+    }
+    return sum
+}
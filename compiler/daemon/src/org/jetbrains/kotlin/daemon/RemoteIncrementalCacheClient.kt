@@ -18,30 +18,166 @@ package org.jetbrains.kotlin.daemon
 
 import org.jetbrains.kotlin.daemon.common.CompilerCallbackServicesFacade
 import org.jetbrains.kotlin.daemon.common.DummyProfiler
+import org.jetbrains.kotlin.daemon.common.IncrementalCacheSessionData
+import org.jetbrains.kotlin.daemon.common.InlineRegistration
 import org.jetbrains.kotlin.daemon.common.Profiler
+import org.jetbrains.kotlin.load.kotlin.ModuleMapping
 import org.jetbrains.kotlin.load.kotlin.incremental.components.IncrementalCache
 import org.jetbrains.kotlin.load.kotlin.incremental.components.JvmPackagePartProto
 import org.jetbrains.kotlin.modules.TargetId
+import java.rmi.ServerException
+import java.rmi.UnmarshalException
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 
-class RemoteIncrementalCacheClient(val facade: CompilerCallbackServicesFacade, val target: TargetId, val profiler: Profiler = DummyProfiler()): IncrementalCache {
+val INLINE_REGISTRATIONS_BATCH_SIZE: Int = 1000
 
-    override fun getObsoletePackageParts(): Collection<String> = profiler.withMeasure(this) { facade.incrementalCache_getObsoletePackageParts(target) }
+/**
+ * Caches everything read from the client side, since the incremental cache is not modified by the client during compilation,
+ * and sends inline registrations in batches. Obsolete parts and module mapping are fetched in one call on first access,
+ * package parts data is fetched together with the data of all actual parts of the same package (and of multifile class
+ * parts known so far), because the compiler requests them one by one when building package member scopes.
+ * Facades of older clients don't have the batched calls, in this case the single-item calls are used
+ */
+class RemoteIncrementalCacheClient(
+        val facade: CompilerCallbackServicesFacade,
+        val target: TargetId,
+        eventManger: EventManger,
+        val profiler: Profiler = DummyProfiler()
+) : IncrementalCache {
+    private class Cached<out T>(val value: T)
+
+    @Volatile private var batchedCallsSupported = true
+
+    private val sessionData by lazy {
+        requestBatched({ facade.incrementalCache_getSessionData(target) }) {
+            IncrementalCacheSessionData(facade.incrementalCache_getObsoletePackageParts(target),
+                                        facade.incrementalCache_getObsoleteMultifileClassFacades(target),
+                                        facade.incrementalCache_getModuleMappingData(target))
+        }
+    }
+    private val obsoletePackageParts by lazy { sessionData.obsoletePackageParts.toSet() }
+    private val moduleMapping by lazy { sessionData.moduleMappingData?.let { ModuleMapping.create(it) } }
+
+    private val packagePartsData = ConcurrentHashMap<String, Cached<JvmPackagePartProto?>>()
+    private val packagePartsToPrefetch = Collections.newSetFromMap(ConcurrentHashMap<String, Boolean>())
+    private val multifileFacadeParts = ConcurrentHashMap<String, Cached<Collection<String>?>>()
+    private val multifileFacades = ConcurrentHashMap<String, Cached<String?>>()
+    private val classFilePaths = ConcurrentHashMap<String, String>()
+
+    private val inlines = ArrayList<InlineRegistration>()
+
+    init {
+        eventManger.onCompilationFinished { flushInlines() }
+    }
+
+    override fun getObsoletePackageParts(): Collection<String> = sessionData.obsoletePackageParts
 
-    override fun getObsoleteMultifileClasses(): Collection<String> = profiler.withMeasure(this) { facade.incrementalCache_getObsoleteMultifileClassFacades(target) }
+    override fun getObsoleteMultifileClasses(): Collection<String> = sessionData.obsoleteMultifileClasses
 
-    override fun getStableMultifileFacadeParts(facadeInternalName: String): Collection<String>? = profiler.withMeasure(this) { facade.incrementalCache_getMultifileFacadeParts(target, facadeInternalName) }
+    override fun getStableMultifileFacadeParts(facadeInternalName: String): Collection<String>? =
+            multifileFacadeParts.getOrRequest(facadeInternalName) {
+                val parts = facade.incrementalCache_getMultifileFacadeParts(target, facadeInternalName)
+                parts?.let { packagePartsToPrefetch.addAll(it) }
+                parts
+            }
 
-    override fun getPackagePartData(partInternalName: String): JvmPackagePartProto? = profiler.withMeasure(this) { facade.incrementalCache_getPackagePartData(target, partInternalName) }
+    override fun getPackagePartData(partInternalName: String): JvmPackagePartProto? {
+        packagePartsData[partInternalName]?.let { return it.value }
 
-    override fun getMultifileFacade(partInternalName: String): String? = profiler.withMeasure(this) { facade.incrementalCache_getMultifileFacade(target, partInternalName) }
+        if (!batchedCallsSupported) {
+            return packagePartsData.getOrRequest(partInternalName) { facade.incrementalCache_getPackagePartData(target, partInternalName) }
+        }
 
-    override fun getModuleMappingData(): ByteArray? = profiler.withMeasure(this) { facade.incrementalCache_getModuleMappingData(target) }
+        val names = linkedSetOf(partInternalName)
+        names.addAll(actualPackagePartsNextTo(partInternalName))
+        names.addAll(packagePartsToPrefetch)
+        packagePartsToPrefetch.removeAll(names)
+        names.removeAll { it != partInternalName && packagePartsData.containsKey(it) }
+
+        val data = requestBatched({ facade.incrementalCache_getPackagePartsData(target, names) }) {
+            mapOf(partInternalName to facade.incrementalCache_getPackagePartData(target, partInternalName))
+        }
+        for (name in names) {
+            if (name in data) {
+                packagePartsData.putIfAbsent(name, Cached(data[name]))
+            }
+        }
+        return packagePartsData[partInternalName]!!.value
+    }
+
+    override fun getMultifileFacade(partInternalName: String): String? =
+            multifileFacades.getOrRequest(partInternalName) { facade.incrementalCache_getMultifileFacade(target, partInternalName) }
+
+    override fun getModuleMappingData(): ByteArray? = sessionData.moduleMappingData
 
     override fun registerInline(fromPath: String, jvmSignature: String, toPath: String) {
-        profiler.withMeasure(this) { facade.incrementalCache_registerInline(target, fromPath, jvmSignature, toPath) }
+        val batch = synchronized(inlines) {
+            inlines.add(InlineRegistration(fromPath, jvmSignature, toPath))
+            if (inlines.size < INLINE_REGISTRATIONS_BATCH_SIZE) return
+            takeInlines()
+        }
+        sendInlines(batch)
     }
 
-    override fun getClassFilePath(internalClassName: String): String = profiler.withMeasure(this) { facade.incrementalCache_getClassFilePath(target,internalClassName) }
+    override fun getClassFilePath(internalClassName: String): String {
+        classFilePaths[internalClassName]?.let { return it }
+        val path = profiler.withMeasure(this) { facade.incrementalCache_getClassFilePath(target, internalClassName) }
+        classFilePaths.putIfAbsent(internalClassName, path)
+        return path
+    }
 
-    override fun close(): Unit = profiler.withMeasure(this) { facade.incrementalCache_close(target) }
+    override fun close() {
+        flushInlines()
+        profiler.withMeasure(this) { facade.incrementalCache_close(target) }
+    }
+
+    private fun actualPackagePartsNextTo(partInternalName: String): Collection<String> {
+        val packageInternalName = partInternalName.substringBeforeLast('/', "")
+        val packageParts = moduleMapping?.findPackageParts(packageInternalName.replace('/', '.')) ?: return emptyList()
+        val prefix = if (packageInternalName.isEmpty()) "" else packageInternalName + "/"
+        return packageParts.parts.map { prefix + it }.filterNot { it in obsoletePackageParts }
+    }
+
+    private fun <T> ConcurrentHashMap<String, Cached<T>>.getOrRequest(key: String, request: () -> T): T {
+        get(key)?.let { return it.value }
+        val value = profiler.withMeasure(this@RemoteIncrementalCacheClient, request)
+        putIfAbsent(key, Cached(value))
+        return value
+    }
+
+    private fun takeInlines(): List<InlineRegistration> {
+        val batch = ArrayList(inlines)
+        inlines.clear()
+        return batch
+    }
+
+    private fun flushInlines() {
+        val batch = synchronized(inlines) { takeInlines() }
+        sendInlines(batch)
+    }
+
+    private fun sendInlines(batch: List<InlineRegistration>) {
+        if (batch.isEmpty()) return
+        requestBatched({ facade.incrementalCache_registerInlines(target, batch) }) {
+            for (inline in batch) {
+                facade.incrementalCache_registerInline(target, inline.fromPath, inline.jvmSignature, inline.toPath)
+            }
+        }
+    }
+
+    // a facade without the batched call fails to unmarshal the request, and the error comes back wrapped in ServerException,
+    // then single-item calls are used from now on
+    private fun <T> requestBatched(batched: () -> T, single: () -> T): T {
+        if (batchedCallsSupported) {
+            try {
+                return profiler.withMeasure(this, batched)
+            }
+            catch (e: ServerException) {
+                if (e.cause !is UnmarshalException) throw e
+                batchedCallsSupported = false
+            }
+        }
+        return profiler.withMeasure(this, single)
+    }
 }
@@ -25,10 +25,15 @@ import org.jetbrains.kotlin.daemon.common.DummyProfiler
 import org.jetbrains.kotlin.daemon.common.Profiler
 
 
-class RemoteIncrementalCompilationComponentsClient(val facade: CompilerCallbackServicesFacade, eventManger: EventManger, val profiler: Profiler = DummyProfiler()) : IncrementalCompilationComponents {
+class RemoteIncrementalCompilationComponentsClient(val facade: CompilerCallbackServicesFacade, val eventManger: EventManger, val profiler: Profiler = DummyProfiler()) : IncrementalCompilationComponents {
     val remoteLookupTrackerClient = RemoteLookupTrackerClient(facade, eventManger, profiler)
 
-    override fun getIncrementalCache(target: TargetId): IncrementalCache = RemoteIncrementalCacheClient(facade, target, profiler)
+    // one client per target for the whole compilation, so that data fetched from the client side is reused
+    private val incrementalCaches = hashMapOf<TargetId, RemoteIncrementalCacheClient>()
+
+    override fun getIncrementalCache(target: TargetId): IncrementalCache = synchronized(incrementalCaches) {
+        incrementalCaches.getOrPut(target) { RemoteIncrementalCacheClient(facade, target, eventManger, profiler) }
+    }
 
     override fun getLookupTracker(): LookupTracker = remoteLookupTrackerClient
 }
@@ -17,20 +17,109 @@
 package org.jetbrains.kotlin.daemon
 
 import org.jetbrains.kotlin.daemon.common.DummyProfiler
+import org.jetbrains.kotlin.daemon.common.LoopbackNetworkInterface
 import org.jetbrains.kotlin.daemon.common.Profiler
 import org.jetbrains.kotlin.daemon.common.RemoteOutputStream
+import java.io.IOException
 import java.io.OutputStream
+import java.net.Socket
 
+/**
+ * Sends data through a loopback socket channel if the remote stream supports it, so writes don't cost an rmi call each,
+ * and falls back to rmi calls otherwise. On flush waits until all data sent through the channel is written on the other side
+ */
 class RemoteOutputStreamClient(val remote: RemoteOutputStream, val profiler: Profiler = DummyProfiler()): OutputStream() {
+
+    private class SocketChannel(val port: Int, val socket: Socket) {
+        val output: OutputStream = socket.outputStream
+        var sent = 0L
+        var flushed = 0L
+    }
+
+    private var socketChannel: SocketChannel? = openSocketChannel()
+
     override fun write(data: ByteArray) {
-        profiler.withMeasure(this) { remote.write(data, 0, data.size) }
+        write(data, 0, data.size)
     }
 
     override fun write(data: ByteArray, offset: Int, length: Int) {
+        socketChannel?.let {
+            try {
+                it.output.write(data, offset, length)
+                it.sent += length
+                return
+            }
+            catch (e: IOException) {
+                closeSocketChannel()
+            }
+        }
         profiler.withMeasure(this) { remote.write(data, offset, length) }
     }
 
     override fun write(byte: Int) {
+        socketChannel?.let {
+            try {
+                it.output.write(byte)
+                it.sent++
+                return
+            }
+            catch (e: IOException) {
+                closeSocketChannel()
+            }
+        }
         profiler.withMeasure(this) { remote.write(byte) }
     }
+
+    override fun flush() {
+        val channel = socketChannel ?: return
+        if (channel.flushed == channel.sent) return
+        try {
+            channel.output.flush()
+            profiler.withMeasure(this) { remote.awaitSocketChannel(channel.port, channel.sent) }
+            channel.flushed = channel.sent
+        }
+        catch (e: IOException) {
+            closeSocketChannel()
+        }
+    }
+
+    // doesn't close the remote stream, only the channel to it
+    override fun close() {
+        flush()
+        closeSocketChannel()
+    }
+
+    private fun openSocketChannel(): SocketChannel? =
+            try {
+                profiler.withMeasure(this) { remote.openSocketChannel() }?.let { address ->
+                    val socket = LoopbackNetworkInterface.clientLoopbackSocketFactory.createSocket(LoopbackNetworkInterface.loopbackInetAddressName, address.port)
+                    try {
+                        // the other side doesn't trust the connection until it gets the token
+                        socket.outputStream.write(address.token)
+                    }
+                    catch (e: IOException) {
+                        socket.close()
+                        throw e
+                    }
+                    SocketChannel(address.port, socket)
+                }
+            }
+            catch (e: IOException) {
+                null
+            }
+
+    // waits until data already sent through the channel is written on the other side, so that subsequent rmi writes don't overtake it
+    private fun closeSocketChannel() {
+        val channel = socketChannel ?: return
+        socketChannel = null
+        try {
+            channel.socket.close()
+        }
+        catch (e: IOException) {
+            // nothing to do, the channel is dropped anyway
+        }
+        if (channel.flushed != channel.sent) {
+            profiler.withMeasure(this) { remote.awaitSocketChannel(channel.port, channel.sent) }
+        }
+    }
 }
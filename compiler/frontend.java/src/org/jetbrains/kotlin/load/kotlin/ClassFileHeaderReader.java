@@ -0,0 +1,387 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.load.kotlin;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.org.objectweb.asm.AnnotationVisitor;
+import org.jetbrains.org.objectweb.asm.ClassVisitor;
+import org.jetbrains.org.objectweb.asm.Opcodes;
+import org.jetbrains.org.objectweb.asm.Type;
+
+/**
+ * Reads only the class-level part of a class file: the header, class annotations and inner classes.
+ *
+ * Unlike {@link org.jetbrains.org.objectweb.asm.ClassReader}, fields and methods are skipped by their lengths without being visited,
+ * and only the constant pool entries that are actually used are decoded. Events are reported to a {@link ClassVisitor}
+ * in the same order and with the same arguments as {@code ClassReader.accept(visitor, SKIP_CODE | SKIP_DEBUG | SKIP_FRAMES)}
+ * reports them, except that visitSource, visitOuterClass, visitAttribute, visitTypeAnnotation, visitField and visitMethod
+ * are never called.
+ */
+public final class ClassFileHeaderReader {
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+
+    private final byte[] b;
+    private final int[] items;
+    private final String[] strings;
+    private final char[] buffer;
+    private final int header;
+
+    private ClassFileHeaderReader(@NotNull byte[] b) {
+        this.b = b;
+
+        int count = readUnsignedShort(8);
+        items = new int[count];
+        strings = new String[count];
+        int maxStringLength = 0;
+        int offset = 10;
+        for (int i = 1; i < count; i++) {
+            items[i] = offset + 1;
+            int size;
+            switch (b[offset]) {
+                case CONSTANT_UTF8:
+                    size = 3 + readUnsignedShort(offset + 1);
+                    maxStringLength = Math.max(maxStringLength, size);
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    size = 9;
+                    i++;
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    size = 4;
+                    break;
+                case 7:  // Class
+                case 8:  // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    size = 3;
+                    break;
+                default:
+                    // Integer, Float, Fieldref, Methodref, InterfaceMethodref, NameAndType, Dynamic, InvokeDynamic
+                    size = 5;
+                    break;
+            }
+            offset += size;
+        }
+        buffer = new char[maxStringLength];
+        header = offset;
+    }
+
+    public static void accept(@NotNull byte[] classFile, @NotNull ClassVisitor visitor) {
+        new ClassFileHeaderReader(classFile).accept(visitor);
+    }
+
+    private void accept(@NotNull ClassVisitor visitor) {
+        int offset = header;
+        int access = readUnsignedShort(offset);
+        String name = readClass(offset + 2);
+        String superName = readClass(offset + 4);
+        String[] interfaces = new String[readUnsignedShort(offset + 6)];
+        offset += 8;
+        for (int i = 0; i < interfaces.length; i++) {
+            interfaces[i] = readClass(offset);
+            offset += 2;
+        }
+
+        offset = skipMembers(offset); // fields
+        offset = skipMembers(offset); // methods
+
+        String signature = null;
+        int visibleAnnotations = 0;
+        int invisibleAnnotations = 0;
+        int innerClasses = 0;
+        int attributeCount = readUnsignedShort(offset);
+        offset += 2;
+        for (int i = attributeCount; i > 0; i--) {
+            String attributeName = readUTF8(offset);
+            int attributeStart = offset + 6;
+            if ("Signature".equals(attributeName)) {
+                signature = readUTF8(attributeStart);
+            }
+            else if ("RuntimeVisibleAnnotations".equals(attributeName)) {
+                visibleAnnotations = attributeStart;
+            }
+            else if ("RuntimeInvisibleAnnotations".equals(attributeName)) {
+                invisibleAnnotations = attributeStart;
+            }
+            else if ("InnerClasses".equals(attributeName)) {
+                innerClasses = attributeStart;
+            }
+            else if ("Deprecated".equals(attributeName)) {
+                access |= Opcodes.ACC_DEPRECATED;
+            }
+            else if ("Synthetic".equals(attributeName)) {
+                access |= Opcodes.ACC_SYNTHETIC | 0x40000 /* ClassWriter.ACC_SYNTHETIC_ATTRIBUTE */;
+            }
+            offset = attributeStart + readInt(offset + 2);
+        }
+
+        visitor.visit(readInt(4), access, name, signature, superName, interfaces);
+
+        if (visibleAnnotations != 0) {
+            visitAnnotations(visitor, visibleAnnotations, true);
+        }
+        if (invisibleAnnotations != 0) {
+            visitAnnotations(visitor, invisibleAnnotations, false);
+        }
+
+        if (innerClasses != 0) {
+            int v = innerClasses + 2;
+            for (int i = readUnsignedShort(innerClasses); i > 0; i--) {
+                visitor.visitInnerClass(readClass(v), readClass(v + 2), readUTF8(v + 4), readUnsignedShort(v + 6));
+                v += 8;
+            }
+        }
+
+        visitor.visitEnd();
+    }
+
+    private int skipMembers(int offset) {
+        int v = offset + 2;
+        for (int i = readUnsignedShort(offset); i > 0; i--) {
+            // access_flags, name_index, descriptor_index
+            int attributeCount = readUnsignedShort(v + 6);
+            v += 8;
+            for (int j = attributeCount; j > 0; j--) {
+                v += 6 + readInt(v + 2);
+            }
+        }
+        return v;
+    }
+
+    private void visitAnnotations(@NotNull ClassVisitor visitor, int offset, boolean visible) {
+        int v = offset + 2;
+        for (int i = readUnsignedShort(offset); i > 0; i--) {
+            v = readElementValues(v + 2, true, visitor.visitAnnotation(readUTF8(v), visible));
+        }
+    }
+
+    // returns the offset after the element values
+    private int readElementValues(int v, boolean named, @Nullable AnnotationVisitor av) {
+        int count = readUnsignedShort(v);
+        v += 2;
+        for (int i = 0; i < count; i++) {
+            if (named) {
+                v = readElementValue(v + 2, readUTF8(v), av);
+            }
+            else {
+                v = readElementValue(v, null, av);
+            }
+        }
+        if (av != null) {
+            av.visitEnd();
+        }
+        return v;
+    }
+
+    // returns the offset after the element value
+    private int readElementValue(int v, @Nullable String name, @Nullable AnnotationVisitor av) {
+        int tag = b[v] & 0xFF;
+        if (av == null) {
+            switch (tag) {
+                case 'e':
+                    return v + 5;
+                case '@':
+                    return readElementValues(v + 3, true, null);
+                case '[':
+                    return readElementValues(v + 1, false, null);
+                default:
+                    return v + 3;
+            }
+        }
+
+        v++;
+        switch (tag) {
+            case 'D':
+            case 'F':
+            case 'I':
+            case 'J':
+                av.visit(name, readConst(readUnsignedShort(v)));
+                return v + 2;
+            case 'B':
+                av.visit(name, (byte) readInt(items[readUnsignedShort(v)]));
+                return v + 2;
+            case 'Z':
+                av.visit(name, readInt(items[readUnsignedShort(v)]) == 0 ? Boolean.FALSE : Boolean.TRUE);
+                return v + 2;
+            case 'S':
+                av.visit(name, (short) readInt(items[readUnsignedShort(v)]));
+                return v + 2;
+            case 'C':
+                av.visit(name, (char) readInt(items[readUnsignedShort(v)]));
+                return v + 2;
+            case 's':
+                av.visit(name, readUTF8(v));
+                return v + 2;
+            case 'e':
+                av.visitEnum(name, readUTF8(v), readUTF8(v + 2));
+                return v + 4;
+            case 'c':
+                av.visit(name, Type.getType(readUTF8(v)));
+                return v + 2;
+            case '@':
+                return readElementValues(v + 2, true, av.visitAnnotation(name, readUTF8(v)));
+            case '[':
+                return readArrayValue(v, name, av);
+            default:
+                throw new IllegalStateException("Unknown element value tag: " + (char) tag);
+        }
+    }
+
+    // arrays of primitives are reported as a single value, like ClassReader does
+    private int readArrayValue(int v, @Nullable String name, @NotNull AnnotationVisitor av) {
+        int size = readUnsignedShort(v);
+        if (size == 0) {
+            return readElementValues(v, false, av.visitArray(name));
+        }
+
+        // each element is a tag followed by a constant pool index
+        int first = v + 2;
+        switch (b[first] & 0xFF) {
+            case 'B': {
+                byte[] values = new byte[size];
+                for (int i = 0; i < size; i++) values[i] = (byte) readInt(items[readUnsignedShort(first + 3 * i + 1)]);
+                av.visit(name, values);
+                break;
+            }
+            case 'Z': {
+                boolean[] values = new boolean[size];
+                for (int i = 0; i < size; i++) values[i] = readInt(items[readUnsignedShort(first + 3 * i + 1)]) != 0;
+                av.visit(name, values);
+                break;
+            }
+            case 'S': {
+                short[] values = new short[size];
+                for (int i = 0; i < size; i++) values[i] = (short) readInt(items[readUnsignedShort(first + 3 * i + 1)]);
+                av.visit(name, values);
+                break;
+            }
+            case 'C': {
+                char[] values = new char[size];
+                for (int i = 0; i < size; i++) values[i] = (char) readInt(items[readUnsignedShort(first + 3 * i + 1)]);
+                av.visit(name, values);
+                break;
+            }
+            case 'I': {
+                int[] values = new int[size];
+                for (int i = 0; i < size; i++) values[i] = readInt(items[readUnsignedShort(first + 3 * i + 1)]);
+                av.visit(name, values);
+                break;
+            }
+            case 'J': {
+                long[] values = new long[size];
+                for (int i = 0; i < size; i++) values[i] = readLong(items[readUnsignedShort(first + 3 * i + 1)]);
+                av.visit(name, values);
+                break;
+            }
+            case 'F': {
+                float[] values = new float[size];
+                for (int i = 0; i < size; i++) values[i] = Float.intBitsToFloat(readInt(items[readUnsignedShort(first + 3 * i + 1)]));
+                av.visit(name, values);
+                break;
+            }
+            case 'D': {
+                double[] values = new double[size];
+                for (int i = 0; i < size; i++) values[i] = Double.longBitsToDouble(readLong(items[readUnsignedShort(first + 3 * i + 1)]));
+                av.visit(name, values);
+                break;
+            }
+            default:
+                return readElementValues(v, false, av.visitArray(name));
+        }
+        return first + 3 * size;
+    }
+
+    @NotNull
+    private Object readConst(int item) {
+        int index = items[item];
+        switch (b[index - 1]) {
+            case CONSTANT_INTEGER:
+                return readInt(index);
+            case CONSTANT_FLOAT:
+                return Float.intBitsToFloat(readInt(index));
+            case CONSTANT_LONG:
+                return readLong(index);
+            case CONSTANT_DOUBLE:
+                return Double.longBitsToDouble(readLong(index));
+            default:
+                throw new IllegalStateException("Unexpected constant pool entry at " + item);
+        }
+    }
+
+    @Nullable
+    private String readClass(int offset) {
+        int item = readUnsignedShort(offset);
+        return item == 0 ? null : readUTF8(items[item]);
+    }
+
+    @Nullable
+    private String readUTF8(int offset) {
+        int item = readUnsignedShort(offset);
+        if (item == 0) return null;
+
+        String result = strings[item];
+        if (result != null) return result;
+
+        int index = items[item];
+        return strings[item] = decodeUTF8(index + 2, readUnsignedShort(index));
+    }
+
+    // decodes a modified UTF-8 string, see JVMS 4.4.7
+    @NotNull
+    private String decodeUTF8(int index, int length) {
+        int end = index + length;
+        int size = 0;
+        while (index < end) {
+            int c = b[index++];
+            switch ((c >> 4) & 0xF) {
+                case 0xC:
+                case 0xD:
+                    buffer[size++] = (char) (((c & 0x1F) << 6) | (b[index++] & 0x3F));
+                    break;
+                case 0xE:
+                    buffer[size++] = (char) (((c & 0x0F) << 12) | ((b[index++] & 0x3F) << 6) | (b[index++] & 0x3F));
+                    break;
+                default:
+                    buffer[size++] = (char) c;
+                    break;
+            }
+        }
+        return new String(buffer, 0, size);
+    }
+
+    private int readUnsignedShort(int index) {
+        return ((b[index] & 0xFF) << 8) | (b[index + 1] & 0xFF);
+    }
+
+    private int readInt(int index) {
+        return ((b[index] & 0xFF) << 24) | ((b[index + 1] & 0xFF) << 16) | ((b[index + 2] & 0xFF) << 8) | (b[index + 3] & 0xFF);
+    }
+
+    private long readLong(int index) {
+        long high = readInt(index);
+        long low = readInt(index + 4) & 0xFFFFFFFFL;
+        return (high << 32) | low;
+    }
+}
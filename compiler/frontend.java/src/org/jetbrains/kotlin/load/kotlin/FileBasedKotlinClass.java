@@ -89,7 +89,7 @@ public abstract class FileBasedKotlinClass implements KotlinJvmBinaryClass {
         final ReadKotlinClassHeaderAnnotationVisitor readHeaderVisitor = new ReadKotlinClassHeaderAnnotationVisitor();
         final Ref<String> classNameRef = Ref.create();
         final InnerClassesInfo innerClasses = new InnerClassesInfo();
-        new ClassReader(fileContents).accept(new ClassVisitor(ASM5) {
+        ClassFileHeaderReader.accept(fileContents, new ClassVisitor(ASM5) {
             @Override
             public void visit(int version, int access, @NotNull String name, String signature, String superName, String[] interfaces) {
                 classNameRef.set(name);
@@ -109,7 +109,7 @@ public abstract class FileBasedKotlinClass implements KotlinJvmBinaryClass {
             public void visitEnd() {
                 readHeaderVisitor.visitEnd();
             }
-        }, SKIP_CODE | SKIP_DEBUG | SKIP_FRAMES);
+        });
 
         String className = classNameRef.get();
         if (className == null) return null;
@@ -135,7 +135,7 @@ public abstract class FileBasedKotlinClass implements KotlinJvmBinaryClass {
 
     @Override
     public void loadClassAnnotations(@NotNull final AnnotationVisitor annotationVisitor) {
-        new ClassReader(getFileContents()).accept(new ClassVisitor(ASM5) {
+        ClassFileHeaderReader.accept(getFileContents(), new ClassVisitor(ASM5) {
             @Override
             public org.jetbrains.org.objectweb.asm.AnnotationVisitor visitAnnotation(@NotNull String desc, boolean visible) {
                 return convertAnnotationVisitor(annotationVisitor, desc, innerClasses);
@@ -145,7 +145,7 @@ public abstract class FileBasedKotlinClass implements KotlinJvmBinaryClass {
             public void visitEnd() {
                 annotationVisitor.visitEnd();
             }
-        }, SKIP_CODE | SKIP_DEBUG | SKIP_FRAMES);
+        });
     }
 
     @Nullable
@@ -22,52 +22,121 @@ import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.components.ServiceManager
 import com.intellij.openapi.util.Computable
 import com.intellij.openapi.vfs.VirtualFile
+import java.util.*
+import java.util.concurrent.atomic.AtomicLong
 
 class KotlinBinaryClassCache : Disposable {
     private class RequestCache {
         internal var virtualFile: VirtualFile? = null
         internal var modificationStamp: Long = 0
+        internal var metadataVersionCheckSkipped = false
         internal var virtualFileKotlinClass: VirtualFileKotlinClass? = null
 
-        fun cache(file: VirtualFile, aClass: VirtualFileKotlinClass?): VirtualFileKotlinClass? {
+        fun cache(file: VirtualFile, modificationStamp: Long, metadataVersionCheckSkipped: Boolean, aClass: VirtualFileKotlinClass?): VirtualFileKotlinClass? {
             virtualFile = file
             virtualFileKotlinClass = aClass
-            modificationStamp = file.modificationStamp
+            this.modificationStamp = modificationStamp
+            this.metadataVersionCheckSkipped = metadataVersionCheckSkipped
 
             return aClass
         }
     }
 
+    // aClass is null for class files which are not compiled Kotlin classes, such files are looked up as often as Kotlin ones
+    // the header of a class with incompatible metadata has data only if the check is skipped, which is set per compilation
+    private class SharedEntry(val modificationStamp: Long, val metadataVersionCheckSkipped: Boolean, val aClass: VirtualFileKotlinClass?)
+
     private val cache = object : ThreadLocal<RequestCache>() {
         override fun initialValue(): RequestCache {
             return RequestCache()
         }
     }
 
+    // least recently used entries are dropped when the segment is full
+    private class SharedCacheSegment : LinkedHashMap<VirtualFile, SharedEntry>(16, 0.75f, /* accessOrder = */ true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<VirtualFile, SharedEntry>?) = size > MAX_SHARED_ENTRIES / SHARED_CACHE_SEGMENTS
+    }
+
+    // classes recently read by any thread, consulted when the last class read by the current thread doesn't match
+    // split into independently locked segments, so that threads reading different files rarely wait for each other
+    private val sharedCache = Array(SHARED_CACHE_SEGMENTS) { SharedCacheSegment() }
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+
+    // number of lookups that didn't need to read the class file
+    val hitCount: Long
+        get() = hits.get()
+
+    // number of lookups that read the class file
+    val missCount: Long
+        get() = misses.get()
+
+    val sharedCacheSize: Int
+        get() = sharedCache.sumBy { segment -> synchronized(segment) { segment.size } }
+
+    // drops classes shared between threads, e.g. when memory is low; classes last read by each thread are kept
+    fun clearSharedCache() {
+        for (segment in sharedCache) {
+            synchronized(segment) {
+                segment.clear()
+            }
+        }
+    }
+
+    private fun segment(file: VirtualFile): SharedCacheSegment {
+        val hash = file.hashCode()
+        return sharedCache[(hash xor (hash ushr 16)) and (SHARED_CACHE_SEGMENTS - 1)]
+    }
+
+    private fun getOrRead(file: VirtualFile, fileContent: ByteArray?): VirtualFileKotlinClass? {
+        val requestCache = cache.get()
+        val modificationStamp = file.modificationStamp
+        val metadataVersionCheckSkipped = JvmMetadataVersion.skipCheck
+
+        if (modificationStamp == requestCache.modificationStamp && file == requestCache.virtualFile &&
+            metadataVersionCheckSkipped == requestCache.metadataVersionCheckSkipped) {
+            hits.incrementAndGet()
+            return requestCache.virtualFileKotlinClass
+        }
+
+        val segment = segment(file)
+        val shared = synchronized(segment) { segment[file] }
+        if (shared != null && shared.modificationStamp == modificationStamp && shared.metadataVersionCheckSkipped == metadataVersionCheckSkipped) {
+            hits.incrementAndGet()
+            return requestCache.cache(file, modificationStamp, metadataVersionCheckSkipped, shared.aClass)
+        }
+
+        misses.incrementAndGet()
+        // the class is read outside of the lock, in the worst case the same file is read twice by different threads
+        val aClass = ApplicationManager.getApplication().runReadAction(Computable {
+            //noinspection deprecation
+            VirtualFileKotlinClass.create(file, fileContent)
+        })
+
+        synchronized(segment) {
+            segment[file] = SharedEntry(modificationStamp, metadataVersionCheckSkipped, aClass)
+        }
+        return requestCache.cache(file, modificationStamp, metadataVersionCheckSkipped, aClass)
+    }
+
     override fun dispose() {
         // This is only relevant for tests. We create a new instance of Application for each test, and so a new instance of this service is
         // also created for each test. However all tests share the same event dispatch thread, which would collect all instances of this
         // thread-local if they're not removed properly. Each instance would transitively retain VFS resulting in OutOfMemoryError
         cache.remove()
+        clearSharedCache()
     }
 
     companion object {
+        private val MAX_SHARED_ENTRIES = 10000
+        // a power of two
+        private val SHARED_CACHE_SEGMENTS = 16
+
         fun getKotlinBinaryClass(file: VirtualFile, fileContent: ByteArray? = null): KotlinJvmBinaryClass? {
             if (file.fileType !== JavaClassFileType.INSTANCE) return null
 
-            val service = ServiceManager.getService(KotlinBinaryClassCache::class.java)
-            val requestCache = service.cache.get()
-
-            if (file.modificationStamp == requestCache.modificationStamp && file == requestCache.virtualFile) {
-                return requestCache.virtualFileKotlinClass
-            }
-
-            val aClass = ApplicationManager.getApplication().runReadAction(Computable {
-                //noinspection deprecation
-                VirtualFileKotlinClass.create(file, fileContent)
-            })
-
-            return requestCache.cache(file, aClass)
+            return ServiceManager.getService(KotlinBinaryClassCache::class.java).getOrRead(file, fileContent)
         }
     }
 }
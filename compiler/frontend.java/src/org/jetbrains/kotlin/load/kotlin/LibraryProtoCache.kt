@@ -0,0 +1,66 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.load.kotlin
+
+import org.jetbrains.kotlin.serialization.ClassData
+import org.jetbrains.kotlin.serialization.PackageData
+import java.util.*
+
+// Keeps parsed metadata of recently used binary classes for the lifetime of the application, so that compilations in the same process
+// (e.g. subsequent sessions of the compile daemon) don't have to decode and parse library protos again.
+// Entries are keyed by class location and are only reused if they were parsed from the same header data
+class LibraryProtoCache(private val maxEntries: Int = DEFAULT_MAX_ENTRIES) : DeserializedProtoCache {
+    private class Entry(val data: Array<String>, val strings: Array<String>, val parsed: Any)
+
+    private val entries = object : LinkedHashMap<String, Entry>(16, 0.75f, /* accessOrder = */ true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Entry>?) = size > maxEntries
+    }
+
+    override fun getClassData(kotlinClass: KotlinJvmBinaryClass, data: Array<String>, strings: Array<String>, parse: () -> ClassData) =
+            getOrParse(kotlinClass, data, strings, parse)
+
+    override fun getPackageData(kotlinClass: KotlinJvmBinaryClass, data: Array<String>, strings: Array<String>, parse: () -> PackageData) =
+            getOrParse(kotlinClass, data, strings, parse)
+
+    private inline fun <reified T : Any> getOrParse(kotlinClass: KotlinJvmBinaryClass, data: Array<String>, strings: Array<String>, parse: () -> T): T {
+        val location = kotlinClass.location
+        val cached = synchronized(entries) { entries[location] }
+        if (cached != null && cached.parsed is T && Arrays.equals(cached.data, data) && Arrays.equals(cached.strings, strings)) {
+            return cached.parsed
+        }
+
+        // parsing is done outside of the lock, in the worst case the same class is parsed twice by different threads
+        val parsed = parse()
+        synchronized(entries) {
+            entries[location] = Entry(data, strings, parsed)
+        }
+        return parsed
+    }
+
+    val size: Int
+        get() = synchronized(entries) { entries.size }
+
+    fun clear() {
+        synchronized(entries) {
+            entries.clear()
+        }
+    }
+
+    companion object {
+        private val DEFAULT_MAX_ENTRIES = 20000
+    }
+}
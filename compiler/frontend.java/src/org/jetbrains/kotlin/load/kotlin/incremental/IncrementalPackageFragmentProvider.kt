@@ -160,7 +160,7 @@ class IncrementalPackageFragmentProvider(
             return DeserializedPackageMemberScope(
                     this, packageData.packageProto, packageData.nameResolver,
                     JvmPackagePartSource(JvmClassName.byInternalName(internalName)),
-                    deserializationComponents, { listOf() }
+                    deserializationComponents, classNames = { listOf() }
             )
         }
     }
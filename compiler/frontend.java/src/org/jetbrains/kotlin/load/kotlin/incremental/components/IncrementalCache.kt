@@ -33,6 +33,9 @@ interface IncrementalCache {
 
     fun getModuleMappingData(): ByteArray?
 
+    /**
+     * May be called concurrently from several threads when packages are generated in parallel
+     */
     fun registerInline(fromPath: String, jvmSignature: String, toPath: String)
 
     fun getClassFilePath(internalClassName: String): String
@@ -160,8 +160,15 @@ public enum TopDownAnalyzerFacadeForJVM {
 
     @NotNull
     public static MutableModuleContext createContextWithSealedModule(@NotNull Project project, @NotNull String moduleName) {
+        return createContextWithSealedModule(project, moduleName, false);
+    }
+
+    @NotNull
+    public static MutableModuleContext createContextWithSealedModule(
+            @NotNull Project project, @NotNull String moduleName, boolean perValueLocks
+    ) {
         MutableModuleContext context = ContextKt.ContextForNewModule(
-                project, Name.special("<" + moduleName + ">"), JvmPlatform.INSTANCE
+                project, Name.special("<" + moduleName + ">"), JvmPlatform.INSTANCE, perValueLocks
         );
         context.setDependencies(context.getModule(), JvmPlatform.INSTANCE.getBuiltIns().getBuiltInsModule());
         return context;
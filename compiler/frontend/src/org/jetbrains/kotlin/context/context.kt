@@ -28,6 +28,7 @@ import org.jetbrains.kotlin.resolve.TargetPlatform
 import org.jetbrains.kotlin.resolve.createModule
 import org.jetbrains.kotlin.storage.ExceptionTracker
 import org.jetbrains.kotlin.storage.LockBasedStorageManager
+import org.jetbrains.kotlin.storage.PerValueLockStorageManager
 import org.jetbrains.kotlin.storage.StorageManager
 
 interface GlobalContext {
@@ -92,12 +93,19 @@ class MutableModuleContextImpl(
         projectContext: ProjectContext
 ) : MutableModuleContext, ProjectContext by projectContext
 
-fun GlobalContext(): GlobalContextImpl {
+// perValueLocks = true makes lazy values and memoized functions computed without a global lock, see PerValueLockStorageManager
+@JvmOverloads
+fun GlobalContext(perValueLocks: Boolean = false): GlobalContextImpl {
     val tracker = ExceptionTracker()
-    return GlobalContextImpl(LockBasedStorageManager.createWithExceptionHandling(tracker), tracker)
+    val storageManager =
+            if (perValueLocks) PerValueLockStorageManager.createWithExceptionHandling(tracker)
+            else LockBasedStorageManager.createWithExceptionHandling(tracker)
+    return GlobalContextImpl(storageManager, tracker)
 }
 
-fun ProjectContext(project: Project): ProjectContext = ProjectContextImpl(project, GlobalContext())
+@JvmOverloads
+fun ProjectContext(project: Project, perValueLocks: Boolean = false): ProjectContext =
+        ProjectContextImpl(project, GlobalContext(perValueLocks))
 fun ModuleContext(module: ModuleDescriptor, project: Project): ModuleContext =
         ModuleContextImpl(module, ProjectContext(project))
 
@@ -115,12 +123,14 @@ fun ContextForNewModule(
     return MutableModuleContextImpl(module, projectContext)
 }
 
+@JvmOverloads
 fun ContextForNewModule(
         project: Project,
         moduleName: Name,
-        targetPlatform: TargetPlatform
+        targetPlatform: TargetPlatform,
+        perValueLocks: Boolean = false
 ): MutableModuleContext {
-    val projectContext = ProjectContext(project)
+    val projectContext = ProjectContext(project, perValueLocks)
     val module = targetPlatform.createModule(moduleName, projectContext.storageManager)
     return MutableModuleContextImpl(module, projectContext)
 }
@@ -18,16 +18,20 @@ package org.jetbrains.kotlin.resolve;
 
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.psi.PsiElement;
 import com.intellij.util.containers.Queue;
 import kotlin.Unit;
+import kotlin.jvm.functions.Function0;
 import kotlin.jvm.functions.Function1;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
 import org.jetbrains.kotlin.builtins.KotlinBuiltIns;
 import org.jetbrains.kotlin.descriptors.*;
 import org.jetbrains.kotlin.descriptors.impl.SyntheticFieldDescriptor;
 import org.jetbrains.kotlin.diagnostics.Errors;
+import org.jetbrains.kotlin.incremental.components.LookupTracker;
 import org.jetbrains.kotlin.lexer.KtTokens;
 import org.jetbrains.kotlin.psi.*;
 import org.jetbrains.kotlin.psi.psiUtil.PsiUtilsKt;
@@ -40,6 +44,8 @@ import org.jetbrains.kotlin.resolve.calls.util.CallMaker;
 import org.jetbrains.kotlin.resolve.lazy.ForceResolveUtil;
 import org.jetbrains.kotlin.resolve.scopes.*;
 import org.jetbrains.kotlin.resolve.scopes.receivers.ReceiverValue;
+import org.jetbrains.kotlin.storage.LockBasedLazyResolveStorageManager;
+import org.jetbrains.kotlin.storage.StorageManager;
 import org.jetbrains.kotlin.types.*;
 import org.jetbrains.kotlin.types.expressions.ExpressionTypingServices;
 import org.jetbrains.kotlin.types.expressions.PreliminaryDeclarationVisitor;
@@ -48,14 +54,23 @@ import org.jetbrains.kotlin.types.expressions.typeInfoFactory.TypeInfoFactoryKt;
 import org.jetbrains.kotlin.util.Box;
 import org.jetbrains.kotlin.util.ReenteringLazyValueComputationException;
 import org.jetbrains.kotlin.util.slicedMap.WritableSlice;
+import org.jetbrains.kotlin.utils.ExceptionUtilsKt;
+import org.jetbrains.kotlin.utils.NamedDaemonThreadFactory;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import static org.jetbrains.kotlin.diagnostics.Errors.*;
 import static org.jetbrains.kotlin.resolve.BindingContext.*;
 import static org.jetbrains.kotlin.types.TypeUtils.NO_EXPECTED_TYPE;
 
 public class BodyResolver {
+    // Experimental mode: bodies of functions and properties of a module are resolved concurrently, see resolveInParallel
+    private static final boolean PARALLEL_BODY_RESOLVE = "true".equals(System.getProperty("kotlin.internal.parallel_body_resolve"));
+
+    // Overrides the mode for analyses on the current thread, so that tests can compare both modes in one process
+    private static final ThreadLocal<Boolean> parallelBodyResolveOverride = new ThreadLocal<Boolean>();
+
     @NotNull private final AnnotationChecker annotationChecker;
     @NotNull private final ExpressionTypingServices expressionTypingServices;
     @NotNull private final CallResolver callResolver;
@@ -68,6 +83,8 @@ public class BodyResolver {
     @NotNull private final ValueParameterResolver valueParameterResolver;
     @NotNull private final BodyResolveCache bodyResolveCache;
     @NotNull private final KotlinBuiltIns builtIns;
+    @NotNull private final StorageManager storageManager;
+    @NotNull private final LookupTracker lookupTracker;
 
     public BodyResolver(
             @NotNull AnnotationResolver annotationResolver,
@@ -81,7 +98,9 @@ public class BodyResolver {
             @NotNull BindingTrace trace,
             @NotNull ValueParameterResolver valueParameterResolver,
             @NotNull AnnotationChecker annotationChecker,
-            @NotNull KotlinBuiltIns builtIns
+            @NotNull KotlinBuiltIns builtIns,
+            @NotNull StorageManager storageManager,
+            @NotNull LookupTracker lookupTracker
     ) {
         this.annotationResolver = annotationResolver;
         this.bodyResolveCache = bodyResolveCache;
@@ -95,6 +114,8 @@ public class BodyResolver {
         this.trace = new ObservableBindingTrace(trace);
         this.valueParameterResolver = valueParameterResolver;
         this.builtIns = builtIns;
+        this.storageManager = storageManager;
+        this.lookupTracker = lookupTracker;
     }
 
     private void resolveBehaviorDeclarationBodies(@NotNull BodiesResolveContext c) {
@@ -591,6 +612,15 @@ public class BodyResolver {
             @NotNull BodiesResolveContext c,
             @NotNull KtProperty property,
             @NotNull PropertyDescriptor propertyDescriptor
+    ) {
+        resolveProperty(c, trace, property, propertyDescriptor);
+    }
+
+    private void resolveProperty(
+            @NotNull BodiesResolveContext c,
+            @NotNull BindingTrace trace,
+            @NotNull KtProperty property,
+            @NotNull PropertyDescriptor propertyDescriptor
     ) {
         computeDeferredType(propertyDescriptor.getReturnType());
 
@@ -599,19 +629,21 @@ public class BodyResolver {
         LexicalScope propertyHeaderScope = ScopeUtils.makeScopeForPropertyHeader(getScopeForProperty(c, property), propertyDescriptor);
 
         if (initializer != null) {
-            resolvePropertyInitializer(c.getOuterDataFlowInfo(), property, propertyDescriptor, initializer, propertyHeaderScope);
+            resolvePropertyInitializer(c.getOuterDataFlowInfo(), trace, property, propertyDescriptor, initializer, propertyHeaderScope);
         }
 
         KtExpression delegateExpression = property.getDelegateExpression();
         if (delegateExpression != null) {
             assert initializer == null : "Initializer should be null for delegated property : " + property.getText();
-            resolvePropertyDelegate(c.getOuterDataFlowInfo(), property, propertyDescriptor, delegateExpression, propertyHeaderScope);
+            resolvePropertyDelegate(c.getOuterDataFlowInfo(), trace, property, propertyDescriptor, delegateExpression, propertyHeaderScope);
         }
 
-        resolvePropertyAccessors(c, property, propertyDescriptor);
+        resolvePropertyAccessors(c, trace, property, propertyDescriptor);
     }
 
     private void resolvePropertyDeclarationBodies(@NotNull BodiesResolveContext c) {
+        boolean inParallel = canResolveBodiesInParallel(c);
+        List<Function1<BindingTrace, Unit>> resolvers = new ArrayList<Function1<BindingTrace, Unit>>();
 
         // Member properties
         Set<KtProperty> processed = Sets.newHashSet();
@@ -624,7 +656,12 @@ public class BodyResolver {
                 PropertyDescriptor propertyDescriptor = c.getProperties().get(property);
                 assert propertyDescriptor != null;
 
-                resolveProperty(c, property, propertyDescriptor);
+                if (inParallel) {
+                    resolvers.add(propertyResolver(c, property, propertyDescriptor));
+                }
+                else {
+                    resolveProperty(c, property, propertyDescriptor);
+                }
                 processed.add(property);
             }
         }
@@ -636,8 +673,30 @@ public class BodyResolver {
 
             PropertyDescriptor propertyDescriptor = entry.getValue();
 
-            resolveProperty(c, property, propertyDescriptor);
+            if (inParallel) {
+                resolvers.add(propertyResolver(c, property, propertyDescriptor));
+            }
+            else {
+                resolveProperty(c, property, propertyDescriptor);
+            }
         }
+
+        resolveInParallel(resolvers);
+    }
+
+    @NotNull
+    private Function1<BindingTrace, Unit> propertyResolver(
+            @NotNull final BodiesResolveContext c,
+            @NotNull final KtProperty property,
+            @NotNull final PropertyDescriptor propertyDescriptor
+    ) {
+        return new Function1<BindingTrace, Unit>() {
+            @Override
+            public Unit invoke(BindingTrace bodyTrace) {
+                resolveProperty(c, bodyTrace, property, propertyDescriptor);
+                return Unit.INSTANCE;
+            }
+        };
     }
 
     private static LexicalScope makeScopeForPropertyAccessor(
@@ -652,10 +711,11 @@ public class BodyResolver {
 
     private void resolvePropertyAccessors(
             @NotNull BodiesResolveContext c,
+            @NotNull BindingTrace trace,
             @NotNull KtProperty property,
             @NotNull PropertyDescriptor propertyDescriptor
     ) {
-        ObservableBindingTrace fieldAccessTrackingTrace = createFieldTrackingTrace(propertyDescriptor);
+        ObservableBindingTrace fieldAccessTrackingTrace = createFieldTrackingTrace(trace, propertyDescriptor);
 
         KtPropertyAccessor getter = property.getGetter();
         PropertyGetterDescriptor getterDescriptor = propertyDescriptor.getGetter();
@@ -674,7 +734,7 @@ public class BodyResolver {
         }
     }
 
-    private ObservableBindingTrace createFieldTrackingTrace(final PropertyDescriptor propertyDescriptor) {
+    private static ObservableBindingTrace createFieldTrackingTrace(final BindingTrace trace, final PropertyDescriptor propertyDescriptor) {
         return new ObservableBindingTrace(trace).addHandler(
                 BindingContext.REFERENCE_TARGET,
                 new ObservableBindingTrace.RecordHandler<KtReferenceExpression, DeclarationDescriptor>() {
@@ -695,6 +755,7 @@ public class BodyResolver {
 
     private void resolvePropertyDelegate(
             @NotNull DataFlowInfo outerDataFlowInfo,
+            @NotNull BindingTrace trace,
             @NotNull KtProperty property,
             @NotNull PropertyDescriptor propertyDescriptor,
             @NotNull KtExpression delegateExpression,
@@ -732,6 +793,7 @@ public class BodyResolver {
 
     private void resolvePropertyInitializer(
             @NotNull DataFlowInfo outerDataFlowInfo,
+            @NotNull BindingTrace trace,
             @NotNull KtProperty property,
             @NotNull PropertyDescriptor propertyDescriptor,
             @NotNull KtExpression initializer,
@@ -752,21 +814,111 @@ public class BodyResolver {
         return scope;
     }
 
-    private void resolveFunctionBodies(@NotNull BodiesResolveContext c) {
+    private void resolveFunctionBodies(@NotNull final BodiesResolveContext c) {
+        boolean inParallel = canResolveBodiesInParallel(c);
+        List<Function1<BindingTrace, Unit>> resolvers = new ArrayList<Function1<BindingTrace, Unit>>();
+
         for (Map.Entry<KtNamedFunction, SimpleFunctionDescriptor> entry : c.getFunctions().entrySet()) {
-            KtNamedFunction declaration = entry.getKey();
+            final KtNamedFunction declaration = entry.getKey();
+            final SimpleFunctionDescriptor descriptor = entry.getValue();
 
-            LexicalScope scope = c.getDeclaringScope(declaration);
+            final LexicalScope scope = c.getDeclaringScope(declaration);
             assert scope != null : "Scope is null: " + PsiUtilsKt.getElementTextWithContext(declaration);
 
-            if (!c.getTopDownAnalysisMode().isLocalDeclarations() && !(bodyResolveCache instanceof BodyResolveCache.ThrowException) &&
-                expressionTypingServices.getStatementFilter() != StatementFilter.NONE) {
+            if (useBodyResolveCache(c)) {
                 bodyResolveCache.resolveFunctionBody(declaration).addOwnDataTo(trace, true);
             }
+            else if (inParallel) {
+                resolvers.add(new Function1<BindingTrace, Unit>() {
+                    @Override
+                    public Unit invoke(BindingTrace bodyTrace) {
+                        resolveFunctionBody(c.getOuterDataFlowInfo(), bodyTrace, declaration, descriptor, scope);
+                        return Unit.INSTANCE;
+                    }
+                });
+            }
             else {
-                resolveFunctionBody(c.getOuterDataFlowInfo(), trace, declaration, entry.getValue(), scope);
+                resolveFunctionBody(c.getOuterDataFlowInfo(), trace, declaration, descriptor, scope);
+            }
+        }
+
+        resolveInParallel(resolvers);
+    }
+
+    private boolean useBodyResolveCache(@NotNull BodiesResolveContext c) {
+        return !c.getTopDownAnalysisMode().isLocalDeclarations() && !(bodyResolveCache instanceof BodyResolveCache.ThrowException) &&
+               expressionTypingServices.getStatementFilter() != StatementFilter.NONE;
+    }
+
+    private boolean canResolveBodiesInParallel(@NotNull BodiesResolveContext c) {
+        Boolean override = parallelBodyResolveOverride.get();
+        if (!(override != null ? override : PARALLEL_BODY_RESOLVE)) return false;
+
+        // lookups are recorded by the workers directly and trackers of incremental compilation aren't thread-safe
+        if (lookupTracker != LookupTracker.Companion.getDO_NOTHING()) return false;
+
+        // local declarations are resolved as a part of the containing body
+        return !c.getTopDownAnalysisMode().isLocalDeclarations() && !useBodyResolveCache(c);
+    }
+
+    @TestOnly
+    public static <T> T runWithParallelBodyResolve(boolean enabled, @NotNull Function0<T> block) {
+        Boolean oldValue = parallelBodyResolveOverride.get();
+        parallelBodyResolveOverride.set(enabled);
+        try {
+            return block.invoke();
+        }
+        finally {
+            parallelBodyResolveOverride.set(oldValue);
+        }
+    }
+
+    // Bodies are resolved concurrently, each into its own trace, which is then moved to the main trace on the calling thread
+    // in the order of the resolvers, so the contents of the main trace don't depend on scheduling.
+    // Lazy descriptors record their data to the main trace under the lock of the storage manager,
+    // so while the workers are running it is read under the same lock
+    private void resolveInParallel(@NotNull List<Function1<BindingTrace, Unit>> resolvers) {
+        if (resolvers.isEmpty()) return;
+
+        BindingContext parentContext = new LockBasedLazyResolveStorageManager(storageManager).createSafeTrace(trace).getBindingContext();
+
+        int threadCount = Math.min(Runtime.getRuntime().availableProcessors(), resolvers.size());
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount, new NamedDaemonThreadFactory("Kotlin body resolve worker"));
+
+        List<DelegatingBindingTrace> bodyTraces = new ArrayList<DelegatingBindingTrace>(resolvers.size());
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>(resolvers.size());
+            for (final Function1<BindingTrace, Unit> resolver : resolvers) {
+                final DelegatingBindingTrace bodyTrace = new DelegatingBindingTrace(parentContext, "Body resolved in parallel");
+                bodyTraces.add(bodyTrace);
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        resolver.invoke(bodyTrace);
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                }
+                catch (ExecutionException e) {
+                    throw ExceptionUtilsKt.rethrow(e.getCause());
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ProcessCanceledException();
+                }
             }
         }
+        finally {
+            executor.shutdownNow();
+        }
+
+        for (DelegatingBindingTrace bodyTrace : bodyTraces) {
+            bodyTrace.moveAllMyDataTo(trace);
+        }
     }
 
     public void resolveFunctionBody(
@@ -37,7 +37,7 @@ import java.util.Map;
 
 public class DelegatingBindingTrace implements BindingTrace {
     @SuppressWarnings("ConstantConditions")
-    private final MutableSlicedMap map = BindingTraceContext.TRACK_REWRITES ? new TrackingSlicedMap(BindingTraceContext.TRACK_WITH_STACK_TRACES) : SlicedMapImpl.create();
+    private final MutableSlicedMap map = BindingTraceContext.TRACK_REWRITES ? new TrackingSlicedMap(BindingTraceContext.TRACK_WITH_STACK_TRACES) : CompactSlicedMap.create();
 
     private final BindingContext parentContext;
     private final String name;
@@ -167,10 +167,31 @@ public class DelegatingBindingTrace implements BindingTrace {
     }
 
     public void moveAllMyDataTo(@NotNull BindingTrace trace) {
-        addOwnDataTo(trace, null, true);
+        if (canMoveMapTo(trace)) {
+            // recording the entries one by one would put them to the target map with the same result
+            ((CompactSlicedMap) map).moveAllTo((CompactSlicedMap) ((DelegatingBindingTrace) trace).map);
+            for (Diagnostic diagnostic : mutableDiagnostics.getOwnDiagnostics()) {
+                trace.report(diagnostic);
+            }
+        }
+        else {
+            addOwnDataTo(trace, null, true);
+        }
         clear();
     }
 
+    private boolean canMoveMapTo(@NotNull BindingTrace trace) {
+        // subclasses may intercept record()
+        Class<?> traceClass = trace.getClass();
+        if (traceClass != DelegatingBindingTrace.class &&
+            traceClass != TemporaryBindingTrace.class &&
+            traceClass != ChainedTemporaryBindingTrace.class) {
+            return false;
+        }
+
+        return trace != this && map instanceof CompactSlicedMap && ((DelegatingBindingTrace) trace).map instanceof CompactSlicedMap;
+    }
+
     public void addOwnDataTo(@NotNull BindingTrace trace, @Nullable TraceEntryFilter filter, boolean commitDiagnostics) {
         BindingContextUtils.addOwnDataTo(trace, filter, commitDiagnostics, map, mutableDiagnostics);
     }
@@ -0,0 +1,589 @@
+/*
+ * Copyright 2010-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.util.slicedMap;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Multimap;
+import gnu.trove.THashMap;
+import kotlin.jvm.functions.Function3;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Same as {@link SlicedMapImpl}, but values of each slice are stored in a separate open addressing table
+ * of parallel key and value arrays. No objects are allocated per key, which makes a difference for binding contexts
+ * of large modules with millions of recorded keys.
+ *
+ * Contents of another map can be moved to this one without copying most of the data, see {@link #moveAllTo}.
+ * Moved contents are kept as separate layers, a get probes the table of each layer until the value is found, at most three.
+ */
+public class CompactSlicedMap implements MutableSlicedMap {
+
+    // Moved contents are kept as separate layers until there are too many of them, then adjacent layers are merged.
+    // Each layer costs a table probe for a get of a key missing in the newer layers, so the limit is kept low
+    private static final int MAX_LAYERS = 3;
+
+    // Value removed in a newer layer, which shadows a value in an older one
+    private static final Object REMOVED = new Object();
+
+    public static CompactSlicedMap create() {
+        return new CompactSlicedMap();
+    }
+
+    // Puts always go to the newest layer, gets look through the layers from the newest to the oldest one
+    private Layer top = null;
+    // Oldest first, null if there is only one layer
+    private List<Layer> lowerLayers = null;
+
+    @Override
+    public <K, V> void put(WritableSlice<K, V> slice, K key, V value) {
+        if (!slice.check(key, value)) {
+            return;
+        }
+
+        KeyWithSlice<K, V, WritableSlice<K, V>> sliceKey = slice.getKey();
+
+        RewritePolicy rewritePolicy = slice.getRewritePolicy();
+        if (rewritePolicy.rewriteProcessingNeeded(key)) {
+            //noinspection unchecked
+            V oldValue = (V) getValue(sliceKey, key);
+            if (oldValue != null) {
+                //noinspection unchecked
+                if (!rewritePolicy.processRewrite(slice, key, oldValue, value)) {
+                    return;
+                }
+            }
+        }
+
+        if (top == null) {
+            top = new Layer();
+        }
+
+        if (slice.isCollective()) {
+            top.addCollectiveKey(slice, key);
+        }
+
+        // as with user data, null value means no value
+        if (value != null) {
+            top.getTable(sliceKey, true).put(key, value);
+        }
+        else if (lowerLayers != null) {
+            top.getTable(sliceKey, true).put(key, REMOVED);
+        }
+        else {
+            SliceTable table = top.getTable(sliceKey, false);
+            if (table != null) {
+                table.remove(key);
+            }
+        }
+        slice.afterPut(this, key, value);
+    }
+
+    @Override
+    public void clear() {
+        top = null;
+        lowerLayers = null;
+    }
+
+    @Override
+    public <K, V> V get(ReadOnlySlice<K, V> slice, K key) {
+        //noinspection unchecked
+        V value = (V) getValue(slice.getKey(), key);
+
+        return slice.computeValue(this, key, value, value == null);
+    }
+
+    @Nullable
+    private Object getValue(@NotNull KeyWithSlice<?, ?, ?> sliceKey, @Nullable Object key) {
+        if (top == null) return null;
+
+        Object value = top.get(sliceKey, key);
+        if (value == null && lowerLayers != null) {
+            for (int i = lowerLayers.size() - 1; i >= 0 && value == null; i--) {
+                value = lowerLayers.get(i).get(sliceKey, key);
+            }
+        }
+        return value == REMOVED ? null : value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <K, V> Collection<K> getKeys(WritableSlice<K, V> slice) {
+        assert slice.isCollective() : "Keys are not collected for slice " + slice;
+
+        if (top == null) return Collections.emptyList();
+        if (lowerLayers == null) return (Collection<K>) top.getCollectiveKeys(slice);
+
+        List<K> result = new ArrayList<K>();
+        for (Layer layer : lowerLayers) {
+            result.addAll((Collection<K>) layer.getCollectiveKeys(slice));
+        }
+        result.addAll((Collection<K>) top.getCollectiveKeys(slice));
+        return result;
+    }
+
+    @Override
+    public void forEach(@NotNull Function3<WritableSlice, Object, Object, Void> f) {
+        List<Layer> layers = getLayersNewestFirst();
+
+        for (int layerIndex = 0; layerIndex < layers.size(); layerIndex++) {
+            Layer layer = layers.get(layerIndex);
+            if (layer.tables == null) continue;
+
+            for (Map.Entry<KeyWithSlice<?, ?, ?>, SliceTable> entry : layer.tables.entrySet()) {
+                KeyWithSlice<?, ?, ?> sliceKey = entry.getKey();
+                WritableSlice<?, ?> slice = (WritableSlice<?, ?>) sliceKey.getSlice();
+                SliceTable table = entry.getValue();
+
+                for (int i = 0; i < table.keys.length; i++) {
+                    Object key = table.keys[i];
+                    Object value = table.values[i];
+                    if (key == null || value == REMOVED) continue;
+
+                    key = SliceTable.unmaskNull(key);
+                    if (isShadowed(layers, layerIndex, sliceKey, key)) continue;
+
+                    f.invoke(slice, key, value);
+                }
+            }
+        }
+    }
+
+    @NotNull
+    @Override
+    @SuppressWarnings("unchecked")
+    public <K, V> ImmutableMap<K, V> getSliceContents(@NotNull ReadOnlySlice<K, V> slice) {
+        ImmutableMap.Builder<K, V> builder = ImmutableMap.builder();
+
+        KeyWithSlice<K, V, ? extends ReadOnlySlice<K, V>> sliceKey = slice.getKey();
+        List<Layer> layers = getLayersNewestFirst();
+
+        for (int layerIndex = 0; layerIndex < layers.size(); layerIndex++) {
+            SliceTable table = layers.get(layerIndex).getTable(sliceKey, false);
+            if (table == null) continue;
+
+            for (int i = 0; i < table.keys.length; i++) {
+                Object key = table.keys[i];
+                Object value = table.values[i];
+                if (key == null || value == REMOVED) continue;
+
+                key = SliceTable.unmaskNull(key);
+                if (isShadowed(layers, layerIndex, sliceKey, key)) continue;
+
+                builder.put((K) key, (V) value);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Moves all the contents of this map to the target map, as if they were put there, and clears this map.
+     * A move to an empty map takes constant time. Otherwise keys of slices whose rewrite policy may need processing
+     * and keys removed from this map are looked up in the target, the same way as put() does. Contents which are smaller
+     * than the newest layer of the target are copied to it, larger ones become a new layer, and if the target gets
+     * too many layers, the smallest adjacent ones are merged by copying. So moving small maps costs about as much as copying.
+     * Slices are not notified about the moved values, they have already been checked when put to this map.
+     */
+    public void moveAllTo(@NotNull CompactSlicedMap target) {
+        assert target != this : "Can't move the map to itself";
+
+        if (top == null) return;
+
+        if (target.top == null) {
+            target.top = top;
+            target.lowerLayers = lowerLayers;
+        }
+        else {
+            List<KeptValue> keptValues = processRewritesOnMove(target);
+
+            if (lowerLayers == null && top.size() <= target.top.size()) {
+                // a separate layer would only slow down gets, and would soon be merged anyway
+                target.top = Layer.merge(target.top, top);
+            }
+            else {
+                if (target.lowerLayers == null) {
+                    target.lowerLayers = new ArrayList<Layer>(MAX_LAYERS);
+                }
+                target.lowerLayers.add(target.top);
+                if (lowerLayers != null) {
+                    target.lowerLayers.addAll(lowerLayers);
+                }
+                target.top = top;
+            }
+
+            for (KeptValue kept : keptValues) {
+                target.top.getTable(kept.sliceKey, true).put(kept.key, kept.value);
+            }
+
+            if (target.lowerLayers != null) {
+                target.mergeExcessLayers();
+            }
+        }
+
+        clear();
+    }
+
+    // Returns the values of the target which must not be shadowed by the moved ones: the ones the rewrite policy
+    // refused to rewrite, and the ones removed in this map, because removals are not recorded when the data is copied.
+    // Only tables of slices which may process rewrites, or which have removed values, are walked
+    @NotNull
+    @SuppressWarnings("unchecked")
+    private List<KeptValue> processRewritesOnMove(@NotNull CompactSlicedMap target) {
+        List<KeptValue> result = new ArrayList<KeptValue>();
+        List<Layer> layers = getLayersNewestFirst();
+
+        for (int layerIndex = 0; layerIndex < layers.size(); layerIndex++) {
+            Layer layer = layers.get(layerIndex);
+            if (layer.tables == null) continue;
+
+            for (Map.Entry<KeyWithSlice<?, ?, ?>, SliceTable> entry : layer.tables.entrySet()) {
+                KeyWithSlice<?, ?, ?> sliceKey = entry.getKey();
+                WritableSlice slice = (WritableSlice) sliceKey.getSlice();
+                SliceTable table = entry.getValue();
+
+                RewritePolicy rewritePolicy = slice.getRewritePolicy();
+                if (rewritePolicy == RewritePolicy.DO_NOTHING && !table.hasRemovedValues) continue;
+                if (!target.hasTable(sliceKey)) continue;
+
+                for (int i = 0; i < table.keys.length; i++) {
+                    Object key = table.keys[i];
+                    if (key == null) continue;
+
+                    key = SliceTable.unmaskNull(key);
+                    Object value = table.values[i];
+                    if (value != REMOVED && !rewritePolicy.rewriteProcessingNeeded(key)) continue;
+
+                    Object oldValue = target.getValue(sliceKey, key);
+                    if (oldValue == null || isShadowed(layers, layerIndex, sliceKey, key)) continue;
+
+                    if (value == REMOVED) {
+                        result.add(new KeptValue(sliceKey, key, oldValue));
+                        continue;
+                    }
+
+                    if (!rewritePolicy.processRewrite(slice, key, oldValue, value)) {
+                        result.add(new KeptValue(sliceKey, key, oldValue));
+                        layer.removeCollectiveKey(slice, key);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private void mergeExcessLayers() {
+        assert lowerLayers != null : "There are no layers to merge";
+
+        while (lowerLayers.size() + 1 > MAX_LAYERS) {
+            // merge the adjacent pair with the smallest newer layer, merging takes time proportional to the smaller one
+            int newer = lowerLayers.size();
+            int bestNewer = newer;
+            int bestSize = top.size();
+            for (newer--; newer >= 1; newer--) {
+                int size = lowerLayers.get(newer).size();
+                if (size < bestSize) {
+                    bestNewer = newer;
+                    bestSize = size;
+                }
+            }
+
+            Layer newerLayer = bestNewer == lowerLayers.size() ? top : lowerLayers.get(bestNewer);
+            Layer merged = Layer.merge(lowerLayers.get(bestNewer - 1), newerLayer);
+
+            if (bestNewer == lowerLayers.size()) {
+                top = merged;
+                lowerLayers.remove(bestNewer - 1);
+            }
+            else {
+                lowerLayers.set(bestNewer - 1, merged);
+                lowerLayers.remove(bestNewer);
+            }
+        }
+
+        if (lowerLayers.isEmpty()) {
+            lowerLayers = null;
+        }
+    }
+
+    private boolean hasTable(@NotNull KeyWithSlice<?, ?, ?> sliceKey) {
+        if (top == null) return false;
+        if (top.getTable(sliceKey, false) != null) return true;
+        if (lowerLayers != null) {
+            for (Layer layer : lowerLayers) {
+                if (layer.getTable(sliceKey, false) != null) return true;
+            }
+        }
+        return false;
+    }
+
+    @NotNull
+    private List<Layer> getLayersNewestFirst() {
+        if (top == null) return Collections.emptyList();
+        if (lowerLayers == null) return Collections.singletonList(top);
+
+        List<Layer> layers = new ArrayList<Layer>(lowerLayers.size() + 1);
+        layers.add(top);
+        for (int i = lowerLayers.size() - 1; i >= 0; i--) {
+            layers.add(lowerLayers.get(i));
+        }
+        return layers;
+    }
+
+    private static boolean isShadowed(
+            @NotNull List<Layer> layersNewestFirst, int layerIndex,
+            @NotNull KeyWithSlice<?, ?, ?> sliceKey, @Nullable Object key
+    ) {
+        for (int i = 0; i < layerIndex; i++) {
+            if (layersNewestFirst.get(i).get(sliceKey, key) != null) return true;
+        }
+        return false;
+    }
+
+    private static class Layer {
+        // Slices sharing a key (see DelegatingSlice) share the table
+        private Map<KeyWithSlice<?, ?, ?>, SliceTable> tables = null;
+        private Multimap<WritableSlice<?, ?>, Object> collectiveSliceKeys = null;
+
+        @Nullable
+        Object get(@NotNull KeyWithSlice<?, ?, ?> sliceKey, @Nullable Object key) {
+            SliceTable table = getTable(sliceKey, false);
+            return table == null ? null : table.get(key);
+        }
+
+        @Contract("_, true -> !null")
+        @Nullable
+        SliceTable getTable(@NotNull KeyWithSlice<?, ?, ?> sliceKey, boolean create) {
+            if (tables == null) {
+                if (!create) return null;
+                tables = new THashMap<KeyWithSlice<?, ?, ?>, SliceTable>();
+            }
+
+            SliceTable table = tables.get(sliceKey);
+            if (table == null && create) {
+                table = new SliceTable();
+                tables.put(sliceKey, table);
+            }
+            return table;
+        }
+
+        void addCollectiveKey(@NotNull WritableSlice<?, ?> slice, @Nullable Object key) {
+            if (collectiveSliceKeys == null) {
+                collectiveSliceKeys = ArrayListMultimap.create();
+            }
+
+            collectiveSliceKeys.put(slice, key);
+        }
+
+        void removeCollectiveKey(@NotNull WritableSlice<?, ?> slice, @Nullable Object key) {
+            if (collectiveSliceKeys != null) {
+                collectiveSliceKeys.remove(slice, key);
+            }
+        }
+
+        @NotNull
+        Collection<Object> getCollectiveKeys(@NotNull WritableSlice<?, ?> slice) {
+            if (collectiveSliceKeys == null) return Collections.emptyList();
+            return collectiveSliceKeys.get(slice);
+        }
+
+        int size() {
+            if (tables == null) return 0;
+
+            int size = 0;
+            for (SliceTable table : tables.values()) {
+                size += table.size;
+            }
+            return size;
+        }
+
+        // Values of the newer layer win, rewrites have been processed when they were put or moved.
+        // The smaller layer is copied into the larger one
+        @NotNull
+        static Layer merge(@NotNull Layer older, @NotNull Layer newer) {
+            boolean intoOlder = older.size() >= newer.size();
+            Layer source = intoOlder ? newer : older;
+            Layer target = intoOlder ? older : newer;
+
+            if (source.tables != null) {
+                for (Map.Entry<KeyWithSlice<?, ?, ?>, SliceTable> entry : source.tables.entrySet()) {
+                    KeyWithSlice<?, ?, ?> sliceKey = entry.getKey();
+                    SliceTable sourceTable = entry.getValue();
+                    SliceTable targetTable = target.getTable(sliceKey, true);
+
+                    for (int i = 0; i < sourceTable.keys.length; i++) {
+                        Object key = sourceTable.keys[i];
+                        if (key == null) continue;
+                        key = SliceTable.unmaskNull(key);
+
+                        Object olderValue = intoOlder ? targetTable.get(key) : sourceTable.values[i];
+                        Object newerValue = intoOlder ? sourceTable.values[i] : targetTable.get(key);
+
+                        targetTable.put(key, newerValue != null ? newerValue : olderValue);
+                    }
+                }
+            }
+
+            // keys of the older layer go first
+            if (newer.collectiveSliceKeys == null) {
+                target.collectiveSliceKeys = older.collectiveSliceKeys;
+            }
+            else if (older.collectiveSliceKeys == null) {
+                target.collectiveSliceKeys = newer.collectiveSliceKeys;
+            }
+            else if (intoOlder) {
+                older.collectiveSliceKeys.putAll(newer.collectiveSliceKeys);
+            }
+            else {
+                Multimap<WritableSlice<?, ?>, Object> collectiveSliceKeys = ArrayListMultimap.create(older.collectiveSliceKeys);
+                collectiveSliceKeys.putAll(newer.collectiveSliceKeys);
+                target.collectiveSliceKeys = collectiveSliceKeys;
+            }
+
+            return target;
+        }
+    }
+
+    private static class KeptValue {
+        private final KeyWithSlice<?, ?, ?> sliceKey;
+        private final Object key;
+        private final Object value;
+
+        KeptValue(@NotNull KeyWithSlice<?, ?, ?> sliceKey, @Nullable Object key, @NotNull Object value) {
+            this.sliceKey = sliceKey;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    // Open addressing with linear probing, removal shifts the following entries back, so no tombstones are needed
+    private static class SliceTable {
+        private static final Object NULL_KEY = new Object();
+        private static final int INITIAL_CAPACITY = 4;
+
+        private Object[] keys = new Object[INITIAL_CAPACITY];
+        private Object[] values = new Object[INITIAL_CAPACITY];
+        private int size = 0;
+        // Set once a REMOVED value is put, such values need to be checked when the table is moved to another map
+        private boolean hasRemovedValues = false;
+
+        @Nullable
+        Object get(@Nullable Object key) {
+            Object maskedKey = maskNull(key);
+            int mask = keys.length - 1;
+            for (int i = hash(maskedKey) & mask; ; i = (i + 1) & mask) {
+                Object k = keys[i];
+                if (k == null) return null;
+                if (k == maskedKey || k.equals(maskedKey)) return values[i];
+            }
+        }
+
+        void put(@Nullable Object key, @NotNull Object value) {
+            if (value == REMOVED) {
+                hasRemovedValues = true;
+            }
+
+            Object maskedKey = maskNull(key);
+            int mask = keys.length - 1;
+            int i = hash(maskedKey) & mask;
+            for (; keys[i] != null; i = (i + 1) & mask) {
+                Object k = keys[i];
+                if (k == maskedKey || k.equals(maskedKey)) {
+                    values[i] = value;
+                    return;
+                }
+            }
+
+            keys[i] = maskedKey;
+            values[i] = value;
+
+            // keep the load factor under 2/3
+            if (3 * ++size > 2 * keys.length) {
+                rehash(keys.length * 2);
+            }
+        }
+
+        void remove(@Nullable Object key) {
+            Object maskedKey = maskNull(key);
+            int mask = keys.length - 1;
+            int i = hash(maskedKey) & mask;
+            while (true) {
+                Object k = keys[i];
+                if (k == null) return;
+                if (k == maskedKey || k.equals(maskedKey)) break;
+                i = (i + 1) & mask;
+            }
+
+            keys[i] = null;
+            values[i] = null;
+            size--;
+
+            // move back the entries which can't be found anymore because of the hole
+            int hole = i;
+            for (int j = (i + 1) & mask; keys[j] != null; j = (j + 1) & mask) {
+                int home = hash(keys[j]) & mask;
+                boolean reachableFromHome = hole <= j ? (home <= hole || home > j) : (home <= hole && home > j);
+                if (reachableFromHome) {
+                    keys[hole] = keys[j];
+                    values[hole] = values[j];
+                    keys[j] = null;
+                    values[j] = null;
+                    hole = j;
+                }
+            }
+        }
+
+        private void rehash(int capacity) {
+            Object[] oldKeys = keys;
+            Object[] oldValues = values;
+            keys = new Object[capacity];
+            values = new Object[capacity];
+
+            int mask = capacity - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                Object key = oldKeys[j];
+                if (key == null) continue;
+
+                int i = hash(key) & mask;
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+                values[i] = oldValues[j];
+            }
+        }
+
+        private static int hash(@NotNull Object key) {
+            // PSI elements and descriptors use identity hash codes, spread them over the low bits used for indexing
+            int h = key.hashCode() * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        @NotNull
+        private static Object maskNull(@Nullable Object key) {
+            return key == null ? NULL_KEY : key;
+        }
+
+        @Nullable
+        static Object unmaskNull(@NotNull Object key) {
+            return key == NULL_KEY ? null : key;
+        }
+    }
+}
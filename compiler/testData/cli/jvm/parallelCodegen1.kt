@@ -0,0 +1,6 @@
+package a
+
+inline fun twice(f: () -> Int): Int = f() + f()
+
+fun getA(): Int = 1
+val a: Int = 1
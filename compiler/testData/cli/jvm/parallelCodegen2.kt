@@ -0,0 +1,8 @@
+package b
+
+import a.twice
+
+fun test() = twice { 21 }
+
+fun getB(): Int = 1
+val b: Int = 1
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2010-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.cli.common.output
+
+import com.intellij.openapi.util.io.FileUtil
+import org.jetbrains.kotlin.cli.common.messages.CompilerMessageLocation
+import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity
+import org.jetbrains.kotlin.cli.common.messages.MessageCollector
+import org.jetbrains.kotlin.cli.common.output.outputUtils.writeAll
+import org.jetbrains.kotlin.cli.common.output.outputUtils.writeAllInParallel
+import org.jetbrains.kotlin.cli.jvm.compiler.EnvironmentConfigFiles
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.cli.jvm.config.JVMConfigurationKeys
+import org.jetbrains.kotlin.codegen.CodegenTestCase
+import org.jetbrains.kotlin.test.ConfigurationKind
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.TestJdkKind
+import java.io.File
+import java.util.*
+
+class ParallelOutputWriteTest : CodegenTestCase() {
+    override fun setUp() {
+        super.setUp()
+        val configuration = KotlinTestUtils.compilerConfigurationForTests(
+                ConfigurationKind.ALL, TestJdkKind.MOCK_JDK, KotlinTestUtils.getAnnotationsJar())
+        configuration.put(JVMConfigurationKeys.PARALLEL_CODEGEN, true)
+        myEnvironment = KotlinCoreEnvironment.createForTests(testRootDisposable, configuration, EnvironmentConfigFiles.JVM_CONFIG_FILES)
+    }
+
+    private class OutputMessages(private val outputDir: File) : MessageCollector {
+        val messages = ArrayList<String>()
+
+        override fun report(severity: CompilerMessageSeverity, message: String, location: CompilerMessageLocation) {
+            assertEquals(CompilerMessageSeverity.OUTPUT, severity)
+            messages.add(message.replace(outputDir.path, "\$OUTPUT\$"))
+        }
+    }
+
+    fun testSameAsSequentialWrite() {
+        loadText((1..20).joinToString("\n") { "class C$it { companion object { val f = { $it } } }" })
+        val outputFiles = generateClassesInFile()
+        assertTrue(outputFiles.asList().size > 20)
+
+        val tmpDir = KotlinTestUtils.tmpDir(getTestName(true))
+        val sequentialDir = File(tmpDir, "sequential")
+        val parallelDir = File(tmpDir, "parallel")
+
+        val sequentialMessages = OutputMessages(sequentialDir)
+        outputFiles.writeAll(sequentialDir, sequentialMessages)
+        val parallelMessages = OutputMessages(parallelDir)
+        outputFiles.writeAllInParallel(parallelDir, parallelMessages)
+
+        assertEquals(sequentialMessages.messages, parallelMessages.messages)
+
+        val sequentialFiles = relativePaths(sequentialDir)
+        assertEquals(outputFiles.asList().map { it.relativePath }.sorted(), sequentialFiles)
+        assertEquals(sequentialFiles, relativePaths(parallelDir))
+        for (path in sequentialFiles) {
+            assertTrue(path, Arrays.equals(File(sequentialDir, path).readBytes(), File(parallelDir, path).readBytes()))
+        }
+    }
+
+    private fun relativePaths(dir: File): List<String> =
+            dir.walkTopDown().filter { it.isFile }.map { FileUtil.toSystemIndependentName(it.toRelativeString(dir)) }.toList().sorted()
+}
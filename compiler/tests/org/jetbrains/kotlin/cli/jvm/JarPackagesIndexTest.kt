@@ -0,0 +1,127 @@
+/*
+ * Copyright 2010-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.cli.jvm
+
+import com.intellij.openapi.vfs.impl.jar.CoreJarFileSystem
+import com.intellij.util.io.URLUtil
+import junit.framework.TestCase
+import org.jetbrains.kotlin.cli.jvm.compiler.JarPackagesIndex
+import org.jetbrains.kotlin.cli.jvm.compiler.JavaRoot
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import java.io.File
+import java.io.FileOutputStream
+import java.util.jar.JarOutputStream
+import java.util.zip.ZipEntry
+
+class JarPackagesIndexTest : TestCase() {
+    private lateinit var tmpDir: File
+    private lateinit var jar: File
+
+    override fun setUp() {
+        super.setUp()
+        tmpDir = KotlinTestUtils.tmpDir(name)
+        jar = File(tmpDir, "lib.jar")
+    }
+
+    fun testSavedIndexIsLoaded() {
+        writeJar("p/q/A.class")
+        val storage = File(tmpDir, "packages.index")
+        assertEquals(setOf("p", "p/q"), packages(JarPackagesIndex.getInstance(storage)))
+        assertTrue(storage.isFile)
+        assertEquals(listOf(storage.name), tmpDir.list().filter { it != jar.name })
+
+        // same length and timestamp, so the jar is considered unchanged and the saved packages are used
+        writeJar("p/r/A.class")
+        val copy = File(tmpDir, "copy.index")
+        storage.copyTo(copy)
+        assertEquals(setOf("p", "p/q"), packages(JarPackagesIndex.getInstance(copy)))
+    }
+
+    fun testChangedJarIsReindexed() {
+        writeJar("p/q/A.class")
+        val index = JarPackagesIndex.getInstance(File(tmpDir, "packages.index"))
+        assertEquals(setOf("p", "p/q"), packages(index))
+
+        writeJar("p/r/A.class")
+        assertEquals(setOf("p", "p/q"), packages(index))
+
+        jar.setLastModified(JAR_TIMESTAMP + 2000)
+        assertEquals(setOf("p", "p/r"), packages(index))
+
+        // the updated entry is persisted as well
+        val copy = File(tmpDir, "copy.index")
+        File(tmpDir, "packages.index").copyTo(copy)
+        assertEquals(setOf("p", "p/r"), packages(JarPackagesIndex.getInstance(copy)))
+    }
+
+    fun testRemovedJarIsNotSaved() {
+        val otherJar = File(tmpDir, "other.jar")
+        writeJar("p/q/A.class", otherJar)
+        writeJar("p/q/A.class")
+        val storage = File(tmpDir, "packages.index")
+        val index = JarPackagesIndex.getInstance(storage)
+        assertEquals(setOf("p", "p/q"), packages(index, otherJar))
+        assertEquals(setOf("p", "p/q"), packages(index))
+
+        // the index is saved on the next update
+        assertTrue(otherJar.delete())
+        writeJar("p/r/A.class")
+        jar.setLastModified(JAR_TIMESTAMP + 2000)
+        assertEquals(setOf("p", "p/r"), packages(index))
+
+        // same length and timestamp as the removed jar, but it is indexed anew
+        writeJar("s/t/A.class", otherJar)
+        val copy = File(tmpDir, "copy.index")
+        storage.copyTo(copy)
+        assertEquals(setOf("s", "s/t"), packages(JarPackagesIndex.getInstance(copy), otherJar))
+    }
+
+    fun testCorruptedIndexIsIgnored() {
+        writeJar("p/q/A.class")
+        val storage = File(tmpDir, "packages.index")
+        storage.writeText("garbage")
+        assertEquals(setOf("p", "p/q"), packages(JarPackagesIndex.getInstance(storage)))
+    }
+
+    fun testNotJarRootsAreSkipped() {
+        val root = JavaRoot(CoreJarFileSystem().findFileByPath(writeJar("p/q/A.class").path + URLUtil.JAR_SEPARATOR)!!,
+                            JavaRoot.RootType.SOURCE)
+        assertEquals(listOf(null), JarPackagesIndex.getInstance(File(tmpDir, "packages.index")).packagesInRoots(listOf(root)))
+    }
+
+    private fun packages(index: JarPackagesIndex, jarFile: File = jar): Set<String>? {
+        // a new file system every time, otherwise the jar contents are cached
+        val jarRoot = CoreJarFileSystem().findFileByPath(jarFile.path + URLUtil.JAR_SEPARATOR)!!
+        return index.packagesInRoots(listOf(JavaRoot(jarRoot, JavaRoot.RootType.BINARY))).single()
+    }
+
+    private fun writeJar(entryName: String, jarFile: File = jar): File {
+        JarOutputStream(FileOutputStream(jarFile)).use { output ->
+            val entry = ZipEntry(entryName)
+            entry.time = JAR_TIMESTAMP
+            output.putNextEntry(entry)
+            output.write(byteArrayOf(1, 2, 3))
+            output.closeEntry()
+        }
+        jarFile.setLastModified(JAR_TIMESTAMP)
+        return jarFile
+    }
+
+    companion object {
+        private val JAR_TIMESTAMP = 1450000000000L
+    }
+}
@@ -16,11 +16,27 @@
 
 package org.jetbrains.kotlin.cli.jvm;
 
+import com.intellij.openapi.util.io.FileUtil;
+import kotlin.Pair;
 import org.jetbrains.kotlin.cli.CliBaseTest;
+import org.jetbrains.kotlin.cli.common.ExitCode;
+import org.jetbrains.kotlin.config.Services;
+import org.jetbrains.kotlin.load.kotlin.JvmMetadataVersion;
+import org.jetbrains.kotlin.progress.CompilationCanceledStatus;
+import org.jetbrains.kotlin.progress.ProgressIndicatorAndCompilationCanceledStatus;
+import org.jetbrains.kotlin.test.KotlinTestUtils;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class K2JvmCliTest extends CliBaseTest {
     @Test
@@ -69,4 +85,148 @@ public class K2JvmCliTest extends CliBaseTest {
     public void warningsInDummy() throws Exception {
         executeCompilerCompareOutputJVM();
     }
+
+    @Test
+    public void parallelCodegen() throws Exception {
+        executeCompilerCompareOutputJVM();
+    }
+
+    @Test
+    public void perValueLocks() throws Exception {
+        executeCompilerCompareOutputJVM();
+    }
+
+    // The daemon runs many compilations in one process, so settings of one compilation must not leak into the next one
+    @Test
+    public void processWideStateIsResetBetweenCompilations() throws Exception {
+        String source = KotlinTestUtils.getTestDataPathBase() + "/cli/jvm/simple.kt";
+        String out = tmpdir.getTmpDir().getPath();
+
+        final AtomicInteger checks = new AtomicInteger();
+        Services services = new Services.Builder().register(CompilationCanceledStatus.class, new CompilationCanceledStatus() {
+            @Override
+            public void checkCanceled() {
+                checks.incrementAndGet();
+            }
+        }).build();
+
+        PrintStream errStream = new PrintStream(new ByteArrayOutputStream());
+        ExitCode first = new K2JVMCompiler().execAndOutputXml(errStream, services, source, "-d", out, "-Xskip-metadata-version-check");
+        Assert.assertEquals(ExitCode.OK, first);
+        Assert.assertTrue(JvmMetadataVersion.Companion.getSkipCheck());
+        Assert.assertTrue(checks.get() > 0);
+
+        int checksAfterFirst = checks.get();
+        ProgressIndicatorAndCompilationCanceledStatus.checkCanceled();
+        Assert.assertEquals("canceled status of a finished compilation is still installed", checksAfterFirst, checks.get());
+
+        ExitCode second = new K2JVMCompiler().exec(errStream, source, "-d", out);
+        Assert.assertEquals(ExitCode.OK, second);
+        Assert.assertFalse(JvmMetadataVersion.Companion.getSkipCheck());
+        Assert.assertEquals(checksAfterFirst, checks.get());
+    }
+
+    @Test
+    public void compilationStateIsPerThread() throws Exception {
+        final AtomicInteger checks = new AtomicInteger();
+        final List<Boolean> skipChecks = Collections.synchronizedList(new ArrayList<Boolean>());
+        final Runnable check = new Runnable() {
+            @Override
+            public void run() {
+                ProgressIndicatorAndCompilationCanceledStatus.checkCanceled();
+                skipChecks.add(JvmMetadataVersion.Companion.getSkipCheck());
+            }
+        };
+        final CountDownLatch compilationFinished = new CountDownLatch(1);
+
+        // started before the compilation, e.g. by another one
+        Thread otherThread = new Thread(check);
+
+        ProgressIndicatorAndCompilationCanceledStatus.setCompilationCanceledStatus(new CompilationCanceledStatus() {
+            @Override
+            public void checkCanceled() {
+                checks.incrementAndGet();
+            }
+        });
+        JvmMetadataVersion.Companion.setSkipCheck(true);
+        Thread workerThread;
+        try {
+            runAndJoin(new Thread(check));
+            Assert.assertEquals(1, checks.get());
+            Assert.assertEquals(Collections.singletonList(true), skipChecks);
+
+            runAndJoin(otherThread);
+            Assert.assertEquals(1, checks.get());
+            Assert.assertEquals(Arrays.asList(true, false), skipChecks);
+
+            // still alive when the compilation finishes
+            workerThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        compilationFinished.await();
+                    }
+                    catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    check.run();
+                }
+            });
+            workerThread.start();
+        }
+        finally {
+            ProgressIndicatorAndCompilationCanceledStatus.setCompilationCanceledStatus(null);
+            JvmMetadataVersion.Companion.setSkipCheck(false);
+        }
+
+        compilationFinished.countDown();
+        workerThread.join();
+        Assert.assertEquals(1, checks.get());
+    }
+
+    private static void runAndJoin(Thread thread) throws InterruptedException {
+        thread.start();
+        thread.join();
+    }
+
+    @Test
+    public void parallelCodegenOfModules() throws Exception {
+        File dir = tmpdir.getTmpDir();
+        StringBuilder modules = new StringBuilder("<modules>\n");
+        for (int i = 1; i <= 3; i++) {
+            // the second module has a declaration clash, which is reported by codegen
+            String clash = i == 2 ? "fun getX() = 1\nval x = 1\n" : "";
+            FileUtil.writeToFile(new File(dir, "m" + i + ".kt"), "package m" + i + "\n\nfun foo() = " + i + "\n" + clash);
+            modules.append("<module name=\"m").append(i).append("\" type=\"java-production\" outputDir=\"")
+                    .append(new File(dir, "out" + i).getPath()).append("\">\n")
+                    .append("<sources path=\"").append(new File(dir, "m" + i + ".kt").getPath()).append("\"/>\n")
+                    .append("</module>\n");
+        }
+        modules.append("</modules>\n");
+        File moduleFile = new File(dir, "modules.xml");
+        FileUtil.writeToFile(moduleFile, modules.toString());
+
+        Pair<String, ExitCode> sequential = executeCompilerGrabOutput(
+                new K2JVMCompiler(), Arrays.asList("-module", moduleFile.getPath(), "-Xreport-perf"));
+        Pair<String, ExitCode> parallel = executeCompilerGrabOutput(
+                new K2JVMCompiler(), Arrays.asList("-module", moduleFile.getPath(), "-Xreport-perf", "-Xparallel-codegen"));
+
+        Assert.assertEquals(ExitCode.COMPILATION_ERROR, parallel.getSecond());
+        Assert.assertEquals(sequential.getSecond(), parallel.getSecond());
+        Assert.assertEquals(removePerfOutput(sequential.getFirst()), removePerfOutput(parallel.getFirst()));
+        Assert.assertTrue(parallel.getFirst(), parallel.getFirst().contains("platform declaration clash"));
+
+        // messages of the modules, including performance reports, are not mixed up
+        List<String> generated = new ArrayList<String>();
+        for (String line : parallel.getFirst().split("\n")) {
+            if (line.contains("PERF: GENERATE:")) {
+                generated.add(line.replaceAll(".*target (m\\d).*", "$1"));
+            }
+        }
+        Assert.assertEquals(Arrays.asList("m1", "m2", "m3"), generated);
+
+        for (int i = 1; i <= 3; i++) {
+            Assert.assertTrue(new File(dir, "out" + i + "/m" + i + "/M" + i + "Kt.class").isFile());
+        }
+    }
 }
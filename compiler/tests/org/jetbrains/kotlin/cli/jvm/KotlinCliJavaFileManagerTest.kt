@@ -16,6 +16,8 @@
 package org.jetbrains.kotlin.cli.jvm
 
 import com.intellij.ide.highlighter.JavaFileType
+import com.intellij.openapi.vfs.VfsUtil
+import com.intellij.openapi.vfs.VirtualFile
 import com.intellij.psi.PsiFileFactory
 import com.intellij.psi.search.GlobalSearchScope
 import com.intellij.testFramework.PlatformTestCase
@@ -28,6 +30,8 @@ import org.jetbrains.kotlin.cli.jvm.compiler.JvmDependenciesIndex
 import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCliJavaFileManagerImpl
 import org.jetbrains.kotlin.name.ClassId
 import org.jetbrains.kotlin.name.FqName
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
 
 //Partial copy of CoreJavaFileManagerTest
 class KotlinCliJavaFileManagerTest : PsiTestCase() {
@@ -138,6 +142,54 @@ class KotlinCliJavaFileManagerTest : PsiTestCase() {
         TestCase.assertNull("Should not find class in empty scope", manager.findClass("foo.Test", GlobalSearchScope.EMPTY_SCOPE))
     }
 
+    fun testConcurrentLookupsInSharedIndex() {
+        // every package is present in some of the roots, so lookups have to go through several roots in order
+        val roots = (0..3).map { PsiTestUtil.createTestProjectStructure(myProject, myModule, PlatformTestCase.myFilesToDelete) }
+        val packages = (1..12).flatMap { listOf("p$it", "p$it/inner") }
+        for ((rootIndex, root) in roots.withIndex()) {
+            for ((packageIndex, packagePath) in packages.withIndex()) {
+                if ((packageIndex + rootIndex) % 3 == 0) continue
+                val dir = VfsUtil.createDirectoryIfMissing(root, packagePath)
+                dir.createChildData(this, "Shared.java")
+                dir.createChildData(this, "Only$rootIndex.java")
+            }
+        }
+
+        val index = JvmDependenciesIndex(roots.map { JavaRoot(it, JavaRoot.RootType.SOURCE) })
+        val classNames = listOf("Shared", "Absent") + roots.indices.map { "Only$it" }
+        val requests = packages.flatMap { packagePath -> classNames.map { ClassId.topLevel(FqName(packagePath.replace('/', '.') + "." + it)) } }
+
+        fun packageDirs(classId: ClassId): List<VirtualFile> =
+                roots.mapNotNull { it.findFileByRelativePath(classId.packageFqName.asString().replace('.', '/')) }
+
+        val executor = Executors.newFixedThreadPool(8)
+        try {
+            val futures = (1..8).map { threadIndex ->
+                executor.submit(Callable {
+                    requests.indices.map { requests[(it + threadIndex * 7) % requests.size] }.map { classId ->
+                        val found = index.findClass(classId) { dir, rootType -> dir.findChild("${classId.shortClassName}.java") }
+                        val dirs = arrayListOf<VirtualFile>()
+                        index.traverseDirectoriesInPackage(classId.packageFqName) { dir, rootType -> dirs.add(dir) }
+                        Triple(classId, found, dirs)
+                    }
+                })
+            }
+
+            for (future in futures) {
+                for ((classId, found, dirs) in future.get()) {
+                    val expectedDirs = packageDirs(classId)
+                    TestCase.assertEquals(expectedDirs, dirs)
+                    // the class from the first root containing it
+                    val expected = expectedDirs.asSequence().mapNotNull { it.findChild("${classId.shortClassName}.java") }.firstOrNull()
+                    TestCase.assertEquals(classId.toString(), expected, found)
+                }
+            }
+        }
+        finally {
+            executor.shutdown()
+        }
+    }
+
     private fun configureManager(@Language("JAVA") text: String, className: String): KotlinCliJavaFileManagerImpl {
         val root = PsiTestUtil.createTestProjectStructure(myProject, myModule, PlatformTestCase.myFilesToDelete)
         val pkg = root.createChildDirectory(this, "foo")
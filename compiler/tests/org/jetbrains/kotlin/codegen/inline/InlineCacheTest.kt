@@ -0,0 +1,111 @@
+/*
+ * Copyright 2010-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.codegen.inline
+
+import junit.framework.TestCase
+import org.jetbrains.kotlin.name.ClassId
+import org.jetbrains.kotlin.name.FqName
+import org.jetbrains.org.objectweb.asm.Label
+import org.jetbrains.org.objectweb.asm.Opcodes
+import org.jetbrains.org.objectweb.asm.tree.LabelNode
+import org.jetbrains.org.objectweb.asm.tree.MethodNode
+import java.util.*
+import kotlin.concurrent.thread
+
+class InlineCacheTest : TestCase() {
+    private val ownerId = ClassId.topLevel(FqName("test.FooKt"))
+
+    private val smap = SMAP(listOf(FileMapping("foo.kt", "test/foo.kt").apply { addRangeMapping(RangeMapping(1, 1, 10)) }))
+
+    // fun foo(x: Boolean) = if (x) 1 else 2
+    private fun createNode(): MethodNode {
+        val node = MethodNode(InlineCodegenUtil.API, Opcodes.ACC_PUBLIC or Opcodes.ACC_STATIC, "foo", "(Z)I", null, null)
+        val start = Label()
+        val elseBranch = Label()
+        val end = Label()
+        node.visitCode()
+        node.visitLabel(start)
+        node.visitLineNumber(2, start)
+        node.visitVarInsn(Opcodes.ILOAD, 0)
+        node.visitJumpInsn(Opcodes.IFEQ, elseBranch)
+        node.visitInsn(Opcodes.ICONST_1)
+        node.visitInsn(Opcodes.IRETURN)
+        node.visitLabel(elseBranch)
+        node.visitInsn(Opcodes.ICONST_2)
+        node.visitInsn(Opcodes.IRETURN)
+        node.visitLabel(end)
+        node.visitLocalVariable("x", "Z", null, start, end, 0)
+        node.visitMaxs(1, 1)
+        node.visitEnd()
+        return node
+    }
+
+    private fun labels(node: MethodNode) = node.instructions.toArray().filterIsInstance<LabelNode>()
+
+    fun testCachedBodyCopied() {
+        val cache = InlineCache()
+        assertNull(cache.get(ownerId, "foo", "(Z)I"))
+
+        val original = createNode()
+        val text = InlineCodegenUtil.getNodeText(original)
+        val first = cache.put(ownerId, "foo", "(Z)I", SMAPAndMethodNode(original, smap))
+        val second = cache.get(ownerId, "foo", "(Z)I")!!
+
+        assertNotSame(original, first.node)
+        assertNotSame(first.node, second.node)
+        assertEquals(text, InlineCodegenUtil.getNodeText(first.node))
+        assertEquals(text, InlineCodegenUtil.getNodeText(second.node))
+        assertTrue(Collections.disjoint(labels(first.node), labels(second.node)))
+        assertSame(smap, second.classSMAP)
+        assertEquals(first.lineNumbers.map { it.lineNumberNode.line }, second.lineNumbers.map { it.lineNumberNode.line })
+
+        assertNull(cache.get(ownerId, "foo", "(I)I"))
+        assertNull(cache.get(ownerId, "bar", "(Z)I"))
+    }
+
+    fun testInliningDoesNotChangeCachedBody() {
+        val cache = InlineCache()
+        val original = createNode()
+        val text = InlineCodegenUtil.getNodeText(original)
+
+        // as done when the body is inlined at a call site
+        val inlined = cache.put(ownerId, "foo", "(Z)I", SMAPAndMethodNode(original, smap)).node
+        inlined.instructions.clear()
+        inlined.localVariables.clear()
+
+        assertEquals(text, InlineCodegenUtil.getNodeText(cache.get(ownerId, "foo", "(Z)I")!!.node))
+    }
+
+    fun testConcurrentCopies() {
+        val cache = InlineCache()
+        val text = InlineCodegenUtil.getNodeText(createNode())
+        cache.put(ownerId, "foo", "(Z)I", SMAPAndMethodNode(createNode(), smap))
+
+        val failures = Collections.synchronizedList(ArrayList<String>())
+        val threads = (1..8).map {
+            thread {
+                for (i in 1..1000) {
+                    val copy = InlineCodegenUtil.getNodeText(cache.get(ownerId, "foo", "(Z)I")!!.node)
+                    if (copy != text) failures.add(copy)
+                }
+            }
+        }
+        threads.forEach { it.join() }
+
+        assertEquals(emptyList<String>(), failures)
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2010-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.codegen.optimization
+
+import junit.framework.TestCase
+import org.jetbrains.org.objectweb.asm.Label
+import org.jetbrains.org.objectweb.asm.Opcodes
+import org.jetbrains.org.objectweb.asm.tree.MethodNode
+
+// Dead code and redundant GOTO elimination don't need frames, so they run on methods too large for the frame-based optimizations
+class LargeMethodOptimizationTest : TestCase() {
+    fun testDeadCodeAndGotosAreRemoved() {
+        val result = MethodNode(Opcodes.ACC_STATIC, "large", "()V", null, null)
+        val mv = OptimizationMethodVisitor(result, false, Opcodes.ACC_STATIC, "large", "()V", null, null)
+        mv.visitCode()
+
+        // every conditional jump starts a block, with that many blocks and locals frames of the method would take
+        // more than OptimizationMethodVisitor allows, so redundant null checks and boxing are not optimized here
+        for (i in 0..BLOCKS - 1) {
+            val next = Label()
+            mv.visitInsn(Opcodes.ICONST_0)
+            mv.visitVarInsn(Opcodes.ISTORE, i % LOCALS)
+            mv.visitVarInsn(Opcodes.ILOAD, i % LOCALS)
+            mv.visitJumpInsn(Opcodes.IFEQ, next)
+            mv.visitLabel(next)
+        }
+
+        val afterDeadCode = Label()
+        val returnLabel = Label()
+        mv.visitJumpInsn(Opcodes.GOTO, afterDeadCode)
+        mv.visitInsn(Opcodes.ICONST_1)
+        mv.visitInsn(Opcodes.POP)
+        mv.visitLabel(afterDeadCode)
+        mv.visitJumpInsn(Opcodes.GOTO, returnLabel)
+        mv.visitLabel(returnLabel)
+        mv.visitInsn(Opcodes.RETURN)
+
+        mv.visitMaxs(1, LOCALS)
+        mv.visitEnd()
+
+        val opcodes = result.instructions.toArray().map { it.opcode }
+        assertFalse("Dead code is not removed", Opcodes.ICONST_1 in opcodes)
+        assertFalse("Redundant GOTO is not removed", Opcodes.GOTO in opcodes)
+        assertEquals(BLOCKS, opcodes.count { it == Opcodes.IFEQ })
+        assertEquals(Opcodes.RETURN, opcodes.last { it >= 0 })
+    }
+
+    companion object {
+        private val BLOCKS = 20000
+        private val LOCALS = 3000
+    }
+}
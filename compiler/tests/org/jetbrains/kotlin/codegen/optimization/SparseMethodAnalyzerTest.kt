@@ -0,0 +1,105 @@
+/*
+ * Copyright 2010-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.codegen.optimization
+
+import org.jetbrains.kotlin.cli.jvm.compiler.EnvironmentConfigFiles
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.cli.jvm.config.JVMConfigurationKeys
+import org.jetbrains.kotlin.codegen.CodegenTestCase
+import org.jetbrains.kotlin.codegen.optimization.common.OptimizationBasicInterpreter
+import org.jetbrains.kotlin.codegen.optimization.common.SparseMethodAnalyzer
+import org.jetbrains.kotlin.test.ConfigurationKind
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.TestJdkKind
+import org.jetbrains.org.objectweb.asm.ClassReader
+import org.jetbrains.org.objectweb.asm.tree.ClassNode
+import org.jetbrains.org.objectweb.asm.tree.MethodNode
+import org.jetbrains.org.objectweb.asm.tree.analysis.Analyzer
+
+// Sparse frames and block reachability must be the same as what ASM Analyzer computes for every instruction
+class SparseMethodAnalyzerTest : CodegenTestCase() {
+    override fun setUp() {
+        super.setUp()
+        // dead code is kept, so that reachability is checked as well
+        val configuration = KotlinTestUtils.compilerConfigurationForTests(
+                ConfigurationKind.JDK_ONLY, TestJdkKind.MOCK_JDK, KotlinTestUtils.getAnnotationsJar())
+        configuration.put(JVMConfigurationKeys.DISABLE_OPTIMIZATION, true)
+        myEnvironment = KotlinCoreEnvironment.createForTests(testRootDisposable, configuration, EnvironmentConfigFiles.JVM_CONFIG_FILES)
+    }
+
+    fun testDeadCode() {
+        assertTrue(doTest("box/deadCodeElimination/intersectingVariableRange.kt") > 0)
+    }
+
+    fun testDeadCodeInFinally() {
+        assertTrue(doTest("box/deadCodeElimination/intersectingVariableRangeInFinally.kt") > 0)
+    }
+
+    fun testFinally() {
+        doTest("box/finally/finallyAndFinally.kt")
+        doTest("box/finally/tryLoopTry.kt")
+    }
+
+    fun testLoops() {
+        doTest("box/controlStructures/forUserType.kt")
+        doTest("box/controlStructures/doWhileWithContinue.kt")
+    }
+
+    fun testWhen() {
+        doTest("box/controlStructures/inRangeConditionsInWhen.kt")
+    }
+
+    // returns the number of unreachable instructions
+    private fun doTest(path: String): Int {
+        loadFile(path)
+        classFileFactory = null
+        var unreachable = 0
+        for (file in generateClassesInFile().asList()) {
+            if (!file.relativePath.endsWith(".class")) continue
+
+            val classNode = ClassNode()
+            ClassReader(file.asByteArray()).accept(classNode, 0)
+            for (method in classNode.methods) {
+                if (method.instructions.size() == 0) continue
+                unreachable += checkMethod(classNode.name, method, "$path: ${classNode.name}.${method.name}${method.desc}")
+            }
+        }
+        return unreachable
+    }
+
+    private fun checkMethod(owner: String, method: MethodNode, description: String): Int {
+        val frames = Analyzer(OptimizationBasicInterpreter()).analyze(owner, method)
+        val sparse = SparseMethodAnalyzer(owner, method, OptimizationBasicInterpreter())
+        sparse.analyze()
+
+        for (i in frames.indices) {
+            assertEquals("$description, instruction $i", frames[i]?.toString(), sparse.getFrame(i)?.toString())
+        }
+        // going backwards, every frame is recomputed from the start of its block
+        for (i in frames.indices.reversed()) {
+            assertEquals("$description, instruction $i", frames[i]?.toString(), sparse.getFrame(i)?.toString())
+        }
+
+        val reachableBlocks = sparse.graph.computeReachableBlocks()
+        var unreachable = 0
+        for (i in frames.indices) {
+            assertEquals("$description, instruction $i", frames[i] != null, reachableBlocks.get(sparse.graph.blockOf(i)))
+            if (frames[i] == null) unreachable++
+        }
+        return unreachable
+    }
+}
@@ -185,6 +185,38 @@ class CompilerDaemonTest : KotlinIntegrationTestBase() {
         }
     }
 
+    fun testDaemonPrewarm() {
+        withFlagFile(getTestName(true), ".alive") { flagFile ->
+            val daemonOptions = DaemonOptions(runFilesPath = File(tmpdir, getTestName(true)).absolutePath, prewarm = true)
+            KotlinCompilerClient.shutdownCompileService(compilerId, daemonOptions)
+
+            val logFile = createTempFile("kotlin-daemon-test", ".log")
+            val daemonJVMOptions = configureDaemonJVMOptions("D${COMPILE_DAEMON_LOG_PATH_PROPERTY}=\"${logFile.loggerCompatiblePath}\"",
+                                                             inheritMemoryLimits = false, inheritAdditionalProperties = false)
+            try {
+                val daemon = KotlinCompilerClient.connectToCompileService(compilerId, flagFile, daemonJVMOptions, daemonOptions,
+                                                                          DaemonReportingTargets(out = System.err), autostart = true)
+                assertNotNull("failed to connect daemon", daemon)
+
+                // prewarm runs asynchronously after the daemon is started
+                var attempts = 0
+                while (!logFile.isLogContainsSequence("Prewarm compilation done with result OK") && attempts++ < 600) {
+                    Thread.sleep(100)
+                }
+                logFile.assertLogContainsSequence("Prewarm compilation done with result OK")
+
+                val jar = tmpdir.absolutePath + File.separator + "hello.jar"
+                val res = compileOnDaemon(flagFile, compilerId, daemonJVMOptions, daemonOptions, "-include-runtime", File(getHelloAppBaseDir(), "hello.kt").absolutePath, "-d", jar)
+                assertEquals("compilation after prewarm failed:\n${res.out}", 0, res.resultCode)
+            }
+            finally {
+                KotlinCompilerClient.shutdownCompileService(compilerId, daemonOptions)
+            }
+            logFile.assertLogContainsSequence("Prewarm compilation done with result OK", "Starting compilation with args: ", "Shutdown complete")
+            logFile.delete()
+        }
+    }
+
     fun testDaemonAutoshutdownOnUnused() {
         withFlagFile(getTestName(true), ".alive") { flagFile ->
             val daemonOptions = DaemonOptions(autoshutdownUnusedSeconds = 1, runFilesPath = File(tmpdir, getTestName(true)).absolutePath)
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2010-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import junit.framework.TestCase
+import org.jetbrains.kotlin.daemon.client.KotlinCompilerClient
+import org.jetbrains.kotlin.daemon.common.CompileService
+import org.jetbrains.kotlin.daemon.common.DaemonMemoryMetrics
+import org.jetbrains.kotlin.daemon.common.LoopbackNetworkInterface
+import org.jetbrains.kotlin.daemon.common.SOCKET_ANY_FREE_PORT
+import java.lang.reflect.Proxy
+import java.rmi.Remote
+import java.rmi.RemoteException
+import java.rmi.ServerException
+import java.rmi.server.UnicastRemoteObject
+import java.util.*
+
+class DaemonMemoryMetricsCallTest : TestCase() {
+
+    // the service of a daemon that doesn't report memory metrics yet
+    interface OldCompileService : Remote {
+        @Throws(RemoteException::class)
+        fun getUsedMemory(): CompileService.CallResult<Long>
+    }
+
+    private val exported = ArrayList<Remote>()
+
+    override fun tearDown() {
+        exported.forEach { UnicastRemoteObject.unexportObject(it, true) }
+        super.tearDown()
+    }
+
+    // exports the service via rmi and returns its stub as seen by a client of the current version
+    private fun exportService(remoteInterface: Class<out Remote>, call: (String) -> Any?): CompileService {
+        val server = Proxy.newProxyInstance(javaClass.classLoader, arrayOf(remoteInterface)) { proxy, method, args -> call(method.name) } as Remote
+        exported.add(server)
+        val stub = UnicastRemoteObject.exportObject(server, SOCKET_ANY_FREE_PORT,
+                                                    LoopbackNetworkInterface.clientLoopbackSocketFactory,
+                                                    LoopbackNetworkInterface.serverLoopbackSocketFactory)
+        return Proxy.newProxyInstance(javaClass.classLoader, arrayOf(CompileService::class.java), Proxy.getInvocationHandler(stub)) as CompileService
+    }
+
+    fun testMetricsOfCurrentDaemon() {
+        val metrics = DaemonMemoryMetrics(100, 1000, 50, 1, mapOf("cache" to 10), mapOf("cache" to 1))
+        val service = exportService(CompileService::class.java) { CompileService.CallResult.Good(metrics) }
+        assertEquals(metrics, KotlinCompilerClient.getMemoryMetrics(service))
+    }
+
+    fun testNoMetricsFromOlderDaemon() {
+        val service = exportService(OldCompileService::class.java) { CompileService.CallResult.Good(100L) }
+        assertEquals(100L, service.getUsedMemory().get())
+        assertNull(KotlinCompilerClient.getMemoryMetrics(service))
+    }
+
+    fun testOtherErrorsAreNotHidden() {
+        val service = exportService(CompileService::class.java) { throw RemoteException("failed") }
+        try {
+            KotlinCompilerClient.getMemoryMetrics(service)
+            fail("exception expected")
+        }
+        catch (e: ServerException) {
+            assertEquals("failed", e.cause?.message)
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2010-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import junit.framework.TestCase
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import java.io.File
+
+class LazyClasspathWatcherTest : TestCase() {
+    private lateinit var classpathDir: File
+    private lateinit var jar: File
+    private lateinit var classFile: File
+
+    override fun setUp() {
+        super.setUp()
+        classpathDir = KotlinTestUtils.tmpDir(name)
+        jar = File(classpathDir, "lib.jar")
+        jar.writeText("jar contents")
+        classFile = File(classpathDir, "p/A.class")
+        classFile.parentFile.mkdirs()
+        classFile.writeText("class contents")
+        // whole seconds, so that stamps survive file systems with coarse timestamps
+        setLastModified(INITIAL_TIMESTAMP)
+    }
+
+    private fun setLastModified(timestamp: Long) {
+        assertTrue(jar.setLastModified(timestamp))
+        assertTrue(classFile.setLastModified(timestamp))
+    }
+
+    // every call checks the classpath, digests are only rechecked if asked
+    private fun createWatcher(checkDigests: Boolean) =
+            LazyClasspathWatcher(listOf(classpathDir.path), checkPeriod = 0,
+                                 digestCheckPeriod = if (checkDigests) 0 else DEFAULT_CLASSPATH_DIGEST_WATCH_PERIOD_MS)
+
+    fun testUnchanged() {
+        val watcher = createWatcher(checkDigests = false)
+        assertFalse(watcher.isChanged)
+        assertFalse(watcher.isChanged)
+    }
+
+    fun testTouchedButNotChanged() {
+        val watcher = createWatcher(checkDigests = false)
+        assertFalse(watcher.isChanged)
+
+        setLastModified(INITIAL_TIMESTAMP + 10000)
+        assertFalse(watcher.isChanged)
+        assertFalse(watcher.isChanged)
+    }
+
+    fun testChanged() {
+        val watcher = createWatcher(checkDigests = false)
+        assertFalse(watcher.isChanged)
+
+        classFile.writeText("changed class contents")
+        assertTrue(watcher.isChanged)
+
+        // a change is remembered even if the file is restored
+        classFile.writeText("class contents")
+        setLastModified(INITIAL_TIMESTAMP)
+        assertTrue(watcher.isChanged)
+    }
+
+    fun testRemoved() {
+        val watcher = createWatcher(checkDigests = false)
+        assertFalse(watcher.isChanged)
+
+        assertTrue(jar.delete())
+        assertTrue(watcher.isChanged)
+    }
+
+    fun testChangePreservingStampFoundByDigest() {
+        val stampsWatcher = createWatcher(checkDigests = false)
+        val digestsWatcher = createWatcher(checkDigests = true)
+        assertFalse(stampsWatcher.isChanged)
+        assertFalse(digestsWatcher.isChanged)
+
+        // same length and timestamp
+        jar.writeText("jar_contents")
+        setLastModified(INITIAL_TIMESTAMP)
+        assertFalse(stampsWatcher.isChanged)
+
+        // digests are rechecked when more than digestCheckPeriod passed since the last recheck
+        Thread.sleep(10)
+        assertTrue(digestsWatcher.isChanged)
+    }
+
+    companion object {
+        private val INITIAL_TIMESTAMP = 1000000000000L
+    }
+}
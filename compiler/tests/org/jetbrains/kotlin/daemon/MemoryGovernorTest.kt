@@ -0,0 +1,108 @@
+/*
+ * Copyright 2010-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import junit.framework.TestCase
+import java.lang.management.MemoryPoolMXBean
+import java.lang.management.MemoryType
+import java.lang.management.MemoryUsage
+import java.lang.reflect.Proxy
+import java.util.*
+
+class MemoryGovernorTest : TestCase() {
+
+    private class FakePool(val max: Long) {
+        var usedAfterGC = 0L
+        var threshold = 0L
+
+        val bean = Proxy.newProxyInstance(javaClass.classLoader, arrayOf(MemoryPoolMXBean::class.java)) { proxy, method, args ->
+            when (method.name) {
+                "getName" -> "fake tenured pool"
+                "getType" -> MemoryType.HEAP
+                "getUsage", "getCollectionUsage" -> MemoryUsage(0, usedAfterGC, max, max)
+                "getCollectionUsageThreshold" -> threshold
+                "setCollectionUsageThreshold" -> { threshold = args[0] as Long; null }
+                "isCollectionUsageThresholdSupported", "isUsageThresholdSupported", "isValid" -> true
+                else -> throw UnsupportedOperationException(method.name)
+            }
+        } as MemoryPoolMXBean
+    }
+
+    private val evicted = ArrayList<String>()
+    private val exhausted = ArrayList<Long>()
+    private val pool = FakePool(max = 1000)
+
+    private fun cache(name: String, size: Int) = EvictableCache(name, size = { size }, evict = { evicted.add(name) })
+
+    private fun createGovernor() =
+            MemoryGovernor(listOf(cache("cheap", 1), cache("medium", 2), cache("expensive", 3)),
+                           thresholdFraction = 0.5, pools = listOf(pool.bean), onExhausted = { exhausted.add(it) })
+
+    fun testEvictionOrder() {
+        val governor = createGovernor()
+        try {
+            assertEquals(500L, pool.threshold)
+
+            pool.usedAfterGC = 600
+            governor.onThresholdExceeded()
+            assertEquals(listOf("cheap"), evicted)
+            governor.onThresholdExceeded()
+            governor.onThresholdExceeded()
+            assertEquals(listOf("cheap", "medium", "expensive"), evicted)
+            assertTrue(exhausted.isEmpty())
+
+            governor.onThresholdExceeded()
+            assertEquals(listOf(600L), exhausted)
+            assertEquals(3, evicted.size)
+
+            val metrics = governor.getMetrics()
+            assertEquals(4, metrics.thresholdExceededCount)
+            assertEquals(600L, metrics.heapUsedAfterLastGC)
+            assertEquals(mapOf("cheap" to 1, "medium" to 1, "expensive" to 1), metrics.cacheEvictions)
+            assertEquals(mapOf("cheap" to 1, "medium" to 2, "expensive" to 3), metrics.cacheSizes)
+        }
+        finally {
+            governor.dispose()
+        }
+        assertEquals(0L, pool.threshold)
+    }
+
+    fun testOrderStartsOverWhenMemoryRecovers() {
+        val governor = createGovernor()
+        try {
+            pool.usedAfterGC = 600
+            governor.onThresholdExceeded()
+            governor.onThresholdExceeded()
+
+            // still above the threshold, eviction goes on from where it stopped
+            governor.checkRecovered()
+            governor.onThresholdExceeded()
+            assertEquals(listOf("cheap", "medium", "expensive"), evicted)
+
+            pool.usedAfterGC = 400
+            governor.checkRecovered()
+
+            pool.usedAfterGC = 600
+            governor.onThresholdExceeded()
+            assertEquals(listOf("cheap", "medium", "expensive", "cheap"), evicted)
+            assertTrue(exhausted.isEmpty())
+        }
+        finally {
+            governor.dispose()
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2010-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import junit.framework.TestCase
+import org.jetbrains.kotlin.daemon.common.CompilerCallbackServicesFacade
+import org.jetbrains.kotlin.daemon.common.IncrementalCacheSessionData
+import org.jetbrains.kotlin.daemon.common.InlineRegistration
+import org.jetbrains.kotlin.daemon.common.LoopbackNetworkInterface
+import org.jetbrains.kotlin.daemon.common.SOCKET_ANY_FREE_PORT
+import org.jetbrains.kotlin.load.kotlin.incremental.components.JvmPackagePartProto
+import org.jetbrains.kotlin.modules.TargetId
+import java.lang.reflect.InvocationTargetException
+import java.lang.reflect.Proxy
+import java.rmi.Remote
+import java.rmi.RemoteException
+import java.rmi.server.UnicastRemoteObject
+import java.util.*
+
+class RemoteIncrementalCacheClientTest : TestCase() {
+
+    private class FakeEventManager : EventManger {
+        private val listeners = ArrayList<() -> Unit>()
+
+        override fun onCompilationFinished(f: () -> Unit) {
+            listeners.add(f)
+        }
+
+        fun fire() = listeners.forEach { it() }
+    }
+
+    // single-item calls of the client side facade, facades of older clients don't have anything else
+    interface OldCompilerCallbackServicesFacade : Remote {
+        @Throws(RemoteException::class)
+        fun incrementalCache_getObsoletePackageParts(target: TargetId): Collection<String>
+
+        @Throws(RemoteException::class)
+        fun incrementalCache_getObsoleteMultifileClassFacades(target: TargetId): Collection<String>
+
+        @Throws(RemoteException::class)
+        fun incrementalCache_getPackagePartData(target: TargetId, partInternalName: String): JvmPackagePartProto?
+
+        @Throws(RemoteException::class)
+        fun incrementalCache_getModuleMappingData(target: TargetId): ByteArray?
+
+        @Throws(RemoteException::class)
+        fun incrementalCache_registerInline(target: TargetId, fromPath: String, jvmSignature: String, toPath: String)
+
+        @Throws(RemoteException::class)
+        fun incrementalCache_close(target: TargetId)
+    }
+
+    // emulates a client side facade exported via rmi, the older one doesn't know the batched calls
+    private class FakeFacade(supportsBatchedCalls: Boolean) {
+        val calls = Collections.synchronizedList(ArrayList<String>())
+        val registeredInlines = Collections.synchronizedList(ArrayList<InlineRegistration>())
+        val parts = mapOf("a/APart" to JvmPackagePartProto(byteArrayOf(1), arrayOf("a")),
+                          "b/BPart" to JvmPackagePartProto(byteArrayOf(2), arrayOf("b")))
+
+        private val remoteInterface =
+                if (supportsBatchedCalls) CompilerCallbackServicesFacade::class.java else OldCompilerCallbackServicesFacade::class.java
+
+        private val server = Proxy.newProxyInstance(javaClass.classLoader, arrayOf(remoteInterface)) { proxy, method, args ->
+            when (method.name) {
+                "incrementalCache_getObsoletePackageParts" -> listOf("a/Obsolete")
+                "incrementalCache_getObsoleteMultifileClassFacades" -> listOf("a/ObsoleteFacade")
+                "incrementalCache_getModuleMappingData" -> null
+                "incrementalCache_getSessionData" -> IncrementalCacheSessionData(listOf("a/Obsolete"), listOf("a/ObsoleteFacade"), null)
+                "incrementalCache_getPackagePartData" -> parts[args[1]]
+                "incrementalCache_getPackagePartsData" -> {
+                    @Suppress("UNCHECKED_CAST")
+                    (args[1] as Collection<String>).associate { it to parts[it] }
+                }
+                "incrementalCache_registerInline" -> registeredInlines.add(InlineRegistration(args[1] as String, args[2] as String, args[3] as String))
+                "incrementalCache_registerInlines" -> {
+                    @Suppress("UNCHECKED_CAST")
+                    registeredInlines.addAll(args[1] as Collection<InlineRegistration>)
+                }
+                "incrementalCache_close" -> null
+                else -> throw UnsupportedOperationException(method.name)
+            }
+        } as Remote
+
+        // the daemon side stub always has the current interface, as if the daemon is newer than the client
+        // calls are recorded on the daemon side, since calls unknown to the client never reach the server object
+        val facade: CompilerCallbackServicesFacade = run {
+            val exported = UnicastRemoteObject.exportObject(server, SOCKET_ANY_FREE_PORT,
+                                                            LoopbackNetworkInterface.clientLoopbackSocketFactory,
+                                                            LoopbackNetworkInterface.serverLoopbackSocketFactory)
+            val stub = Proxy.newProxyInstance(javaClass.classLoader, arrayOf(CompilerCallbackServicesFacade::class.java),
+                                              Proxy.getInvocationHandler(exported))
+            Proxy.newProxyInstance(javaClass.classLoader, arrayOf(CompilerCallbackServicesFacade::class.java)) { proxy, method, args ->
+                calls.add(method.name)
+                try {
+                    method.invoke(stub, *(args ?: emptyArray()))
+                }
+                catch (e: InvocationTargetException) {
+                    throw e.targetException
+                }
+            } as CompilerCallbackServicesFacade
+        }
+
+        fun unexport() {
+            UnicastRemoteObject.unexportObject(server, true)
+        }
+    }
+
+    private val target = TargetId("module", "java-production")
+    private val eventManager = FakeEventManager()
+    private val facades = ArrayList<FakeFacade>()
+
+    override fun tearDown() {
+        facades.forEach { it.unexport() }
+        super.tearDown()
+    }
+
+    private fun createFacade(supportsBatchedCalls: Boolean) = FakeFacade(supportsBatchedCalls).apply { facades.add(this) }
+
+    // deserialized on this side, so compared by contents
+    private fun assertPartEquals(expected: JvmPackagePartProto?, actual: JvmPackagePartProto?) {
+        assertEquals(expected?.data?.toList(), actual?.data?.toList())
+        assertEquals(expected?.strings?.toList(), actual?.strings?.toList())
+    }
+
+    fun testBatchedCalls() {
+        val remote = createFacade(supportsBatchedCalls = true)
+        val client = RemoteIncrementalCacheClient(remote.facade, target, eventManager)
+
+        assertEquals(listOf("a/Obsolete"), client.getObsoletePackageParts())
+        assertEquals(listOf("a/ObsoleteFacade"), client.getObsoleteMultifileClasses())
+        assertNull(client.getModuleMappingData())
+        assertPartEquals(remote.parts["a/APart"], client.getPackagePartData("a/APart"))
+        assertPartEquals(remote.parts["a/APart"], client.getPackagePartData("a/APart"))
+        assertEquals(listOf("incrementalCache_getSessionData", "incrementalCache_getPackagePartsData"), remote.calls)
+
+        registerInlines(client, INLINE_REGISTRATIONS_BATCH_SIZE + 5)
+        assertEquals(INLINE_REGISTRATIONS_BATCH_SIZE, remote.registeredInlines.size)
+
+        eventManager.fire()
+        assertEquals(INLINE_REGISTRATIONS_BATCH_SIZE + 5, remote.registeredInlines.size)
+        assertEquals(2, remote.calls.count { it == "incrementalCache_registerInlines" })
+        assertFalse("incrementalCache_registerInline" in remote.calls)
+    }
+
+    fun testFallbackToSingleItemCalls() {
+        val remote = createFacade(supportsBatchedCalls = false)
+        val client = RemoteIncrementalCacheClient(remote.facade, target, eventManager)
+
+        assertEquals(listOf("a/Obsolete"), client.getObsoletePackageParts())
+        assertEquals(listOf("a/ObsoleteFacade"), client.getObsoleteMultifileClasses())
+        assertNull(client.getModuleMappingData())
+        assertPartEquals(remote.parts["a/APart"], client.getPackagePartData("a/APart"))
+        assertPartEquals(remote.parts["b/BPart"], client.getPackagePartData("b/BPart"))
+        assertNull(client.getPackagePartData("c/CPart"))
+
+        registerInlines(client, 3)
+        client.close()
+        assertEquals(inlines(3), remote.registeredInlines)
+
+        // the batched call is tried only once
+        assertEquals(listOf("incrementalCache_getSessionData",
+                            "incrementalCache_getObsoletePackageParts",
+                            "incrementalCache_getObsoleteMultifileClassFacades",
+                            "incrementalCache_getModuleMappingData",
+                            "incrementalCache_getPackagePartData",
+                            "incrementalCache_getPackagePartData",
+                            "incrementalCache_getPackagePartData",
+                            "incrementalCache_registerInline",
+                            "incrementalCache_registerInline",
+                            "incrementalCache_registerInline",
+                            "incrementalCache_close"),
+                     remote.calls)
+    }
+
+    private fun inlines(count: Int) = (1..count).map { InlineRegistration("from$it", "f$it()V", "to$it") }
+
+    private fun registerInlines(client: RemoteIncrementalCacheClient, count: Int) {
+        for (inline in inlines(count)) {
+            client.registerInline(inline.fromPath, inline.jvmSignature, inline.toPath)
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2010-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import junit.framework.TestCase
+import org.jetbrains.kotlin.daemon.client.RemoteOutputStreamServer
+import org.jetbrains.kotlin.daemon.client.SOCKET_CHANNEL_TOKEN_LENGTH
+import org.jetbrains.kotlin.daemon.common.LoopbackNetworkInterface
+import org.jetbrains.kotlin.daemon.common.RemoteOutputStream
+import org.jetbrains.kotlin.daemon.common.SOCKET_ANY_FREE_PORT
+import org.jetbrains.kotlin.daemon.common.SocketChannelAddress
+import java.io.ByteArrayOutputStream
+import java.net.Socket
+import java.rmi.server.UnicastRemoteObject
+import java.util.*
+import kotlin.concurrent.thread
+
+class RemoteOutputStreamTest : TestCase() {
+
+    // counts rmi writes, other calls go to the delegate
+    private class CountingRemote(val delegate: RemoteOutputStream) : RemoteOutputStream by delegate {
+        var writes = 0
+
+        override fun write(data: ByteArray, offset: Int, length: Int) {
+            writes++
+            delegate.write(data, offset, length)
+        }
+
+        override fun write(dataByte: Int) {
+            writes++
+            delegate.write(dataByte)
+        }
+    }
+
+    private fun withServer(allowSocketChannels: Boolean, body: (ByteArrayOutputStream, CountingRemote) -> Unit) {
+        val out = ByteArrayOutputStream()
+        val server = RemoteOutputStreamServer(out, allowSocketChannels = allowSocketChannels)
+        try {
+            body(out, CountingRemote(server))
+        }
+        finally {
+            UnicastRemoteObject.unexportObject(server, true)
+        }
+    }
+
+    private fun lines(from: Int, to: Int) = (from..to - 1).joinToString("") { "line $it\n" }
+
+    fun testSocketChannel() = withServer(allowSocketChannels = true) { out, remote ->
+        val client = RemoteOutputStreamClient(remote)
+        client.write(lines(0, 1000).toByteArray())
+        client.write('!'.toInt())
+        // written on the other side when flush returns
+        client.flush()
+        assertEquals(lines(0, 1000) + "!", out.toString())
+
+        client.write(lines(1000, 2000).toByteArray())
+        client.close()
+        assertEquals(lines(0, 1000) + "!" + lines(1000, 2000), out.toString())
+        assertEquals(0, remote.writes)
+    }
+
+    fun testRmiCallsIfChannelsNotSupported() = withServer(allowSocketChannels = false) { out, remote ->
+        val client = RemoteOutputStreamClient(remote)
+        client.write(lines(0, 10).toByteArray())
+        client.write('!'.toInt())
+        client.close()
+        assertEquals(lines(0, 10) + "!", out.toString())
+        assertEquals(2, remote.writes)
+    }
+
+    fun testConnectionWithoutTokenIsDropped() = withServer(allowSocketChannels = true) { out, remote ->
+        var intruder: Socket? = null
+        // another local process connects to the channel before the client does
+        val intrudingRemote = object : RemoteOutputStream by remote {
+            override fun openSocketChannel(): SocketChannelAddress? {
+                val address = remote.openSocketChannel()!!
+                intruder = LoopbackNetworkInterface.clientLoopbackSocketFactory.createSocket(LoopbackNetworkInterface.loopbackInetAddressName, address.port)
+                intruder!!.outputStream.write(ByteArray(address.token.size) { 1 })
+                return address
+            }
+        }
+
+        val client = RemoteOutputStreamClient(intrudingRemote)
+        client.write(lines(0, 100).toByteArray())
+        client.close()
+        assertEquals(lines(0, 100), out.toString())
+        assertEquals(0, remote.writes)
+        intruder!!.use { assertEquals(-1, it.inputStream.read()) }
+    }
+
+    fun testDataSentBeforeChannelBreaksIsWrittenFirst() {
+        val events = Collections.synchronizedList(ArrayList<String>())
+        val serverSocket = LoopbackNetworkInterface.serverLoopbackSocketFactory.createServerSocket(SOCKET_ANY_FREE_PORT)
+        val remote = object : RemoteOutputStream {
+            override fun openSocketChannel() = SocketChannelAddress(serverSocket.localPort, ByteArray(SOCKET_CHANNEL_TOKEN_LENGTH))
+            override fun awaitSocketChannel(port: Int, dataLength: Long) { events.add("await") }
+            override fun write(data: ByteArray, offset: Int, length: Int) { events.add("write") }
+            override fun write(dataByte: Int) { events.add("write") }
+            override fun close() {}
+        }
+
+        // the other side breaks the channel after reading some data
+        val reader = thread {
+            serverSocket.accept().use { it.inputStream.read(ByteArray(1024)) }
+            serverSocket.close()
+        }
+
+        val client = RemoteOutputStreamClient(remote)
+        val chunk = ByteArray(65536)
+        for (i in 1..10000) {
+            client.write(chunk)
+            if (events.isNotEmpty()) break
+        }
+        reader.join()
+
+        assertEquals(listOf("await", "write"), events)
+        client.write(chunk)
+        client.close()
+        assertEquals(listOf("await", "write", "write"), events)
+    }
+}
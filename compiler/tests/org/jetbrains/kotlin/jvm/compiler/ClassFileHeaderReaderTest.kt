@@ -0,0 +1,112 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.jvm.compiler
+
+import junit.framework.TestCase
+import org.jetbrains.kotlin.codegen.forTestCompile.ForTestCompileRuntime
+import org.jetbrains.kotlin.load.kotlin.ClassFileHeaderReader
+import org.jetbrains.org.objectweb.asm.AnnotationVisitor
+import org.jetbrains.org.objectweb.asm.ClassReader
+import org.jetbrains.org.objectweb.asm.ClassVisitor
+import org.jetbrains.org.objectweb.asm.Opcodes
+import java.io.File
+import java.util.*
+import java.util.zip.ZipFile
+
+class ClassFileHeaderReaderTest : TestCase() {
+    fun testRuntimeClasses() {
+        doTest(ForTestCompileRuntime.runtimeJarForTests())
+    }
+
+    fun testReflectClasses() {
+        doTest(ForTestCompileRuntime.reflectJarForTests())
+    }
+
+    private fun doTest(jar: File) {
+        ZipFile(jar).use { zip ->
+            var classes = 0
+            for (entry in zip.entries()) {
+                if (!entry.name.endsWith(".class")) continue
+                val bytes = zip.getInputStream(entry).use { it.readBytes() }
+
+                val expected = ArrayList<String>()
+                ClassReader(bytes).accept(RecordingClassVisitor(expected), ClassReader.SKIP_CODE or ClassReader.SKIP_DEBUG or ClassReader.SKIP_FRAMES)
+
+                val actual = ArrayList<String>()
+                ClassFileHeaderReader.accept(bytes, RecordingClassVisitor(actual))
+
+                assertEquals("Different events for ${entry.name}", expected.joinToString("\n"), actual.joinToString("\n"))
+                classes++
+            }
+            assertTrue("No classes in $jar", classes > 0)
+        }
+    }
+
+    private class RecordingClassVisitor(private val events: MutableList<String>) : ClassVisitor(Opcodes.ASM5) {
+        override fun visit(version: Int, access: Int, name: String, signature: String?, superName: String?, interfaces: Array<out String>?) {
+            events.add("visit $version $access $name $signature $superName ${interfaces?.toList()}")
+        }
+
+        override fun visitAnnotation(desc: String, visible: Boolean): AnnotationVisitor {
+            events.add("annotation $desc $visible")
+            return RecordingAnnotationVisitor(events)
+        }
+
+        override fun visitInnerClass(name: String, outerName: String?, innerName: String?, access: Int) {
+            events.add("innerClass $name $outerName $innerName $access")
+        }
+
+        override fun visitEnd() {
+            events.add("end")
+        }
+    }
+
+    private class RecordingAnnotationVisitor(private val events: MutableList<String>) : AnnotationVisitor(Opcodes.ASM5) {
+        override fun visit(name: String?, value: Any) {
+            val rendered = when (value) {
+                is IntArray -> Arrays.toString(value)
+                is ByteArray -> Arrays.toString(value)
+                is BooleanArray -> Arrays.toString(value)
+                is ShortArray -> Arrays.toString(value)
+                is CharArray -> Arrays.toString(value)
+                is LongArray -> Arrays.toString(value)
+                is FloatArray -> Arrays.toString(value)
+                is DoubleArray -> Arrays.toString(value)
+                else -> value.toString()
+            }
+            events.add("value $name ${value.javaClass.simpleName} $rendered")
+        }
+
+        override fun visitEnum(name: String?, desc: String, value: String) {
+            events.add("enum $name $desc $value")
+        }
+
+        override fun visitAnnotation(name: String?, desc: String): AnnotationVisitor {
+            events.add("annotation $name $desc")
+            return RecordingAnnotationVisitor(events)
+        }
+
+        override fun visitArray(name: String?): AnnotationVisitor {
+            events.add("array $name")
+            return RecordingAnnotationVisitor(events)
+        }
+
+        override fun visitEnd() {
+            events.add("end")
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2010-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.load.kotlin
+
+import com.intellij.openapi.components.ServiceManager
+import com.intellij.openapi.vfs.VirtualFile
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.codegen.forTestCompile.ForTestCompileRuntime
+import org.jetbrains.kotlin.resolve.lazy.KotlinTestWithEnvironment
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import java.util.*
+import kotlin.concurrent.thread
+
+class KotlinBinaryClassCacheTest : KotlinTestWithEnvironment() {
+    override fun createEnvironment(): KotlinCoreEnvironment {
+        return KotlinTestUtils.createEnvironmentWithMockJdkAndIdeaAnnotations(testRootDisposable)
+    }
+
+    private val service: KotlinBinaryClassCache
+        get() = ServiceManager.getService(KotlinBinaryClassCache::class.java)
+
+    private fun runtimeClassFile(path: String): VirtualFile =
+            KotlinCoreEnvironment.applicationEnvironment!!.jarFileSystem.findFileByPath(
+                    ForTestCompileRuntime.runtimeJarForTests().path + "!/" + path)!!
+
+    // every new thread starts with an empty cache of the last class it read
+    private fun readInNewThread(file: VirtualFile): KotlinJvmBinaryClass? {
+        var result: KotlinJvmBinaryClass? = null
+        thread { result = KotlinBinaryClassCache.getKotlinBinaryClass(file) }.join()
+        return result
+    }
+
+    fun testClassSharedBetweenThreads() {
+        val file = runtimeClassFile("kotlin/Unit.class")
+        val misses = service.missCount
+        val hits = service.hitCount
+
+        val first = readInNewThread(file)
+        assertNotNull(first)
+        assertSame(first, readInNewThread(file))
+        assertSame(first, KotlinBinaryClassCache.getKotlinBinaryClass(file))
+
+        assertEquals(misses + 1, service.missCount)
+        assertEquals(hits + 2, service.hitCount)
+    }
+
+    fun testNonKotlinClassShared() {
+        val file = runtimeClassFile("kotlin/jvm/internal/Intrinsics.class")
+        val misses = service.missCount
+
+        assertNull(readInNewThread(file))
+        assertNull(readInNewThread(file))
+        assertEquals(misses + 1, service.missCount)
+    }
+
+    fun testClearSharedCache() {
+        val file = runtimeClassFile("kotlin/Unit.class")
+        val first = readInNewThread(file)
+        assertTrue(service.sharedCacheSize > 0)
+
+        service.clearSharedCache()
+        assertEquals(0, service.sharedCacheSize)
+
+        val misses = service.missCount
+        val second = readInNewThread(file)
+        assertNotSame(first, second)
+        assertEquals(first!!.classId, second!!.classId)
+        assertEquals(misses + 1, service.missCount)
+    }
+
+    fun testConcurrentReads() {
+        val files = listOf("kotlin/Unit.class", "kotlin/Pair.class", "kotlin/Triple.class", "kotlin/jvm/internal/Intrinsics.class")
+                .map { runtimeClassFile(it) }
+        val results = (1..8).map { Collections.synchronizedList(ArrayList<KotlinJvmBinaryClass?>()) }
+        results.map { result ->
+            thread {
+                for (i in 1..100) {
+                    for (file in files) {
+                        result.add(KotlinBinaryClassCache.getKotlinBinaryClass(file))
+                    }
+                }
+            }
+        }.forEach { it.join() }
+
+        // a file read at the same time by several threads may be read more than once, but the classes are the same
+        for (result in results) {
+            assertEquals(files.size * 100, result.size)
+            assertEquals(results.first().map { it?.classId }, result.map { it?.classId })
+        }
+        assertNull(results.first()[3])
+        assertTrue(service.sharedCacheSize >= files.size)
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2010-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.load.kotlin
+
+import junit.framework.TestCase
+import org.jetbrains.kotlin.load.kotlin.header.KotlinClassHeader
+import org.jetbrains.kotlin.name.ClassId
+import org.jetbrains.kotlin.name.Name
+import org.jetbrains.kotlin.serialization.ClassData
+import org.jetbrains.kotlin.serialization.PackageData
+import org.jetbrains.kotlin.serialization.ProtoBuf
+import org.jetbrains.kotlin.serialization.deserialization.NameResolver
+import java.util.*
+
+class LibraryProtoCacheTest : TestCase() {
+    private class FakeClass(private val location: String) : KotlinJvmBinaryClass {
+        override fun getLocation() = location
+        override fun getClassId(): ClassId = throw UnsupportedOperationException()
+        override fun getClassHeader(): KotlinClassHeader = throw UnsupportedOperationException()
+        override fun loadClassAnnotations(visitor: KotlinJvmBinaryClass.AnnotationVisitor) = throw UnsupportedOperationException()
+        override fun visitMembers(visitor: KotlinJvmBinaryClass.MemberVisitor) = throw UnsupportedOperationException()
+    }
+
+    private object FakeNameResolver : NameResolver {
+        override fun getString(index: Int): String = throw UnsupportedOperationException()
+        override fun getName(index: Int): Name = throw UnsupportedOperationException()
+        override fun getClassId(index: Int): ClassId = throw UnsupportedOperationException()
+    }
+
+    private val parsed = ArrayList<String>()
+
+    private fun LibraryProtoCache.classData(location: String, data: String = "data", strings: String = "strings"): ClassData =
+            getClassData(FakeClass(location), arrayOf(data), arrayOf(strings)) {
+                parsed.add(location)
+                ClassData(FakeNameResolver, ProtoBuf.Class.getDefaultInstance())
+            }
+
+    private fun LibraryProtoCache.packageData(location: String): PackageData =
+            getPackageData(FakeClass(location), arrayOf("data"), arrayOf("strings")) {
+                parsed.add(location)
+                PackageData(FakeNameResolver, ProtoBuf.Package.getDefaultInstance())
+            }
+
+    fun testParsedOnce() {
+        val cache = LibraryProtoCache()
+        val first = cache.classData("a.class")
+        // equal header data in different arrays, as if the class was read again in another compilation
+        val second = cache.classData("a.class")
+
+        assertSame(first, second)
+        assertEquals(listOf("a.class"), parsed)
+        assertEquals(1, cache.size)
+    }
+
+    fun testChangedDataParsedAgain() {
+        val cache = LibraryProtoCache()
+        val first = cache.classData("a.class")
+        assertNotSame(first, cache.classData("a.class", data = "changed"))
+        assertNotSame(first, cache.classData("a.class", strings = "changed"))
+        assertEquals(3, parsed.size)
+
+        // a package part with the same data at the location of a former class
+        cache.classData("a.class")
+        cache.packageData("a.class")
+        assertEquals(5, parsed.size)
+        assertEquals(1, cache.size)
+    }
+
+    fun testLeastRecentlyUsedEvicted() {
+        val cache = LibraryProtoCache(maxEntries = 2)
+        cache.classData("a.class")
+        cache.classData("b.class")
+        cache.classData("a.class")
+        cache.classData("c.class")
+        assertEquals(2, cache.size)
+        assertEquals(listOf("a.class", "b.class", "c.class"), parsed)
+
+        cache.classData("a.class")
+        cache.classData("b.class")
+        assertEquals(listOf("a.class", "b.class", "c.class", "b.class"), parsed)
+    }
+
+    fun testClear() {
+        val cache = LibraryProtoCache()
+        cache.classData("a.class")
+        cache.clear()
+        assertEquals(0, cache.size)
+
+        cache.classData("a.class")
+        assertEquals(listOf("a.class", "a.class"), parsed)
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2010-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.resolve
+
+import com.intellij.openapi.util.io.FileUtil
+import com.intellij.psi.PsiElement
+import org.jetbrains.kotlin.checkers.CheckerTestUtil
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.descriptors.DeclarationDescriptor
+import org.jetbrains.kotlin.diagnostics.rendering.DefaultErrorMessages
+import org.jetbrains.kotlin.psi.Call
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.renderer.DescriptorRenderer
+import org.jetbrains.kotlin.resolve.calls.model.ResolvedCall
+import org.jetbrains.kotlin.resolve.lazy.JvmResolveUtil
+import org.jetbrains.kotlin.resolve.lazy.KotlinTestWithEnvironment
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.types.expressions.KotlinTypeInfo
+import org.jetbrains.kotlin.util.slicedMap.ReadOnlySlice
+import java.io.File
+import java.util.*
+
+class ParallelBodyResolveTest : KotlinTestWithEnvironment() {
+    override fun createEnvironment(): KotlinCoreEnvironment {
+        return KotlinTestUtils.createEnvironmentWithMockJdkAndIdeaAnnotations(testRootDisposable)
+    }
+
+    fun testDiagnostics() {
+        doTest("diagnostics/tests/AutoCreatedIt.kt")
+        doTest("diagnostics/tests/AnonymousInitializers.kt")
+        doTest("diagnostics/tests/BinaryCallsOnNullableValues.kt")
+    }
+
+    fun testBoxTests() {
+        doTest("codegen/box/controlStructures/forUserType.kt")
+        doTest("codegen/box/delegatedProperty/varInInnerClass.kt")
+        doTest("codegen/box/properties/classObjectProperties.kt")
+        doTest("codegen/box/secondaryConstructors/innerClasses.kt")
+    }
+
+    private fun doTest(path: String) {
+        val file = File(KotlinTestUtils.getTestDataPathBase(), path)
+        val text = CheckerTestUtil.parseDiagnosedRanges(FileUtil.loadFile(file, true), ArrayList())
+        val ktFile = KotlinTestUtils.createFile(file.name, text, project)
+
+        val sequential = BodyResolver.runWithParallelBodyResolve(false) { analyze(ktFile) }
+        val parallel = BodyResolver.runWithParallelBodyResolve(true) { analyze(ktFile) }
+
+        assertEquals(path, sequential, parallel)
+    }
+
+    // Descriptors of the two analyses are different objects, so the contents are compared as text
+    private fun analyze(file: KtFile): String {
+        val bindingContext = JvmResolveUtil.analyzeFilesWithJavaIntegration(project, listOf(file), environment).bindingContext
+
+        val lines = ArrayList<String>()
+        for (diagnostic in bindingContext.diagnostics.all()) {
+            lines.add("${diagnostic.factory.name} ${render(diagnostic.psiElement)}: ${DefaultErrorMessages.render(diagnostic)}")
+        }
+
+        for (slice in listOf(BindingContext.EXPRESSION_TYPE_INFO, BindingContext.REFERENCE_TARGET, BindingContext.RESOLVED_CALL,
+                             BindingContext.SMARTCAST, BindingContext.CAPTURED_IN_CLOSURE, BindingContext.BACKING_FIELD_REQUIRED)) {
+            @Suppress("UNCHECKED_CAST")
+            val contents = bindingContext.getSliceContents(slice as ReadOnlySlice<Any, Any>)
+            for ((key, value) in contents) {
+                lines.add("$slice ${render(key)} -> ${render(value)}")
+            }
+        }
+
+        return lines.sorted().joinToString("\n")
+    }
+
+    private fun render(value: Any?): String =
+            when (value) {
+                is PsiElement -> "'${value.text}' at ${value.textRange}"
+                is DeclarationDescriptor -> DescriptorRenderer.DEBUG_TEXT.render(value)
+                is KotlinTypeInfo -> value.type.toString()
+                is ResolvedCall<*> -> DescriptorRenderer.DEBUG_TEXT.render(value.resultingDescriptor)
+                is Call -> render(value.callElement)
+                else -> value.toString()
+            }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.serialization
+
+import com.google.protobuf.ExtensionRegistryLite
+import junit.framework.TestCase
+import org.jetbrains.kotlin.serialization.deserialization.LazyMemberProtos
+import java.util.*
+
+class LazyMemberProtosTest : TestCase() {
+    fun testSplitPackage() {
+        val type = ProtoBuf.Type.newBuilder().setClassName(0).build()
+        val function = ProtoBuf.Function.newBuilder().setName(1).setReturnTypeId(0).build()
+        val extensionFunction = ProtoBuf.Function.newBuilder().setName(2).setReturnTypeId(0).setReceiverTypeId(0).build()
+        val property = ProtoBuf.Property.newBuilder().setName(3).setReturnTypeId(0).build()
+        val extensionProperty = ProtoBuf.Property.newBuilder().setName(4).setReturnTypeId(0).setReceiverType(type).build()
+
+        val packageProto = ProtoBuf.Package.newBuilder()
+                .addFunction(function)
+                .addProperty(property)
+                .addFunction(extensionFunction)
+                .addProperty(extensionProperty)
+                .setTypeTable(ProtoBuf.TypeTable.newBuilder().addType(type))
+                .build()
+
+        val prefix = byteArrayOf(42, 42, 42)
+        val bytes = prefix + packageProto.toByteArray()
+        val (rest, members) = LazyMemberProtos.split(
+                bytes, prefix.size, ProtoBuf.Package.FUNCTION_FIELD_NUMBER, ProtoBuf.Package.PROPERTY_FIELD_NUMBER,
+                ExtensionRegistryLite.getEmptyRegistry()
+        )
+
+        val restProto = ProtoBuf.Package.parseFrom(rest)
+        assertEquals(0, restProto.functionCount)
+        assertEquals(0, restProto.propertyCount)
+        assertTrue(Arrays.equals(packageProto.typeTable.toByteArray(), restProto.typeTable.toByteArray()))
+
+        assertEquals(listOf(1 to false, 2 to true), members.functions.map { it.nameIndex to it.isExtension })
+        assertEquals(listOf(3 to false, 4 to true), members.properties.map { it.nameIndex to it.isExtension })
+
+        assertTrue(Arrays.equals(function.toByteArray(), members.functions[0].proto.toByteArray()))
+        assertTrue(Arrays.equals(extensionFunction.toByteArray(), members.functions[1].proto.toByteArray()))
+        assertTrue(Arrays.equals(property.toByteArray(), members.properties[0].proto.toByteArray()))
+        assertTrue(Arrays.equals(extensionProperty.toByteArray(), members.properties[1].proto.toByteArray()))
+    }
+}
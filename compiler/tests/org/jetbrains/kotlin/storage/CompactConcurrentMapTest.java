@@ -0,0 +1,130 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.storage;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class CompactConcurrentMapTest extends TestCase {
+    public void testSmallMap() throws Exception {
+        CompactConcurrentMap<String, Integer> map = new CompactConcurrentMap<String, Integer>();
+        assertNull(map.get("a"));
+
+        assertNull(map.put("a", 1));
+        assertNull(map.putIfAbsent("b", 2));
+        assertEquals(Integer.valueOf(1), map.putIfAbsent("a", 3));
+        assertEquals(Integer.valueOf(1), map.put("a", 4));
+
+        assertEquals(2, map.size());
+        assertEquals(Integer.valueOf(4), map.get("a"));
+        assertEquals(Integer.valueOf(2), map.get("b"));
+        assertFalse(map.containsKey("c"));
+    }
+
+    public void testGrowthAndCollisions() throws Exception {
+        CompactConcurrentMap<CollidingKey, Integer> map = new CompactConcurrentMap<CollidingKey, Integer>();
+        Map<CollidingKey, Integer> expected = new HashMap<CollidingKey, Integer>();
+        for (int i = 0; i < 1000; i++) {
+            CollidingKey key = new CollidingKey(i);
+            map.put(key, i);
+            expected.put(key, i);
+            assertEquals(Integer.valueOf(i), map.get(new CollidingKey(i)));
+        }
+
+        assertEquals(expected, map);
+        assertEquals(expected.size(), map.entrySet().size());
+        assertNull(map.get(new CollidingKey(1000)));
+    }
+
+    public void testReplace() throws Exception {
+        CompactConcurrentMap<String, String> map = new CompactConcurrentMap<String, String>();
+        assertNull(map.replace("a", "x"));
+        map.put("a", "1");
+        assertFalse(map.replace("a", "2", "3"));
+        assertTrue(map.replace("a", "1", "3"));
+        assertEquals("3", map.replace("a", "4"));
+        assertEquals("4", map.get("a"));
+    }
+
+    public void testConcurrentPutIfAbsent() throws Exception {
+        final CompactConcurrentMap<Integer, Object> map = new CompactConcurrentMap<Integer, Object>();
+        final int keys = 10000;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Object[]>> futures = new ArrayList<Future<Object[]>>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(new Callable<Object[]>() {
+                    @Override
+                    public Object[] call() throws Exception {
+                        start.await();
+                        Object[] results = new Object[keys];
+                        for (int key = 0; key < keys; key++) {
+                            Object value = map.get(key);
+                            if (value == null) {
+                                Object newValue = new Object();
+                                Object oldValue = map.putIfAbsent(key, newValue);
+                                value = oldValue != null ? oldValue : newValue;
+                            }
+                            results[key] = value;
+                        }
+                        return results;
+                    }
+                }));
+            }
+            start.countDown();
+
+            for (Future<Object[]> future : futures) {
+                Object[] results = future.get();
+                for (int key = 0; key < keys; key++) {
+                    assertSame(map.get(key), results[key]);
+                }
+            }
+            assertEquals(keys, map.size());
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    private static class CollidingKey {
+        private final int id;
+
+        private CollidingKey(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CollidingKey && ((CollidingKey) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id % 7;
+        }
+    }
+}
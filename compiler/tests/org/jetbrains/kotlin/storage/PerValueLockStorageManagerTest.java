@@ -0,0 +1,252 @@
+/*
+ * Copyright 2010-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.storage;
+
+import kotlin.jvm.functions.Function0;
+import kotlin.jvm.functions.Function1;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs all the tests of StorageManagerTest against PerValueLockStorageManager, and checks how computations on different threads interact
+public class PerValueLockStorageManagerTest extends StorageManagerTest {
+    private static final int THREADS = 8;
+    private static final int KEYS = 100;
+    private static final long TIMEOUT_SECONDS = 30;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        m = new PerValueLockStorageManager();
+    }
+
+    public void testEveryValueComputedOnceUnderContention() throws Exception {
+        final AtomicInteger functionComputations = new AtomicInteger();
+        final AtomicInteger lazyValueComputations = new AtomicInteger();
+        final MemoizedFunctionToNotNull<Integer, Object> f = m.createMemoizedFunction(new Function1<Integer, Object>() {
+            @Override
+            public Object invoke(Integer key) {
+                functionComputations.incrementAndGet();
+                Thread.yield();
+                return new Object();
+            }
+        });
+        final NotNullLazyValue<Object> value = m.createLazyValue(new Function0<Object>() {
+            @Override
+            public Object invoke() {
+                lazyValueComputations.incrementAndGet();
+                Thread.yield();
+                return new Object();
+            }
+        });
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Object[]> results = Collections.synchronizedList(new ArrayList<Object[]>());
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (int i = 0; i < THREADS; i++) {
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    await(start);
+                    Object[] result = new Object[KEYS + 1];
+                    result[0] = value.invoke();
+                    for (int key = 0; key < KEYS; key++) {
+                        result[key + 1] = f.invoke(key);
+                    }
+                    results.add(result);
+                }
+            });
+        }
+        tasks.add(new Runnable() {
+            @Override
+            public void run() {
+                start.countDown();
+            }
+        });
+        runConcurrently(tasks);
+
+        assertEquals(KEYS, functionComputations.get());
+        assertEquals(1, lazyValueComputations.get());
+        assertEquals(THREADS, results.size());
+        for (Object[] result : results) {
+            for (int i = 0; i <= KEYS; i++) {
+                assertSame(results.get(0)[i], result[i]);
+            }
+        }
+    }
+
+    // with a global lock the second computation can't start until the first one finishes, so it would never finish
+    public void testDifferentValuesComputedConcurrently() throws Exception {
+        final CountDownLatch secondStarted = new CountDownLatch(1);
+        final NotNullLazyValue<String> first = m.createLazyValue(new Function0<String>() {
+            @Override
+            public String invoke() {
+                await(secondStarted);
+                return "first";
+            }
+        });
+        final MemoizedFunctionToNotNull<String, String> second = m.createMemoizedFunction(new Function1<String, String>() {
+            @Override
+            public String invoke(String s) {
+                secondStarted.countDown();
+                return s;
+            }
+        });
+
+        runConcurrently(Arrays.<Runnable>asList(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        assertEquals("first", first.invoke());
+                    }
+                },
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        assertEquals("second", second.invoke("second"));
+                    }
+                }
+        ));
+    }
+
+    // a waits for b, which is computed on the other thread and waits for a, so one of the threads gets the recursive call result
+    public void testCycleOfComputationsOnDifferentThreadsIsRecursion() throws Exception {
+        final CountDownLatch aStarted = new CountDownLatch(1);
+        final CountDownLatch bStarted = new CountDownLatch(1);
+        class C {
+            final NotNullLazyValue<String> a = m.createRecursionTolerantLazyValue(new Function0<String>() {
+                @Override
+                public String invoke() {
+                    aStarted.countDown();
+                    await(bStarted);
+                    return "a" + b.invoke();
+                }
+            }, "a?");
+
+            final NotNullLazyValue<String> b = m.createRecursionTolerantLazyValue(new Function0<String>() {
+                @Override
+                public String invoke() {
+                    bStarted.countDown();
+                    await(aStarted);
+                    return "b" + a.invoke();
+                }
+            }, "b?");
+        }
+        final C c = new C();
+
+        runConcurrently(Arrays.<Runnable>asList(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        c.a.invoke();
+                    }
+                },
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        c.b.invoke();
+                    }
+                }
+        ));
+
+        List<String> results = Arrays.asList(c.a.invoke(), c.b.invoke());
+        assertTrue(results.toString(), results.equals(Arrays.asList("ab?", "bab?")) || results.equals(Arrays.asList("aba?", "ba?")));
+    }
+
+    // the lock of compute() is released while the thread waits for a value which needs the lock to be computed
+    public void testComputeLockReleasedWhileWaiting() throws Exception {
+        final CountDownLatch valueStarted = new CountDownLatch(1);
+        final CountDownLatch lockTaken = new CountDownLatch(1);
+        final NotNullLazyValue<String> value = m.createLazyValue(new Function0<String>() {
+            @Override
+            public String invoke() {
+                valueStarted.countDown();
+                await(lockTaken);
+                return m.compute(new Function0<String>() {
+                    @Override
+                    public String invoke() {
+                        return "value";
+                    }
+                });
+            }
+        });
+
+        runConcurrently(Arrays.<Runnable>asList(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        assertEquals("value", value.invoke());
+                    }
+                },
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        await(valueStarted);
+                        String result = m.compute(new Function0<String>() {
+                            @Override
+                            public String invoke() {
+                                lockTaken.countDown();
+                                return value.invoke();
+                            }
+                        });
+                        assertEquals("value", result);
+                    }
+                }
+        ));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue("Timed out", latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+        catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void runConcurrently(List<Runnable> tasks) throws Exception {
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (final Runnable task : tasks) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    }
+                    catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            });
+            // threads blocked forever must not keep the test process alive
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+            assertFalse("Computations are blocked", thread.isAlive());
+        }
+        if (!errors.isEmpty()) {
+            throw new AssertionError(errors.get(0));
+        }
+    }
+}
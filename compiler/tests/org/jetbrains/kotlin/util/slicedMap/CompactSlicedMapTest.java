@@ -0,0 +1,234 @@
+/*
+ * Copyright 2010-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.util.slicedMap;
+
+import com.google.common.collect.ImmutableMap;
+import junit.framework.TestCase;
+import kotlin.jvm.functions.Function3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class CompactSlicedMapTest extends TestCase {
+    public static final WritableSlice<Object, Integer> NUMBER = new BasicWritableSlice<Object, Integer>(RewritePolicy.DO_NOTHING);
+    public static final WritableSlice<Object, String> NAME = new BasicWritableSlice<Object, String>(RewritePolicy.DO_NOTHING);
+    public static final WritableSlice<Object, Boolean> MARKED = Slices.createCollectiveSetSlice();
+
+    // Rewrites are recorded, and only rewrites to greater values are allowed
+    private static final List<String> rewrites = new ArrayList<String>();
+    public static final WritableSlice<Object, Integer> GROWING = new BasicWritableSlice<Object, Integer>(new RewritePolicy() {
+        @Override
+        public <K> boolean rewriteProcessingNeeded(K key) {
+            return true;
+        }
+
+        @Override
+        public <K, V> boolean processRewrite(WritableSlice<K, V> slice, K key, V oldValue, V newValue) {
+            rewrites.add(key + ": " + oldValue + " -> " + newValue);
+            return (Integer) newValue > (Integer) oldValue;
+        }
+    }, true);
+
+    static {
+        BasicWritableSlice.initSliceDebugNames(CompactSlicedMapTest.class);
+    }
+
+    public void testSlicesAreIndependent() {
+        CompactSlicedMap map = CompactSlicedMap.create();
+        Object key = new Object();
+
+        map.put(NUMBER, key, 42);
+        map.put(NAME, key, "answer");
+
+        assertEquals(42, (int) map.get(NUMBER, key));
+        assertEquals("answer", map.get(NAME, key));
+        assertNull(map.get(NUMBER, new Object()));
+        assertFalse(map.get(MARKED, key));
+    }
+
+    public void testRawValueVersionReadsSameValues() {
+        CompactSlicedMap map = CompactSlicedMap.create();
+        map.put(MARKED, "key", true);
+
+        assertTrue(map.get(MARKED, "key"));
+        assertTrue(map.get(MARKED.makeRawValueVersion(), "key"));
+        assertNull(map.get(MARKED.makeRawValueVersion(), "other"));
+        assertEquals(1, map.getKeys(MARKED).size());
+    }
+
+    public void testSameContentsAsSlicedMapImpl() {
+        CompactSlicedMap compact = CompactSlicedMap.create();
+        SlicedMapImpl impl = SlicedMapImpl.create();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 10000; i++) {
+            // equal keys which are different objects must be found
+            Object key = random.nextBoolean() ? random.nextInt(1000) : "key" + random.nextInt(1000);
+            int value = random.nextInt(10);
+
+            compact.put(NUMBER, key, value);
+            impl.put(NUMBER, key, value);
+            compact.put(NAME, key, "" + value);
+            impl.put(NAME, key, "" + value);
+
+            Object otherKey = random.nextInt(2000);
+            assertEquals(impl.get(NUMBER, otherKey), compact.get(NUMBER, otherKey));
+        }
+
+        assertEquals(impl.getSliceContents(NUMBER), compact.getSliceContents(NUMBER));
+        assertEquals(impl.getSliceContents(NAME), compact.getSliceContents(NAME));
+        assertEquals(collectEntries(impl), collectEntries(compact));
+
+        compact.clear();
+        assertEquals(ImmutableMap.of(), compact.getSliceContents(NUMBER));
+        assertTrue(collectEntries(compact).isEmpty());
+    }
+
+    public void testMovedContentsAreSameAsCopied() {
+        CompactSlicedMap target = CompactSlicedMap.create();
+        final SlicedMapImpl impl = SlicedMapImpl.create();
+        Random random = new Random(42);
+
+        // enough moves to have the layers of the target merged
+        for (int move = 0; move < 20; move++) {
+            CompactSlicedMap source = CompactSlicedMap.create();
+            int count = random.nextInt(300);
+            for (int i = 0; i < count; i++) {
+                Object key = random.nextInt(500);
+                Integer value = random.nextInt(5) == 0 ? null : random.nextInt(10);
+
+                source.put(NUMBER, key, value);
+                source.put(MARKED, key, true);
+            }
+
+            source.forEach(new Function3<WritableSlice, Object, Object, Void>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Void invoke(WritableSlice slice, Object key, Object value) {
+                    impl.put(slice, key, value);
+                    return null;
+                }
+            });
+            source.moveAllTo(target);
+
+            assertTrue(collectEntries(source).isEmpty());
+            for (int key = 0; key < 500; key++) {
+                assertEquals(impl.get(NUMBER, key), target.get(NUMBER, key));
+            }
+            target.put(NAME, move, "" + move);
+            impl.put(NAME, move, "" + move);
+        }
+
+        assertEquals(impl.getSliceContents(NUMBER), target.getSliceContents(NUMBER));
+        assertEquals(impl.getSliceContents(NAME), target.getSliceContents(NAME));
+        assertEquals(collectEntries(impl), collectEntries(target));
+        assertEquals(new HashSet<Object>(impl.getKeys(MARKED)), new HashSet<Object>(target.getKeys(MARKED)));
+    }
+
+    public void testRewritesAreProcessedOnMove() {
+        rewrites.clear();
+        CompactSlicedMap target = CompactSlicedMap.create();
+        target.put(GROWING, "a", 1);
+        target.put(GROWING, "b", 5);
+
+        CompactSlicedMap source = CompactSlicedMap.create();
+        source.put(GROWING, "a", 2);
+        source.put(GROWING, "b", 3);
+        source.put(GROWING, "c", 4);
+        source.moveAllTo(target);
+
+        assertEquals(new HashSet<String>(Arrays.asList("a: 1 -> 2", "b: 5 -> 3")), new HashSet<String>(rewrites));
+        assertEquals(2, (int) target.get(GROWING, "a"));
+        assertEquals(5, (int) target.get(GROWING, "b"));
+        assertEquals(4, (int) target.get(GROWING, "c"));
+        // the refused value is not collected once again
+        assertEquals(4, target.getKeys(GROWING).size());
+
+        // merging the layers doesn't process the same rewrites again
+        rewrites.clear();
+        for (int i = 0; i < 10; i++) {
+            CompactSlicedMap other = CompactSlicedMap.create();
+            other.put(GROWING, "other" + i, i);
+            other.moveAllTo(target);
+        }
+        assertTrue(rewrites.isEmpty());
+        assertEquals(5, (int) target.get(GROWING, "b"));
+    }
+
+    public void testRewritesAreProcessedOnlyForKeysNeedingIt() {
+        rewrites.clear();
+        WritableSlice<Object, Integer> growingStrings = new BasicWritableSlice<Object, Integer>(new RewritePolicy() {
+            @Override
+            public <K> boolean rewriteProcessingNeeded(K key) {
+                return key instanceof String;
+            }
+
+            @Override
+            public <K, V> boolean processRewrite(WritableSlice<K, V> slice, K key, V oldValue, V newValue) {
+                rewrites.add(key + ": " + oldValue + " -> " + newValue);
+                return (Integer) newValue > (Integer) oldValue;
+            }
+        });
+
+        CompactSlicedMap target = CompactSlicedMap.create();
+        target.put(growingStrings, "a", 5);
+        target.put(growingStrings, 1, 5);
+
+        CompactSlicedMap source = CompactSlicedMap.create();
+        source.put(growingStrings, "a", 3);
+        source.put(growingStrings, 1, 3);
+        source.moveAllTo(target);
+
+        assertEquals(Collections.singletonList("a: 5 -> 3"), rewrites);
+        assertEquals(5, (int) target.get(growingStrings, "a"));
+        assertEquals(3, (int) target.get(growingStrings, 1));
+    }
+
+    public void testRemovedValueDoesNotShadowTargetValue() {
+        CompactSlicedMap target = CompactSlicedMap.create();
+        target.put(NUMBER, "key", 1);
+
+        CompactSlicedMap lower = CompactSlicedMap.create();
+        lower.put(NUMBER, "key", 2);
+        CompactSlicedMap source = CompactSlicedMap.create();
+        source.put(NAME, "key", "name");
+        lower.moveAllTo(source);
+        source.put(NUMBER, "key", null);
+
+        // copying the data of the source would not remove the value of the target
+        source.moveAllTo(target);
+        assertEquals(1, (int) target.get(NUMBER, "key"));
+        assertEquals("name", target.get(NAME, "key"));
+    }
+
+    private static Set<String> collectEntries(MutableSlicedMap map) {
+        final Set<String> entries = new HashSet<String>();
+        map.forEach(new Function3<WritableSlice, Object, Object, Void>() {
+            @Override
+            public Void invoke(WritableSlice slice, Object key, Object value) {
+                entries.add(slice + " " + key + " " + value);
+                return null;
+            }
+        });
+        return entries;
+    }
+}
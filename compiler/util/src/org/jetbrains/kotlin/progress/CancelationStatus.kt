@@ -26,15 +26,26 @@ interface CompilationCanceledStatus {
 }
 
 object ProgressIndicatorAndCompilationCanceledStatus {
-    private var canceledStatus: CompilationCanceledStatus? = null
+    // shared by the compilation thread and threads started by it, e.g. workers of parallel codegen
+    private class StatusHolder(@Volatile var status: CompilationCanceledStatus?)
+
+    // per compilation thread rather than process-wide, since compilations in the daemon run concurrently
+    private val canceledStatus = InheritableThreadLocal<StatusHolder?>()
 
     @JvmStatic
-    @Synchronized fun setCompilationCanceledStatus(newCanceledStatus: CompilationCanceledStatus?): Unit {
-        canceledStatus = newCanceledStatus
+    fun setCompilationCanceledStatus(newCanceledStatus: CompilationCanceledStatus?): Unit {
+        // also resets the status for threads started by the finished compilation which are still alive
+        canceledStatus.get()?.status = null
+        if (newCanceledStatus != null) {
+            canceledStatus.set(StatusHolder(newCanceledStatus))
+        }
+        else {
+            canceledStatus.remove()
+        }
     }
 
     @JvmStatic fun checkCanceled(): Unit {
         ProgressIndicatorProvider.checkCanceled()
-        canceledStatus?.checkCanceled()
+        canceledStatus.get()?.status?.checkCanceled()
     }
 }
\ No newline at end of file
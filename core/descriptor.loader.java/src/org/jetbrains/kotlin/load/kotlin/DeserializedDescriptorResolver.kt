@@ -22,6 +22,7 @@ import org.jetbrains.kotlin.descriptors.PackageFragmentDescriptor
 import org.jetbrains.kotlin.load.kotlin.header.KotlinClassHeader
 import org.jetbrains.kotlin.resolve.scopes.ChainedMemberScope
 import org.jetbrains.kotlin.resolve.scopes.MemberScope
+import org.jetbrains.kotlin.serialization.ClassData
 import org.jetbrains.kotlin.serialization.ClassDataWithSource
 import org.jetbrains.kotlin.serialization.deserialization.DeserializationComponents
 import org.jetbrains.kotlin.serialization.deserialization.ErrorReporter
@@ -30,7 +31,10 @@ import org.jetbrains.kotlin.serialization.jvm.JvmProtoBufUtil
 import org.jetbrains.kotlin.utils.sure
 import javax.inject.Inject
 
-class DeserializedDescriptorResolver(private val errorReporter: ErrorReporter) {
+class DeserializedDescriptorResolver(
+        private val errorReporter: ErrorReporter,
+        private val protoCache: DeserializedProtoCache
+) {
     lateinit var components: DeserializationComponents
 
     // component dependency cycle
@@ -40,11 +44,7 @@ class DeserializedDescriptorResolver(private val errorReporter: ErrorReporter) {
     }
 
     fun resolveClass(kotlinClass: KotlinJvmBinaryClass): ClassDescriptor? {
-        val data = readData(kotlinClass, KOTLIN_CLASS) ?: return null
-        val strings = kotlinClass.classHeader.strings.sure { "String table not found in $kotlinClass" }
-        val classData = parseProto(kotlinClass) {
-            JvmProtoBufUtil.readClassDataFrom(data, strings)
-        }
+        val classData = readClassData(kotlinClass) ?: return null
         val sourceElement = KotlinJvmBinarySourceElement(kotlinClass)
         return components.classDeserializer.deserializeClass(
                 kotlinClass.classId,
@@ -55,11 +55,13 @@ class DeserializedDescriptorResolver(private val errorReporter: ErrorReporter) {
     private fun createKotlinPackagePartScope(descriptor: PackageFragmentDescriptor, kotlinClass: KotlinJvmBinaryClass): MemberScope? {
         val data = readData(kotlinClass, KOTLIN_FILE_FACADE_OR_MULTIFILE_CLASS_PART) ?: return null
         val strings = kotlinClass.classHeader.strings.sure { "String table not found in $kotlinClass" }
-        val (nameResolver, packageProto) = parseProto(kotlinClass) {
-            JvmProtoBufUtil.readPackageDataFrom(data, strings)
+        val (nameResolver, packageProto, lazyMembers) = protoCache.getPackageData(kotlinClass, data, strings) {
+            parseProto(kotlinClass) {
+                JvmProtoBufUtil.readPackageDataWithLazyMembersFrom(data, strings)
+            }
         }
         val source = JvmPackagePartSource(kotlinClass.classId)
-        return DeserializedPackageMemberScope(descriptor, packageProto, nameResolver, source, components) {
+        return DeserializedPackageMemberScope(descriptor, packageProto, nameResolver, source, components, lazyMembers) {
             // All classes are included into Java scope
             emptyList()
         }
@@ -78,6 +80,16 @@ class DeserializedDescriptorResolver(private val errorReporter: ErrorReporter) {
         return ChainedMemberScope("Member scope for union of package parts data", scopes)
     }
 
+    internal fun readClassData(kotlinClass: KotlinJvmBinaryClass): ClassData? {
+        val data = readData(kotlinClass, KOTLIN_CLASS) ?: return null
+        val strings = kotlinClass.classHeader.strings.sure { "String table not found in $kotlinClass" }
+        return protoCache.getClassData(kotlinClass, data, strings) {
+            parseProto(kotlinClass) {
+                JvmProtoBufUtil.readClassDataWithLazyMembersFrom(data, strings)
+            }
+        }
+    }
+
     internal fun readData(kotlinClass: KotlinJvmBinaryClass, expectedKinds: Set<KotlinClassHeader.Kind>): Array<String>? {
         val header = kotlinClass.classHeader
         if (!header.metadataVersion.isCompatible()) {
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.load.kotlin
+
+import org.jetbrains.kotlin.serialization.ClassData
+import org.jetbrains.kotlin.serialization.PackageData
+
+// Parsed metadata of binary classes, which may be shared between different modules and resolve sessions.
+// Implementations must check that the cached value was parsed from the same data, because the class file could have changed
+interface DeserializedProtoCache {
+    fun getClassData(kotlinClass: KotlinJvmBinaryClass, data: Array<String>, strings: Array<String>, parse: () -> ClassData): ClassData
+
+    fun getPackageData(kotlinClass: KotlinJvmBinaryClass, data: Array<String>, strings: Array<String>, parse: () -> PackageData): PackageData
+
+    object DoNothing : DeserializedProtoCache {
+        override fun getClassData(kotlinClass: KotlinJvmBinaryClass, data: Array<String>, strings: Array<String>, parse: () -> ClassData) =
+                parse()
+
+        override fun getPackageData(kotlinClass: KotlinJvmBinaryClass, data: Array<String>, strings: Array<String>, parse: () -> PackageData) =
+                parse()
+    }
+}
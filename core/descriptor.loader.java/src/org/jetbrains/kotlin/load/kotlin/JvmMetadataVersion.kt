@@ -28,8 +28,15 @@ class JvmMetadataVersion(vararg numbers: Int) : BinaryVersion(*numbers) {
             skipCheck || (this.major == 1 && this.minor == 1)
 
     companion object {
+        // per compilation thread and threads started by it, since compilations in the daemon run concurrently
+        private val skipCheckInThread = object : InheritableThreadLocal<Boolean>() {
+            override fun initialValue() = false
+        }
+
         // TODO: this is a temporary hack which can be removed once we migrate the IDEA code from 1.0 to 1.1
-        var skipCheck: Boolean = false
+        var skipCheck: Boolean
+            get() = skipCheckInThread.get()
+            set(value) = skipCheckInThread.set(value)
 
         @JvmField
         val INSTANCE = JvmMetadataVersion(1, 1, 0)
@@ -52,6 +52,30 @@ object JvmProtoBufUtil {
         return PackageData(nameResolver, packageProto)
     }
 
+    // Same as readClassDataFrom, but functions and properties are parsed on demand, see LazyMemberProtos
+    @JvmStatic fun readClassDataWithLazyMembersFrom(data: Array<String>, strings: Array<String>): ClassData {
+        val bytes = BitEncoding.decodeBytes(data)
+        val input = ByteArrayInputStream(bytes)
+        val nameResolver = JvmNameResolver(JvmProtoBuf.StringTableTypes.parseDelimitedFrom(input, EXTENSION_REGISTRY), strings)
+        val (classBytes, lazyMembers) = LazyMemberProtos.split(
+                bytes, bytes.size - input.available(),
+                ProtoBuf.Class.FUNCTION_FIELD_NUMBER, ProtoBuf.Class.PROPERTY_FIELD_NUMBER, EXTENSION_REGISTRY
+        )
+        return ClassData(nameResolver, ProtoBuf.Class.parseFrom(classBytes, EXTENSION_REGISTRY), lazyMembers)
+    }
+
+    // Same as readPackageDataFrom, but functions and properties are parsed on demand, see LazyMemberProtos
+    @JvmStatic fun readPackageDataWithLazyMembersFrom(data: Array<String>, strings: Array<String>): PackageData {
+        val bytes = BitEncoding.decodeBytes(data)
+        val input = ByteArrayInputStream(bytes)
+        val nameResolver = JvmNameResolver(JvmProtoBuf.StringTableTypes.parseDelimitedFrom(input, EXTENSION_REGISTRY), strings)
+        val (packageBytes, lazyMembers) = LazyMemberProtos.split(
+                bytes, bytes.size - input.available(),
+                ProtoBuf.Package.FUNCTION_FIELD_NUMBER, ProtoBuf.Package.PROPERTY_FIELD_NUMBER, EXTENSION_REGISTRY
+        )
+        return PackageData(nameResolver, ProtoBuf.Package.parseFrom(packageBytes, EXTENSION_REGISTRY), lazyMembers)
+    }
+
     // returns JVM signature in the format: "equals(Ljava/lang/Object;)Z"
     fun getJvmMethodSignature(
             proto: ProtoBuf.Function,
@@ -31,6 +31,7 @@ import org.jetbrains.kotlin.load.java.structure.JavaPropertyInitializerEvaluator
 import org.jetbrains.kotlin.load.kotlin.BinaryClassAnnotationAndConstantLoaderImpl
 import org.jetbrains.kotlin.load.kotlin.DeserializationComponentsForJava
 import org.jetbrains.kotlin.load.kotlin.DeserializedDescriptorResolver
+import org.jetbrains.kotlin.load.kotlin.DeserializedProtoCache
 import org.jetbrains.kotlin.load.kotlin.JavaClassDataFinder
 import org.jetbrains.kotlin.name.Name
 import org.jetbrains.kotlin.platform.JavaToKotlinClassMap
@@ -52,7 +53,7 @@ class RuntimeModuleData private constructor(val deserialization: Deserialization
                                               ModuleParameters(listOf(), JavaToKotlinClassMap.INSTANCE), builtIns)
 
             val reflectKotlinClassFinder = ReflectKotlinClassFinder(classLoader)
-            val deserializedDescriptorResolver = DeserializedDescriptorResolver(RuntimeErrorReporter)
+            val deserializedDescriptorResolver = DeserializedDescriptorResolver(RuntimeErrorReporter, DeserializedProtoCache.DoNothing)
             val singleModuleClassResolver = SingleModuleClassResolver()
             val runtimePackageFacadeProvider = RuntimePackagePartProvider(classLoader)
             val globalJavaResolverContext = JavaResolverComponents(
@@ -17,11 +17,14 @@
 package org.jetbrains.kotlin.serialization
 
 import org.jetbrains.kotlin.descriptors.SourceElement
+import org.jetbrains.kotlin.serialization.deserialization.LazyMemberProtos
 import org.jetbrains.kotlin.serialization.deserialization.NameResolver
 
+// if lazyMembers are present, functions and properties are stored there instead of classProto
 data class ClassData(
         val nameResolver: NameResolver,
-        val classProto: ProtoBuf.Class
+        val classProto: ProtoBuf.Class,
+        val lazyMembers: LazyMemberProtos? = null
 )
 
 data class ClassDataWithSource(
@@ -29,7 +32,9 @@ data class ClassDataWithSource(
         val sourceElement: SourceElement = SourceElement.NO_SOURCE
 )
 
+// if lazyMembers are present, functions and properties are stored there instead of packageProto
 data class PackageData(
         val nameResolver: NameResolver,
-        val packageProto: ProtoBuf.Package
+        val packageProto: ProtoBuf.Package,
+        val lazyMembers: LazyMemberProtos? = null
 )
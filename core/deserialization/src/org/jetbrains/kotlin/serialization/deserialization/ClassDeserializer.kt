@@ -36,7 +36,7 @@ class ClassDeserializer(private val components: DeserializationComponents) {
         val (classData, sourceElement) = key.classDataWithSource
                                          ?: components.classDataFinder.findClassData(classId)
                                          ?: return null
-        val (nameResolver, classProto) = classData
+        val (nameResolver, classProto, lazyMembers) = classData
 
         val outerContext = if (classId.isNestedClass) {
             val outerClass = deserializeClass(classId.outerClassId) as? DeserializedClassDescriptor ?: return null
@@ -59,7 +59,7 @@ class ClassDeserializer(private val components: DeserializationComponents) {
             components.createContext(fragment, nameResolver, TypeTable(classProto.typeTable), packagePartSource = null)
         }
 
-        return DeserializedClassDescriptor(outerContext, classProto, nameResolver, sourceElement)
+        return DeserializedClassDescriptor(outerContext, classProto, nameResolver, sourceElement, lazyMembers)
     }
 
     private class ClassKey(val classId: ClassId, val classDataWithSource: ClassDataWithSource?) {
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.serialization.deserialization
+
+import com.google.protobuf.*
+import org.jetbrains.kotlin.serialization.ProtoBuf
+import java.io.ByteArrayOutputStream
+import java.util.*
+
+// Functions and properties of a serialized class or package, each of them is parsed only when it's accessed for the first time.
+// Only member names and presence of receivers are read eagerly, which is enough for DeserializedMemberScope to index members by name
+class LazyMemberProtos private constructor(
+        val functions: List<Member<ProtoBuf.Function>>,
+        val properties: List<Member<ProtoBuf.Property>>
+) {
+    class Member<out M : MessageLite>(val nameIndex: Int, val isExtension: Boolean, parse: () -> M) {
+        val proto: M by lazy(parse)
+    }
+
+    companion object {
+        // Splits the message stored in bytes starting from offset into its functions and properties (fields with the given numbers)
+        // and the rest of the message, which is returned as bytes to be parsed as usual.
+        // Member protos keep a reference to bytes until they are parsed
+        @JvmStatic
+        fun split(
+                bytes: ByteArray,
+                offset: Int,
+                functionField: Int,
+                propertyField: Int,
+                extensionRegistry: ExtensionRegistryLite
+        ): Pair<ByteArray, LazyMemberProtos> {
+            val rest = ByteArrayOutputStream(bytes.size - offset)
+            val functions = ArrayList<Member<ProtoBuf.Function>>()
+            val properties = ArrayList<Member<ProtoBuf.Property>>()
+
+            val input = CodedInputStream.newInstance(bytes, offset, bytes.size - offset)
+            while (true) {
+                val fieldStart = offset + input.totalBytesRead
+                val tag = input.readTag()
+                if (tag == 0) break
+
+                val field = WireFormat.getTagFieldNumber(tag)
+                if ((field == functionField || field == propertyField) &&
+                    WireFormat.getTagWireType(tag) == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+                    val length = input.readRawVarint32()
+                    val memberStart = offset + input.totalBytesRead
+                    input.skipRawBytes(length)
+
+                    if (field == functionField) {
+                        functions.add(createMember(bytes, memberStart, length, ProtoBuf.Function.PARSER,
+                                                   ProtoBuf.Function.NAME_FIELD_NUMBER, ProtoBuf.Function.RECEIVER_TYPE_FIELD_NUMBER,
+                                                   ProtoBuf.Function.RECEIVER_TYPE_ID_FIELD_NUMBER, extensionRegistry))
+                    }
+                    else {
+                        properties.add(createMember(bytes, memberStart, length, ProtoBuf.Property.PARSER,
+                                                    ProtoBuf.Property.NAME_FIELD_NUMBER, ProtoBuf.Property.RECEIVER_TYPE_FIELD_NUMBER,
+                                                    ProtoBuf.Property.RECEIVER_TYPE_ID_FIELD_NUMBER, extensionRegistry))
+                    }
+                }
+                else {
+                    input.skipField(tag)
+                    rest.write(bytes, fieldStart, offset + input.totalBytesRead - fieldStart)
+                }
+            }
+
+            return Pair(rest.toByteArray(), LazyMemberProtos(functions, properties))
+        }
+
+        private fun <M : MessageLite> createMember(
+                bytes: ByteArray,
+                offset: Int,
+                length: Int,
+                parser: Parser<M>,
+                nameField: Int,
+                receiverTypeField: Int,
+                receiverTypeIdField: Int,
+                extensionRegistry: ExtensionRegistryLite
+        ): Member<M> {
+            var nameIndex = 0
+            var isExtension = false
+
+            val input = CodedInputStream.newInstance(bytes, offset, length)
+            while (true) {
+                val tag = input.readTag()
+                if (tag == 0) break
+
+                when (WireFormat.getTagFieldNumber(tag)) {
+                    nameField -> nameIndex = input.readInt32()
+                    receiverTypeField, receiverTypeIdField -> {
+                        isExtension = true
+                        input.skipField(tag)
+                    }
+                    else -> input.skipField(tag)
+                }
+            }
+
+            return Member(nameIndex, isExtension) { parser.parseFrom(bytes, offset, length, extensionRegistry) }
+        }
+    }
+}
@@ -44,7 +44,8 @@ class DeserializedClassDescriptor(
         outerContext: DeserializationContext,
         val classProto: ProtoBuf.Class,
         nameResolver: NameResolver,
-        private val sourceElement: SourceElement
+        private val sourceElement: SourceElement,
+        private val lazyMembers: LazyMemberProtos? = null
 ) : ClassDescriptor, AbstractClassDescriptor(
         outerContext.storageManager,
         nameResolver.getClassId(classProto.fqName).shortClassName
@@ -192,7 +193,7 @@ class DeserializedClassDescriptor(
         override fun toString() = getName().toString()
     }
 
-    private inner class DeserializedClassMemberScope : DeserializedMemberScope(c, classProto.functionList, classProto.propertyList) {
+    private inner class DeserializedClassMemberScope : DeserializedMemberScope(c, classProto.functionList, classProto.propertyList, lazyMembers) {
         private val classDescriptor: DeserializedClassDescriptor get() = this@DeserializedClassDescriptor
         private val allDescriptors = c.storageManager.createLazyValue {
             computeDescriptors(DescriptorKindFilter.ALL, MemberScope.ALL_NAME_FILTER, NoLookupLocation.WHEN_GET_ALL_DESCRIPTORS)
@@ -322,8 +323,8 @@ class DeserializedClassDescriptor(
                 }
             }
 
-            return classProto.functionList.mapTo(result) { c.nameResolver.getName(it.name) } +
-                   classProto.propertyList.mapTo(result) { c.nameResolver.getName(it.name) }
+            result.addAll(memberScope.getDeclaredMemberNames())
+            return result
         }
 
         fun all(): Collection<ClassDescriptor> =
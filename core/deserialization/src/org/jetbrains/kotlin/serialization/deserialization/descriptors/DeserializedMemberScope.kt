@@ -25,6 +25,7 @@ import org.jetbrains.kotlin.resolve.scopes.DescriptorKindFilter
 import org.jetbrains.kotlin.resolve.scopes.MemberScopeImpl
 import org.jetbrains.kotlin.serialization.ProtoBuf
 import org.jetbrains.kotlin.serialization.deserialization.DeserializationContext
+import org.jetbrains.kotlin.serialization.deserialization.LazyMemberProtos
 import org.jetbrains.kotlin.serialization.deserialization.receiverType
 import org.jetbrains.kotlin.utils.Printer
 import org.jetbrains.kotlin.utils.toReadOnlyList
@@ -33,18 +34,21 @@ import java.util.*
 abstract class DeserializedMemberScope protected constructor(
         protected val c: DeserializationContext,
         functionList: Collection<ProtoBuf.Function>,
-        propertyList: Collection<ProtoBuf.Property>
+        propertyList: Collection<ProtoBuf.Property>,
+        lazyMembers: LazyMemberProtos? = null
 ) : MemberScopeImpl() {
 
     private data class ProtoKey(val name: Name, val isExtension: Boolean)
 
     private val functionProtos =
             c.storageManager.createLazyValue {
-                groupByKey(functionList, { it.name }) { it.receiverType(c.typeTable) != null }
+                if (lazyMembers != null) groupLazily(lazyMembers.functions)
+                else groupByKey(functionList, { it.name }) { it.receiverType(c.typeTable) != null }
             }
     private val propertyProtos =
             c.storageManager.createLazyValue {
-                groupByKey(propertyList, { it.name }) { it.receiverType(c.typeTable) != null }
+                if (lazyMembers != null) groupLazily(lazyMembers.properties)
+                else groupByKey(propertyList, { it.name }) { it.receiverType(c.typeTable) != null }
             }
 
     private val functions =
@@ -63,6 +67,26 @@ abstract class DeserializedMemberScope protected constructor(
         return map
     }
 
+    // protos in the resulting lists are parsed on access, so only members with the requested names are parsed
+    private fun <M : MessageLite> groupLazily(members: List<LazyMemberProtos.Member<M>>): Map<ProtoKey, List<M>> {
+        val map = LinkedHashMap<ProtoKey, MutableList<LazyMemberProtos.Member<M>>>()
+        for (member in members) {
+            val key = ProtoKey(c.nameResolver.getName(member.nameIndex), member.isExtension)
+            map.getOrPut(key) { ArrayList(1) }.add(member)
+        }
+        return map.mapValues { entry ->
+            val group = entry.value
+            object : AbstractList<M>() {
+                override val size: Int get() = group.size
+                override fun get(index: Int): M = group[index].proto
+            }
+        }
+    }
+
+    // names of functions and properties declared in this scope, no members are deserialized to compute them
+    internal fun getDeclaredMemberNames(): Set<Name> =
+            (functionProtos().keys + propertyProtos().keys).mapTo(LinkedHashSet()) { it.name }
+
     private fun computeFunctions(name: Name): Collection<FunctionDescriptor> {
         val protos = functionProtos()[ProtoKey(name, isExtension = false)].orEmpty() +
                      functionProtos()[ProtoKey(name, isExtension = true)].orEmpty()
@@ -27,6 +27,7 @@ import org.jetbrains.kotlin.name.SpecialNames
 import org.jetbrains.kotlin.resolve.scopes.DescriptorKindFilter
 import org.jetbrains.kotlin.serialization.ProtoBuf
 import org.jetbrains.kotlin.serialization.deserialization.DeserializationComponents
+import org.jetbrains.kotlin.serialization.deserialization.LazyMemberProtos
 import org.jetbrains.kotlin.serialization.deserialization.NameResolver
 import org.jetbrains.kotlin.serialization.deserialization.TypeTable
 import org.jetbrains.kotlin.storage.getValue
@@ -38,10 +39,11 @@ open class DeserializedPackageMemberScope(
         nameResolver: NameResolver,
         packagePartSource: PackagePartSource?,
         components: DeserializationComponents,
+        lazyMembers: LazyMemberProtos? = null,
         classNames: () -> Collection<Name>
 ) : DeserializedMemberScope(
         components.createContext(packageDescriptor, nameResolver, TypeTable(proto.typeTable), packagePartSource),
-        proto.functionList, proto.propertyList
+        proto.functionList, proto.propertyList, lazyMembers
 ) {
     private val packageFqName = packageDescriptor.fqName
 
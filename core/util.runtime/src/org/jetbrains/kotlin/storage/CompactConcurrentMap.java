@@ -0,0 +1,191 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.storage;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A memory-compact map for caches of memoized functions: keys and values are stored in a single open-addressing table,
+ * so there are no per-entry objects, and small maps (most caches have only a few entries) are not over-allocated.
+ *
+ * Reads are lock-free, writes are synchronized on the map. A writer stores the value before the key,
+ * so a reader that sees a key always sees its value. Removal is not supported, since memoized values are never evicted.
+ * Neither keys nor values can be null.
+ */
+final class CompactConcurrentMap<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+    private static final int INITIAL_CAPACITY = 2;
+
+    // tables of up to this many slots are filled completely, probing all of them is as cheap as hashing into a larger table
+    private static final int SMALL_CAPACITY = 8;
+
+    // [key0, value0, key1, value1, ...], the number of slots is a power of two
+    private volatile AtomicReferenceArray<Object> table = new AtomicReferenceArray<Object>(INITIAL_CAPACITY * 2);
+    private volatile int size;
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        AtomicReferenceArray<Object> tab = table;
+        int slot = findSlot(tab, key);
+        return slot < 0 ? null : (V) tab.get(slot * 2 + 1);
+    }
+
+    @Override
+    public synchronized V put(@NotNull K key, @NotNull V value) {
+        return doPut(key, value, false);
+    }
+
+    @Override
+    public synchronized V putIfAbsent(@NotNull K key, @NotNull V value) {
+        return doPut(key, value, true);
+    }
+
+    @Override
+    public synchronized boolean replace(@NotNull K key, @NotNull V oldValue, @NotNull V newValue) {
+        AtomicReferenceArray<Object> tab = table;
+        int slot = findSlot(tab, key);
+        if (slot < 0 || !oldValue.equals(tab.get(slot * 2 + 1))) return false;
+        tab.set(slot * 2 + 1, newValue);
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized V replace(@NotNull K key, @NotNull V value) {
+        AtomicReferenceArray<Object> tab = table;
+        int slot = findSlot(tab, key);
+        if (slot < 0) return null;
+        return (V) tab.getAndSet(slot * 2 + 1, value);
+    }
+
+    @Override
+    public V remove(Object key) {
+        throw new UnsupportedOperationException("Removal is not supported by " + getClass().getSimpleName());
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        throw new UnsupportedOperationException("Removal is not supported by " + getClass().getSimpleName());
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("Removal is not supported by " + getClass().getSimpleName());
+    }
+
+    // a snapshot of the current contents
+    @NotNull
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<Entry<K, V>> entrySet() {
+        AtomicReferenceArray<Object> tab = table;
+        Map<K, V> snapshot = new LinkedHashMap<K, V>();
+        for (int i = 0; i < tab.length(); i += 2) {
+            Object key = tab.get(i);
+            if (key != null) {
+                snapshot.put((K) key, (V) tab.get(i + 1));
+            }
+        }
+        return Collections.unmodifiableMap(snapshot).entrySet();
+    }
+
+    @SuppressWarnings("unchecked")
+    private V doPut(@NotNull K key, @NotNull V value, boolean onlyIfAbsent) {
+        if (value == null) throw new NullPointerException("Null values are not supported");
+
+        AtomicReferenceArray<Object> tab = table;
+        int slot = findSlot(tab, key);
+        if (slot >= 0) {
+            return (V) (onlyIfAbsent ? tab.get(slot * 2 + 1) : tab.getAndSet(slot * 2 + 1, value));
+        }
+
+        int capacity = tab.length() / 2;
+        if (needsResize(size + 1, capacity)) {
+            tab = resize(tab, capacity * 2);
+        }
+        insert(tab, key, value);
+        size++;
+        return null;
+    }
+
+    private static boolean needsResize(int newSize, int capacity) {
+        if (capacity <= SMALL_CAPACITY) return newSize > capacity;
+        // keep the load factor of larger tables under 3/4
+        return newSize * 4 > capacity * 3;
+    }
+
+    @NotNull
+    private AtomicReferenceArray<Object> resize(@NotNull AtomicReferenceArray<Object> oldTable, int newCapacity) {
+        AtomicReferenceArray<Object> newTable = new AtomicReferenceArray<Object>(newCapacity * 2);
+        for (int i = 0; i < oldTable.length(); i += 2) {
+            Object key = oldTable.get(i);
+            if (key != null) {
+                insert(newTable, key, oldTable.get(i + 1));
+            }
+        }
+        // readers still using the old table see a consistent, if slightly outdated, state
+        table = newTable;
+        return newTable;
+    }
+
+    private static void insert(@NotNull AtomicReferenceArray<Object> tab, @NotNull Object key, @NotNull Object value) {
+        int mask = tab.length() / 2 - 1;
+        int slot = hash(key) & mask;
+        while (tab.get(slot * 2) != null) {
+            slot = (slot + 1) & mask;
+        }
+        // the value must be visible to anyone who sees the key
+        tab.set(slot * 2 + 1, value);
+        tab.set(slot * 2, key);
+    }
+
+    private static int findSlot(@NotNull AtomicReferenceArray<Object> tab, @Nullable Object key) {
+        if (key == null) return -1;
+
+        int capacity = tab.length() / 2;
+        int mask = capacity - 1;
+        int slot = hash(key) & mask;
+        for (int probes = 0; probes < capacity; probes++) {
+            Object candidate = tab.get(slot * 2);
+            if (candidate == null) return -1;
+            if (candidate == key || candidate.equals(key)) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static int hash(@NotNull Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
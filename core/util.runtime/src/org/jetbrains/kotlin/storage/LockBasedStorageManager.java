@@ -26,7 +26,6 @@ import org.jetbrains.kotlin.utils.WrappedValues;
 
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -69,7 +68,7 @@ public class LockBasedStorageManager implements StorageManager {
     private final ExceptionHandlingStrategy exceptionHandlingStrategy;
     private final String debugText;
 
-    private LockBasedStorageManager(
+    LockBasedStorageManager(
             @NotNull String debugText,
             @NotNull ExceptionHandlingStrategy exceptionHandlingStrategy,
             @NotNull Lock lock
@@ -87,7 +86,7 @@ public class LockBasedStorageManager implements StorageManager {
         this(getPointOfConstruction(), exceptionHandlingStrategy, new ReentrantLock());
     }
 
-    private static String getPointOfConstruction() {
+    static String getPointOfConstruction() {
         StackTraceElement[] trace = Thread.currentThread().getStackTrace();
         // we need to skip frames for getStackTrace(), this method and the constructor that's calling it
         if (trace.length <= 3) return "<unknown creating class>";
@@ -102,7 +101,7 @@ public class LockBasedStorageManager implements StorageManager {
     @NotNull
     @Override
     public <K, V> MemoizedFunctionToNotNull<K, V> createMemoizedFunction(@NotNull Function1<? super K, ? extends V> compute) {
-        return createMemoizedFunction(compute, LockBasedStorageManager.<K>createConcurrentHashMap());
+        return createMemoizedFunction(compute, LockBasedStorageManager.<K>createMemoizationMap());
     }
 
     @NotNull
@@ -117,7 +116,7 @@ public class LockBasedStorageManager implements StorageManager {
     @NotNull
     @Override
     public <K, V> MemoizedFunctionToNullable<K, V> createMemoizedFunctionWithNullableValues(@NotNull Function1<? super K, ? extends V> compute) {
-        return createMemoizedFunctionWithNullableValues(compute, LockBasedStorageManager.<K>createConcurrentHashMap());
+        return createMemoizedFunctionWithNullableValues(compute, LockBasedStorageManager.<K>createMemoizationMap());
     }
 
     @Override
@@ -219,9 +218,9 @@ public class LockBasedStorageManager implements StorageManager {
     }
 
     @NotNull
-    private static <K> ConcurrentMap<K, Object> createConcurrentHashMap() {
-        // memory optimization: fewer segments and entries stored
-        return new ConcurrentHashMap<K, Object>(3, 1, 2);
+    static <K> ConcurrentMap<K, Object> createMemoizationMap() {
+        // memory optimization: no objects per entry and small initial capacity
+        return new CompactConcurrentMap<K, Object>();
     }
 
     @NotNull
@@ -466,11 +465,15 @@ public class LockBasedStorageManager implements StorageManager {
             @NotNull LockBasedStorageManager base,
             @NotNull ExceptionHandlingStrategy newStrategy
     ) {
+        // values of both storage managers may depend on each other, so they are computed the same way
+        if (base instanceof PerValueLockStorageManager) {
+            return new PerValueLockStorageManager(getPointOfConstruction(), newStrategy, base.lock);
+        }
         return new LockBasedStorageManager(getPointOfConstruction(), newStrategy, base.lock);
     }
 
     @NotNull
-    private static <T extends Throwable> T sanitizeStackTrace(@NotNull T throwable) {
+    static <T extends Throwable> T sanitizeStackTrace(@NotNull T throwable) {
         String storagePackageName = LockBasedStorageManager.class.getPackage().getName();
         StackTraceElement[] stackTrace = throwable.getStackTrace();
         int size = stackTrace.length;
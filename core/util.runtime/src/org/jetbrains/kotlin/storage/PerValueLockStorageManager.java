@@ -0,0 +1,494 @@
+/*
+ * Copyright 2010-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.storage;
+
+import kotlin.Unit;
+import kotlin.jvm.functions.Function0;
+import kotlin.jvm.functions.Function1;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.utils.WrappedValues;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Same as {@link LockBasedStorageManager}, but lazy values and memoized functions are not computed under the lock of the storage manager.
+ *
+ * A value being computed is marked as such, and other threads requesting it wait until the computation finishes,
+ * so every value is still computed once, but computations of different values run concurrently.
+ * A thread requesting a value which is being computed by itself, or by a thread which (transitively) waits for a value
+ * being computed by the requesting thread, gets the same result as on a recursive call with {@link LockBasedStorageManager}:
+ * the computations form a cycle, which would be a recursion if they all ran on one thread.
+ *
+ * {@link #compute} still runs under the lock, since its callers (e.g. lock protected traces of lazy resolve) rely on mutual exclusion.
+ * The lock is released while the thread waits for a value computed by another thread, which may need the lock to finish the computation.
+ */
+public class PerValueLockStorageManager extends LockBasedStorageManager {
+    @NotNull
+    public static PerValueLockStorageManager createWithExceptionHandling(@NotNull ExceptionHandlingStrategy exceptionHandlingStrategy) {
+        return new PerValueLockStorageManager(getPointOfConstruction(), exceptionHandlingStrategy, new ReentrantLock());
+    }
+
+    // Computations the threads are waiting for, guarded by itself. It's shared by all the storage managers,
+    // since computations of values of one storage manager may request values of another one
+    private static final Map<Thread, Computation> waitingThreads = new HashMap<Thread, Computation>();
+
+    // Locks taken by compute() on the current thread, they are released while the thread waits for a computation
+    private static final ThreadLocal<List<Lock>> computeLocks = new ThreadLocal<List<Lock>>() {
+        @Override
+        protected List<Lock> initialValue() {
+            return new ArrayList<Lock>(1);
+        }
+    };
+
+    private final ExceptionHandlingStrategy exceptionHandlingStrategy;
+
+    public PerValueLockStorageManager() {
+        this(getPointOfConstruction(), ExceptionHandlingStrategy.THROW, new ReentrantLock());
+    }
+
+    PerValueLockStorageManager(
+            @NotNull String debugText,
+            @NotNull ExceptionHandlingStrategy exceptionHandlingStrategy,
+            @NotNull Lock lock
+    ) {
+        super(debugText, exceptionHandlingStrategy, lock);
+        this.exceptionHandlingStrategy = exceptionHandlingStrategy;
+    }
+
+    @NotNull
+    @Override
+    public <K, V> MemoizedFunctionToNotNull<K, V> createMemoizedFunction(@NotNull Function1<? super K, ? extends V> compute) {
+        return createMemoizedFunction(compute, LockBasedStorageManager.<K>createMemoizationMap());
+    }
+
+    @NotNull
+    @Override
+    public <K, V> MemoizedFunctionToNotNull<K, V> createMemoizedFunction(
+            @NotNull Function1<? super K, ? extends V> compute,
+            @NotNull ConcurrentMap<K, Object> map
+    ) {
+        return new MapBasedMemoizedFunctionToNotNull<K, V>(map, compute);
+    }
+
+    @NotNull
+    @Override
+    public <K, V> MemoizedFunctionToNullable<K, V> createMemoizedFunctionWithNullableValues(@NotNull Function1<? super K, ? extends V> compute) {
+        return createMemoizedFunctionWithNullableValues(compute, LockBasedStorageManager.<K>createMemoizationMap());
+    }
+
+    @NotNull
+    @Override
+    public <K, V> MemoizedFunctionToNullable<K, V> createMemoizedFunctionWithNullableValues(
+            @NotNull Function1<? super K, ? extends V> compute,
+            @NotNull ConcurrentMap<K, Object> map
+    ) {
+        return new MapBasedMemoizedFunction<K, V>(map, compute);
+    }
+
+    @NotNull
+    @Override
+    public <T> NotNullLazyValue<T> createLazyValue(@NotNull Function0<? extends T> computable) {
+        return new PerValueLockNotNullLazyValue<T>(computable);
+    }
+
+    @NotNull
+    @Override
+    public <T> NotNullLazyValue<T> createRecursionTolerantLazyValue(
+            @NotNull Function0<? extends T> computable, @NotNull final T onRecursiveCall
+    ) {
+        return new PerValueLockNotNullLazyValue<T>(computable) {
+            @Override
+            protected T recursionDetected(boolean firstTime) {
+                return onRecursiveCall;
+            }
+        };
+    }
+
+    @NotNull
+    @Override
+    public <T> NotNullLazyValue<T> createLazyValueWithPostCompute(
+            @NotNull Function0<? extends T> computable,
+            final Function1<? super Boolean, ? extends T> onRecursiveCall,
+            @NotNull final Function1<? super T, Unit> postCompute
+    ) {
+        return new PerValueLockNotNullLazyValue<T>(computable) {
+            @Override
+            protected T recursionDetected(boolean firstTime) {
+                if (onRecursiveCall == null) {
+                    return super.recursionDetected(firstTime);
+                }
+                return onRecursiveCall.invoke(firstTime);
+            }
+
+            @Override
+            protected void postCompute(@NotNull T value) {
+                postCompute.invoke(value);
+            }
+        };
+    }
+
+    @NotNull
+    @Override
+    public <T> NullableLazyValue<T> createNullableLazyValue(@NotNull Function0<? extends T> computable) {
+        return new PerValueLockLazyValue<T>(computable);
+    }
+
+    @NotNull
+    @Override
+    public <T> NullableLazyValue<T> createRecursionTolerantNullableLazyValue(@NotNull Function0<? extends T> computable, final T onRecursiveCall) {
+        return new PerValueLockLazyValue<T>(computable) {
+            @Override
+            protected T recursionDetected(boolean firstTime) {
+                return onRecursiveCall;
+            }
+        };
+    }
+
+    @NotNull
+    @Override
+    public <T> NullableLazyValue<T> createNullableLazyValueWithPostCompute(
+            @NotNull Function0<? extends T> computable, @NotNull final Function1<? super T, Unit> postCompute
+    ) {
+        return new PerValueLockLazyValue<T>(computable) {
+            @Override
+            protected void postCompute(@Nullable T value) {
+                postCompute.invoke(value);
+            }
+        };
+    }
+
+    @Override
+    public <T> T compute(@NotNull Function0<? extends T> computable) {
+        List<Lock> locks = computeLocks.get();
+        lock.lock();
+        locks.add(lock);
+        try {
+            return computable.invoke();
+        }
+        catch (Throwable throwable) {
+            throw exceptionHandlingStrategy.handleException(throwable);
+        }
+        finally {
+            locks.remove(locks.size() - 1);
+            lock.unlock();
+        }
+    }
+
+    private static class Computation {
+        private final Thread owner = Thread.currentThread();
+        private volatile boolean finished = false;
+        private boolean recursionDetected = false;
+
+        // the value is visible to the owner thread while it's post computed
+        private volatile boolean computed = false;
+        private Object value = null;
+
+        // Returns true if the recursion is detected for the first time
+        synchronized boolean markRecursionDetected() {
+            boolean firstTime = !recursionDetected;
+            recursionDetected = true;
+            return firstTime;
+        }
+
+        synchronized boolean isRecursionDetected() {
+            return recursionDetected;
+        }
+
+        void finish() {
+            synchronized (this) {
+                finished = true;
+                notifyAll();
+            }
+        }
+
+        synchronized void await() {
+            boolean interrupted = false;
+            while (!finished) {
+                try {
+                    wait();
+                }
+                catch (InterruptedException e) {
+                    // the value is needed anyway, the computation can't be abandoned
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Waits until the computation is finished by another thread. Returns false without waiting if the computation is recursive,
+    // i.e. it's run by the current thread, or its thread waits for a computation which (transitively) waits for the current thread.
+    // Finished computations on the path mean that there's no cycle: their threads are not blocked anymore
+    private static boolean awaitUnlessRecursive(@NotNull Computation computation) {
+        Thread currentThread = Thread.currentThread();
+        synchronized (waitingThreads) {
+            for (Computation c = computation; c != null && !c.finished; c = waitingThreads.get(c.owner)) {
+                if (c.owner == currentThread) return false;
+            }
+            waitingThreads.put(currentThread, computation);
+        }
+
+        List<Lock> locks = computeLocks.get();
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            locks.get(i).unlock();
+        }
+        try {
+            computation.await();
+        }
+        finally {
+            for (Lock lock : locks) {
+                lock.lock();
+            }
+            synchronized (waitingThreads) {
+                waitingThreads.remove(currentThread);
+            }
+        }
+        return true;
+    }
+
+    private enum NotValue {
+        NOT_COMPUTED,
+        RECURSION_WAS_DETECTED
+    }
+
+    private class PerValueLockLazyValue<T> implements NullableLazyValue<T> {
+
+        private final Function0<? extends T> computable;
+
+        // NOT_COMPUTED, Computation while it's computed, RECURSION_WAS_DETECTED if the computation failed after a recursive call,
+        // or the value itself
+        @Nullable
+        private volatile Object value = NotValue.NOT_COMPUTED;
+
+        public PerValueLockLazyValue(@NotNull Function0<? extends T> computable) {
+            this.computable = computable;
+        }
+
+        @Override
+        public boolean isComputed() {
+            Object _value = value;
+            return _value != NotValue.NOT_COMPUTED && !(_value instanceof Computation);
+        }
+
+        @Override
+        public boolean isComputing() {
+            return value instanceof Computation;
+        }
+
+        @Override
+        public T invoke() {
+            Object _value = value;
+            if (!(_value instanceof NotValue) && !(_value instanceof Computation)) return WrappedValues.unescapeThrowable(_value);
+
+            while (true) {
+                Computation computation = null;
+                synchronized (this) {
+                    _value = value;
+                    if (_value == NotValue.NOT_COMPUTED) {
+                        computation = new Computation();
+                        value = computation;
+                    }
+                }
+
+                if (computation != null) {
+                    return compute(computation);
+                }
+
+                if (_value == NotValue.RECURSION_WAS_DETECTED) {
+                    return recursionDetected(/*firstTime = */ false);
+                }
+
+                if (!(_value instanceof Computation)) {
+                    return WrappedValues.unescapeThrowable(_value);
+                }
+
+                Computation inProgress = (Computation) _value;
+                if (awaitUnlessRecursive(inProgress)) continue;
+
+                // a recursive call from the post computation gets the computed value, as if it was the only thread
+                if (inProgress.computed) {
+                    //noinspection unchecked
+                    return (T) inProgress.value;
+                }
+                return recursionDetected(inProgress.markRecursionDetected());
+            }
+        }
+
+        private T compute(@NotNull Computation computation) {
+            T typedValue;
+            try {
+                typedValue = computable.invoke();
+            }
+            catch (Throwable throwable) {
+                // Store only if it's a genuine result, not something thrown through recursionDetected()
+                value = computation.isRecursionDetected() ? NotValue.RECURSION_WAS_DETECTED : WrappedValues.escapeThrowable(throwable);
+                computation.finish();
+                throw exceptionHandlingStrategy.handleException(throwable);
+            }
+
+            computation.value = typedValue;
+            computation.computed = true;
+            try {
+                postCompute(typedValue);
+            }
+            catch (Throwable throwable) {
+                throw exceptionHandlingStrategy.handleException(throwable);
+            }
+            finally {
+                value = typedValue;
+                computation.finish();
+            }
+            return typedValue;
+        }
+
+        /**
+         * @param firstTime {@code true} when recursion has been just detected, {@code false} otherwise
+         * @return a value to be returned on a recursive call or subsequent calls
+         */
+        protected T recursionDetected(boolean firstTime) {
+            throw sanitizeStackTrace(new IllegalStateException("Recursive call in a lazy value under " + PerValueLockStorageManager.this));
+        }
+
+        protected void postCompute(T value) {
+            // Doing something in post-compute helps prevent infinite recursion
+        }
+    }
+
+    private class PerValueLockNotNullLazyValue<T> extends PerValueLockLazyValue<T> implements NotNullLazyValue<T> {
+
+        public PerValueLockNotNullLazyValue(@NotNull Function0<? extends T> computable) {
+            super(computable);
+        }
+
+        @Override
+        @NotNull
+        public T invoke() {
+            T result = super.invoke();
+            assert result != null : "compute() returned null";
+            return result;
+        }
+    }
+
+    private class MapBasedMemoizedFunction<K, V> implements MemoizedFunctionToNullable<K, V> {
+        private final ConcurrentMap<K, Object> cache;
+        private final Function1<? super K, ? extends V> compute;
+
+        public MapBasedMemoizedFunction(@NotNull ConcurrentMap<K, Object> map, @NotNull Function1<? super K, ? extends V> compute) {
+            this.cache = map;
+            this.compute = compute;
+        }
+
+        @Override
+        @Nullable
+        public V invoke(K input) {
+            Object value = cache.get(input);
+            if (value != null && !(value instanceof Computation)) return WrappedValues.unescapeExceptionOrNull(value);
+
+            while (true) {
+                Computation computation = new Computation();
+                value = cache.putIfAbsent(input, computation);
+                if (value == null) {
+                    return compute(input, computation);
+                }
+
+                if (!(value instanceof Computation)) return WrappedValues.unescapeExceptionOrNull(value);
+
+                if (!awaitUnlessRecursive((Computation) value)) {
+                    throw recursionDetected(input);
+                }
+            }
+        }
+
+        @Nullable
+        private V compute(K input, @NotNull Computation computation) {
+            AssertionError error = null;
+            try {
+                V typedValue = compute.invoke(input);
+                Object oldValue = cache.put(input, WrappedValues.escapeNull(typedValue));
+
+                // See LockBasedStorageManager.MapBasedMemoizedFunction for why the race condition is reported this way
+                if (oldValue != computation) {
+                    error = raceCondition(input, oldValue);
+                    throw error;
+                }
+
+                return typedValue;
+            }
+            catch (Throwable throwable) {
+                if (throwable == error) throw exceptionHandlingStrategy.handleException(throwable);
+
+                Object oldValue = cache.put(input, WrappedValues.escapeThrowable(throwable));
+                if (oldValue != computation) {
+                    throw raceCondition(input, oldValue);
+                }
+
+                throw exceptionHandlingStrategy.handleException(throwable);
+            }
+            finally {
+                computation.finish();
+            }
+        }
+
+        @NotNull
+        private AssertionError recursionDetected(K input) {
+            return sanitizeStackTrace(
+                    new AssertionError("Recursion detected on input: " + input + " under " + PerValueLockStorageManager.this)
+            );
+        }
+
+        @NotNull
+        private AssertionError raceCondition(K input, Object oldValue) {
+            return sanitizeStackTrace(
+                    new AssertionError("Race condition detected on input " + input + ". Old value is " + oldValue +
+                                       " under " + PerValueLockStorageManager.this)
+            );
+        }
+
+        @Override
+        public boolean isComputed(K key) {
+            Object value = cache.get(key);
+            return value != null && !(value instanceof Computation);
+        }
+    }
+
+    private class MapBasedMemoizedFunctionToNotNull<K, V> extends MapBasedMemoizedFunction<K, V> implements MemoizedFunctionToNotNull<K, V> {
+
+        public MapBasedMemoizedFunctionToNotNull(
+                @NotNull ConcurrentMap<K, Object> map,
+                @NotNull Function1<? super K, ? extends V> compute
+        ) {
+            super(map, compute);
+        }
+
+        @NotNull
+        @Override
+        public V invoke(K input) {
+            V result = super.invoke(input);
+            assert result != null : "compute() returned null under " + PerValueLockStorageManager.this;
+            return result;
+        }
+    }
+}
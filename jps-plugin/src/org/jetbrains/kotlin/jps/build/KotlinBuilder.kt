@@ -498,12 +498,21 @@ class KotlinBuilder : ModuleLevelBuilder(BuilderCategory.SOURCE_PROCESSOR) {
 
         assert(IncrementalCompilation.isEnabled()) { "updateKotlinIncrementalCache should not be called when incremental compilation disabled" }
 
+        val classesChangesInfo = HashMap<GeneratedFile<ModuleBuildTarget>, CompilationResult>()
+        val generatedClassesByTarget = generatedFiles.filterIsInstance<GeneratedJvmClass<ModuleBuildTarget>>().groupBy { it.target }
+        for ((target, generatedClasses) in generatedClassesByTarget) {
+            val results = incrementalCaches[target]!!.saveFilesToCache(generatedClasses)
+            for (i in generatedClasses.indices) {
+                classesChangesInfo[generatedClasses[i]] = results[i]
+            }
+        }
+
         var changesInfo = CompilationResult.NO_CHANGES
         for (generatedFile in generatedFiles) {
             val ic = incrementalCaches[generatedFile.target]!!
             val newChangesInfo =
                     if (generatedFile is GeneratedJvmClass<ModuleBuildTarget>) {
-                        ic.saveFileToCache(generatedFile)
+                        classesChangesInfo[generatedFile]!!
                     }
                     else if (generatedFile.outputFile.isModuleMappingFile()) {
                         ic.saveModuleMappingToCache(generatedFile.sourceFiles, generatedFile.outputFile)
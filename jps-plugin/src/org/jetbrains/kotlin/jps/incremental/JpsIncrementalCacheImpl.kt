@@ -48,6 +48,7 @@ class JpsIncrementalCacheImpl(
     private val dirtyInlineFunctionsMap = registerMap(DirtyInlineFunctionsMap(DIRTY_INLINE_FUNCTIONS.storageFile))
     private val inlinedTo = registerMap(InlineFunctionsFilesMap(INLINED_TO.storageFile))
 
+    @Synchronized
     override fun registerInline(fromPath: String, jvmSignature: String, toPath: String) {
         if (!IncrementalCompilation.isExperimental()) {
             inlinedTo.add(fromPath, jvmSignature, toPath)
@@ -58,8 +59,8 @@ class JpsIncrementalCacheImpl(
         KotlinBuilder.LOG.debug(message)
     }
 
-    override fun additionalProcessChangedClass(kotlinClass: LocalFileKotlinClass, isPackage: Boolean) =
-            inlineFunctionsMap.process(kotlinClass, isPackage)
+    override fun additionalPrepareChangedClass(kotlinClass: LocalFileKotlinClass, isPackage: Boolean) =
+            inlineFunctionsMap.prepare(kotlinClass, isPackage)
 
     override fun additionalProcessRemovedClasses(dirtyClasses: List<JvmClassName>) {
         dirtyClasses.forEach { inlineFunctionsMap.remove(it) }
@@ -112,11 +113,11 @@ class JpsIncrementalCacheImpl(
             return result
         }
 
-        fun process(kotlinClass: LocalFileKotlinClass, isPackage: Boolean): CompilationResult {
-            return put(kotlinClass.className, getInlineFunctionsMap(kotlinClass.fileContents), isPackage)
+        fun prepare(kotlinClass: LocalFileKotlinClass, isPackage: Boolean): CacheUpdate {
+            return preparePut(kotlinClass.className, getInlineFunctionsMap(kotlinClass.fileContents), isPackage)
         }
 
-        private fun put(className: JvmClassName, newMap: Map<String, Long>, isPackage: Boolean): CompilationResult {
+        private fun preparePut(className: JvmClassName, newMap: Map<String, Long>, isPackage: Boolean): CacheUpdate {
             val internalName = className.internalName
             val oldMap = storage[internalName] ?: emptyMap()
 
@@ -134,15 +135,6 @@ class JpsIncrementalCacheImpl(
                 }
             }
 
-            when {
-                newMap.isNotEmpty() -> storage[internalName] = newMap
-                else -> storage.remove(internalName)
-            }
-
-            if (changed.isNotEmpty()) {
-                dirtyInlineFunctionsMap.put(className, changed.toList())
-            }
-
             val changes =
                     if (IncrementalCompilation.isExperimental()) {
                         val fqName = if (isPackage) className.packageFqName else className.fqNameForClassNameWithoutDollars
@@ -153,9 +145,20 @@ class JpsIncrementalCacheImpl(
                         emptySequence<ChangeInfo>()
                     }
 
-            return CompilationResult(inlineChanged = changed.isNotEmpty(),
-                                     inlineAdded = added.isNotEmpty(),
-                                     changes = changes)
+            val result = CompilationResult(inlineChanged = changed.isNotEmpty(),
+                                           inlineAdded = added.isNotEmpty(),
+                                           changes = changes)
+
+            return CacheUpdate(result) {
+                when {
+                    newMap.isNotEmpty() -> storage[internalName] = newMap
+                    else -> storage.remove(internalName)
+                }
+
+                if (changed.isNotEmpty()) {
+                    dirtyInlineFunctionsMap.put(className, changed.toList())
+                }
+            }
         }
 
         fun remove(className: JvmClassName) {
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2010-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.jps.incremental
+
+import com.intellij.openapi.util.io.FileUtil
+import com.intellij.testFramework.UsefulTestCase
+import org.jetbrains.kotlin.build.GeneratedJvmClass
+import org.jetbrains.kotlin.incremental.CompilationResult
+import org.jetbrains.kotlin.incremental.IncrementalCacheImpl
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.MockLibraryUtil
+import org.jetbrains.org.objectweb.asm.ClassReader
+import org.jetbrains.org.objectweb.asm.ClassVisitor
+import org.jetbrains.org.objectweb.asm.Opcodes
+import java.io.File
+
+class IncrementalCacheImplTest : UsefulTestCase() {
+    private lateinit var testDir: File
+
+    override fun setUp() {
+        super.setUp()
+        testDir = KotlinTestUtils.tmpDir(getTestName(true))
+    }
+
+    fun testBatchedUpdateSameAsSequential() {
+        val sourcesDir = File(testDir, "src")
+        val initial = compile(sourcesDir, "out1") { i -> source(i, constant = i, returnType = "Int") }
+        // constants are changed in some files, signatures in others, the rest is untouched
+        val modified = compile(sourcesDir, "out2") { i ->
+            when (i % 3) {
+                0 -> source(i, constant = i + 100, returnType = "Int")
+                1 -> source(i, constant = i, returnType = "Any")
+                else -> source(i, constant = i, returnType = "Int")
+            }
+        }
+
+        // more classes than IncrementalCacheImpl.MIN_CLASSES_TO_UPDATE_IN_PARALLEL, so the batched update is concurrent
+        assertTrue(initial.size > 16)
+
+        val sequentialCache = createCache("sequential")
+        val batchedCache = createCache("batched")
+        try {
+            for (classes in listOf(initial, modified)) {
+                val sequentialResults = classes.map { sequentialCache.saveFileToCache(it) }
+                val batchedResults = batchedCache.saveFilesToCache(classes)
+                assertEquals(sequentialResults.map { it.render() }, batchedResults.map { it.render() })
+                assertEquals(sequentialCache.dump(), batchedCache.dump())
+            }
+        }
+        finally {
+            sequentialCache.close()
+            batchedCache.close()
+        }
+    }
+
+    private fun createCache(name: String) =
+            IncrementalCacheImpl(File(testDir, name), File(testDir, "$name-out"), "target")
+
+    private fun source(i: Int, constant: Int, returnType: String) =
+            """
+            package test
+
+            class C$i {
+                companion object {
+                    const val CONST = $constant
+                }
+
+                fun member(): $returnType = CONST
+            }
+
+            fun topLevel$i(): $returnType = C$i.CONST
+            """
+
+    private fun compile(sourcesDir: File, outputName: String, sourceText: (Int) -> String): List<GeneratedJvmClass<String>> {
+        FileUtil.delete(sourcesDir)
+        for (i in 0..FILES_COUNT - 1) {
+            FileUtil.writeToFile(File(sourcesDir, "c$i.kt"), sourceText(i))
+        }
+
+        val outputDir = File(testDir, outputName)
+        MockLibraryUtil.compileKotlin(sourcesDir.path, outputDir)
+
+        val classFiles = File(outputDir, "test").listFiles { it -> it.name.endsWith(".class") }!!.sortedBy { it.name }
+        return classFiles.map { GeneratedJvmClass("target", listOf(File(sourcesDir, it.sourceFileName())), it) }
+    }
+
+    private fun File.sourceFileName(): String {
+        var sourceFile: String? = null
+        ClassReader(readBytes()).accept(object : ClassVisitor(Opcodes.ASM5) {
+            override fun visitSource(source: String?, debug: String?) {
+                sourceFile = source
+            }
+        }, ClassReader.SKIP_CODE)
+        return sourceFile ?: throw AssertionError("No source file for $this")
+    }
+
+    // changes are a lazy sequence, so results are compared by contents
+    private fun CompilationResult.render(): String =
+            "protoChanged=$protoChanged, constantsChanged=$constantsChanged, inlineChanged=$inlineChanged, " +
+            "inlineAdded=$inlineAdded, changes=${changes.map { it.toString() }.toList()}"
+
+    companion object {
+        private val FILES_COUNT = 10
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2010-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.jps.incremental
+
+import com.intellij.testFramework.UsefulTestCase
+import com.intellij.util.io.EnumeratorStringDescriptor
+import org.jetbrains.kotlin.incremental.storage.BasicStringMap
+import org.jetbrains.kotlin.incremental.storage.MappedStorage
+import org.jetbrains.kotlin.incremental.storage.StorageKind
+import org.jetbrains.kotlin.incremental.storage.StringCollectionExternalizer
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.util.*
+
+class MappedStorageTest : UsefulTestCase() {
+    private class TestMap(storageFile: File, storageKind: StorageKind = StorageKind.MEMORY_MAPPED) :
+            BasicStringMap<Collection<String>>(storageFile, EnumeratorStringDescriptor.INSTANCE, StringCollectionExternalizer, storageKind) {
+        operator fun get(key: String): Collection<String>? = storage[key]
+
+        operator fun set(key: String, value: Collection<String>) {
+            storage[key] = value
+        }
+
+        fun remove(key: String) {
+            storage.remove(key)
+        }
+
+        fun append(key: String, value: String) {
+            storage.append(key, value)
+        }
+
+        val keys: Collection<String>
+            get() = storage.keys
+
+        override fun dumpValue(value: Collection<String>): String = value.sorted().toString()
+    }
+
+    private lateinit var storageFile: File
+
+    override fun setUp() {
+        super.setUp()
+        storageFile = File(KotlinTestUtils.tmpDir(getTestName(true)), "test.tab")
+    }
+
+    private val mappedFile: File
+        get() = MappedStorage.mappedStorageFile(storageFile)
+
+    fun testRemovedKeysAndIndexGrowth() {
+        val expected = HashMap<String, Collection<String>>()
+        val random = Random(42)
+
+        val map = TestMap(storageFile)
+        // many removals leave tombstones in the index, which must be reused and dropped on rehash
+        for (i in 0..9999) {
+            val key = "key" + random.nextInt(2000)
+            if (random.nextInt(3) == 0) {
+                map.remove(key)
+                expected.remove(key)
+            }
+            else {
+                map[key] = listOf("$i")
+                expected[key] = listOf("$i")
+            }
+        }
+        assertSameContents(expected, map)
+        map.close()
+
+        val reopened = TestMap(storageFile)
+        assertSameContents(expected, reopened)
+        reopened.close()
+    }
+
+    fun testAppendedValues() {
+        val map = TestMap(storageFile)
+        map["a"] = listOf("1")
+        map.append("a", "2")
+        map.append("b", "3")
+        map.append("a", "4")
+        map.flush(false)
+        assertEquals(setOf("1", "2", "4"), map["a"]!!.toSet())
+
+        // put drops the appended chain
+        map["b"] = listOf("5")
+        map.append("b", "6")
+        map.close()
+
+        val reopened = TestMap(storageFile)
+        assertEquals(setOf("1", "2", "4"), reopened["a"]!!.toSet())
+        assertEquals(setOf("5", "6"), reopened["b"]!!.toSet())
+        reopened.close()
+    }
+
+    fun testCompactionOnCommit() {
+        val map = TestMap(storageFile)
+        for (i in 0..2999) {
+            map["key" + i % 10] = listOf("$i")
+        }
+        map.append("key0", "appended")
+        val dumpBeforeCommit = map.dump()
+        map.flush(false)
+
+        // the log keeps a single record per key after compaction
+        assertTrue(committedLength() < 1000)
+        assertEquals(dumpBeforeCommit, map.dump())
+        assertEquals(setOf("2990", "appended"), map["key0"]!!.toSet())
+        map.close()
+
+        val reopened = TestMap(storageFile)
+        assertEquals(10, reopened.keys.size)
+        assertEquals(setOf("2999"), reopened["key9"]!!.toSet())
+        reopened.close()
+    }
+
+    fun testNotClosedStorageFailsToOpen() {
+        val map = TestMap(storageFile)
+        map["a"] = listOf("1")
+        map.flush(true)
+
+        try {
+            val other = TestMap(storageFile)
+            assertFails { other["a"] }
+
+            // caches are rebuilt from scratch after that
+            other.clean()
+            assertNull(other["a"])
+            other["b"] = listOf("2")
+            other.close()
+
+            val reopened = TestMap(storageFile)
+            assertEquals(listOf("b"), reopened.keys.toList())
+            reopened.close()
+        }
+        finally {
+            map.clean()
+        }
+    }
+
+    fun testCommittedLengthOutOfFile() {
+        createStorageWithData()
+        val length = committedLength()
+        RandomAccessFile(mappedFile, "rw").use { it.setLength(length - 1) }
+
+        assertFails { TestMap(storageFile)["a"] }
+    }
+
+    fun testCommittedLengthInsideRecord() {
+        createStorageWithData()
+        writeCommittedLength(committedLength() - 1)
+
+        assertFails { TestMap(storageFile)["a"] }
+    }
+
+    fun testCorruptedRecordKind() {
+        createStorageWithData()
+        // the kind of the first record right after the header
+        RandomAccessFile(mappedFile, "rw").use {
+            it.seek(HEADER_SIZE)
+            it.writeByte(42)
+        }
+
+        assertFails { TestMap(storageFile)["a"] }
+    }
+
+    fun testCleanRemovesData() {
+        createStorageWithData()
+        val map = TestMap(storageFile)
+        assertNotNull(map["a"])
+
+        map.clean()
+        assertFalse(mappedFile.exists())
+        assertNull(TestMap(storageFile)["a"])
+    }
+
+    fun testMigrationBetweenStorageKinds() {
+        val expected = mapOf("a" to listOf("1"), "b" to listOf("2", "3"))
+
+        val lazyMap = TestMap(storageFile, StorageKind.PERSISTENT_HASH_MAP)
+        expected.forEach { lazyMap[it.key] = it.value }
+        lazyMap.close()
+
+        val mappedMap = TestMap(storageFile, StorageKind.MEMORY_MAPPED)
+        assertSameContents(expected, mappedMap)
+        assertFalse(storageFile.exists())
+        mappedMap.close()
+
+        val lazyMapAgain = TestMap(storageFile, StorageKind.PERSISTENT_HASH_MAP)
+        assertSameContents(expected, lazyMapAgain)
+        assertFalse(mappedFile.exists())
+        lazyMapAgain.close()
+    }
+
+    private fun createStorageWithData() {
+        val map = TestMap(storageFile)
+        map["a"] = listOf("1")
+        map.append("a", "2")
+        map["b"] = listOf("3")
+        map.close()
+    }
+
+    private fun assertSameContents(expected: Map<String, Collection<String>>, map: TestMap) {
+        assertEquals(expected.keys, map.keys.toSet())
+        for ((key, value) in expected) {
+            assertEquals(value.toSet(), map[key]!!.toSet())
+        }
+    }
+
+    private fun assertFails(block: () -> Unit) {
+        try {
+            block()
+        }
+        catch (e: IOException) {
+            return
+        }
+        fail("IOException expected")
+    }
+
+    private fun committedLength(): Long = RandomAccessFile(mappedFile, "r").use {
+        it.seek(LENGTH_OFFSET)
+        it.readLong()
+    }
+
+    private fun writeCommittedLength(length: Long) {
+        RandomAccessFile(mappedFile, "rw").use {
+            it.seek(LENGTH_OFFSET)
+            it.writeLong(length)
+        }
+    }
+
+    companion object {
+        // see the file header of MappedStorage
+        private val LENGTH_OFFSET = 16L
+        private val HEADER_SIZE = 24L
+    }
+}
@@ -0,0 +1,8 @@
+package test
+
+class Klass {
+    companion object {
+        const val CONST = "old"
+        const val OTHER = "other"
+    }
+}
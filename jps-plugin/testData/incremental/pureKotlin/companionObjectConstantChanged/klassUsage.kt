@@ -0,0 +1,5 @@
+package test
+
+class KlassUsage {
+    val klass = Klass()
+}
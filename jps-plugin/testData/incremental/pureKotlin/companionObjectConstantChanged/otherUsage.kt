@@ -0,0 +1,4 @@
+package test
+
+@Deprecated(Klass.OTHER)
+class OtherUsage
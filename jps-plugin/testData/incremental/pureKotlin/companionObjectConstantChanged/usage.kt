@@ -0,0 +1,4 @@
+package test
+
+@Deprecated(Klass.CONST)
+class Usage
@@ -0,0 +1,4 @@
+package test
+
+const val CONST = "old"
+const val OTHER = "other"
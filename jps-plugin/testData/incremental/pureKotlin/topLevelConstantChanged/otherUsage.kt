@@ -0,0 +1,4 @@
+package test
+
+@Deprecated(OTHER)
+class OtherUsage